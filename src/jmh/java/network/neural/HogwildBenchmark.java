@@ -0,0 +1,72 @@
+package network.neural;
+
+import network.neural.activationfunctions.LeakyReLU;
+import network.neural.layer.Layer;
+import network.neural.util.DataSet;
+import network.neural.util.Sampler;
+import network.neural.util.matrix.NDArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * batches per second of Hogwild training for a growing number of threads,
+ * with plain and with atomic writes to the shared weights.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HogwildBenchmark {
+
+    private static final int ROWS = 8192;
+    private static final int FEATURES = 64;
+    private static final int BATCH_SIZE = 32;
+
+    @Param({"1", "2", "4", "8", "16"})
+    public int threads;
+
+    @Param({"PLAIN", "ATOMIC"})
+    public Hogwild.Writes writes;
+
+    private Hogwild hogwild;
+
+    @Setup
+    public void setup() {
+        DataSet dataSet = new DataSet(NDArray.rand(ROWS, FEATURES), NDArray.rand(ROWS, 1));
+
+        NeuralNetwork network = new NeuralNetwork()
+                .layer(new Layer(FEATURES, 100, new LeakyReLU()))
+                .layer(new Layer(100, 10, new LeakyReLU()))
+                .layer(new Layer(10, 1, new LeakyReLU()))
+                .learningRate(0.00001);
+
+        // one epoch allocates the training buffers of the network
+        network.train(dataSet, 1, BATCH_SIZE);
+
+        Sampler sampler = Sampler.sequential();
+        sampler.bind(dataSet, BATCH_SIZE);
+        hogwild = new Hogwild(network, sampler, threads, BATCH_SIZE, writes);
+    }
+
+    @TearDown
+    public void tearDown() {
+        hogwild.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ROWS / BATCH_SIZE)
+    public double epoch() {
+        return hogwild.epoch();
+    }
+}
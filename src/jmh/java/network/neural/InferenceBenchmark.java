@@ -0,0 +1,91 @@
+package network.neural;
+
+import network.neural.activationfunctions.LeakyReLU;
+import network.neural.layer.Layer;
+import network.neural.util.matrix.NDArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * single-row predictions from 8 threads at once: NeuralNetwork.predict, the engine
+ * computing every row on its own, and the engine collecting the rows into
+ * micro-batches. sample time mode reports the p50 and p99 latency next to the
+ * number of predictions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class InferenceBenchmark {
+
+    private static final int ROWS = 1024;
+    private static final int FEATURES = 64;
+
+    private NeuralNetwork network;
+    private InferenceEngine engine;
+    private NDArray x;
+    private double[][] rows;
+
+    @Setup
+    public void setup() {
+        network = new NeuralNetwork()
+                .layer(new Layer(FEATURES, 256, new LeakyReLU()))
+                .layer(new Layer(256, 256, new LeakyReLU()))
+                .layer(new Layer(256, 64, new LeakyReLU()))
+                .layer(new Layer(64, 1, new LeakyReLU()));
+
+        engine = new InferenceEngine(network, 8, 200, TimeUnit.MICROSECONDS);
+        x = NDArray.rand(ROWS, FEATURES);
+        rows = x.data();
+    }
+
+    @TearDown
+    public void tearDown() {
+        engine.close();
+    }
+
+    /**
+     * the row each thread predicts next
+     */
+    @State(Scope.Thread)
+    public static class Row {
+        int index;
+
+        int next() {
+            index = (index + 7) % ROWS;
+            return index;
+        }
+    }
+
+    @Benchmark
+    public NDArray networkPredict(Row row) {
+        int i = row.next();
+        return network.predict(x.getRows(i, i + 1));
+    }
+
+    @Benchmark
+    public NDArray enginePerRow(Row row) {
+        int i = row.next();
+        return engine.predict(x.getRows(i, i + 1));
+    }
+
+    @Benchmark
+    public double[] engineBatched(Row row) {
+        return engine.predict(rows[row.next()]);
+    }
+}
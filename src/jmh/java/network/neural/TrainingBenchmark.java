@@ -0,0 +1,85 @@
+package network.neural;
+
+import network.neural.activationfunctions.LeakyReLU;
+import network.neural.layer.Layer;
+import network.neural.layer.LayerOutput;
+import network.neural.util.DataSet;
+import network.neural.util.matrix.DType;
+import network.neural.util.matrix.NDArray;
+import network.neural.util.readwrite.ReadIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * throughput of the training hot paths: a layer's forward pass, a full
+ * backpropagation step, batching a dataset and reading a csv file.
+ * the network has the shape of the one in Main, with a wider input.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrainingBenchmark {
+
+    private static final int ROWS = 4096;
+    private static final int FEATURES = 64;
+
+    @Param({"64", "256"})
+    public int batchSize;
+
+    @Param({"FLOAT64", "FLOAT32"})
+    public DType dtype;
+
+    private DataSet dataSet;
+    private DataSet batch;
+    private NeuralNetwork network;
+    private Layer layer;
+
+    @Setup
+    public void setup() {
+        dataSet = new DataSet(NDArray.rand(ROWS, FEATURES), NDArray.rand(ROWS, 1));
+
+        network = new NeuralNetwork()
+                .precision(dtype)
+                .layer(new Layer(FEATURES, 100, new LeakyReLU()))
+                .layer(new Layer(100, 10, new LeakyReLU()))
+                .layer(new Layer(10, 10, new LeakyReLU()))
+                .layer(new Layer(10, 1, new LeakyReLU()))
+                .learningRate(0.00001);
+
+        // one epoch allocates the training buffers of the network
+        network.train(dataSet, 1, batchSize);
+
+        batch = DataSet.batch(dataSet.asType(dtype), batchSize)[0];
+        layer = network.getLayer(0);
+    }
+
+    @Benchmark
+    public LayerOutput layerForward() {
+        return layer.forward(batch.getX());
+    }
+
+    @Benchmark
+    public double backpropagation() {
+        return network.backpropagation(batch);
+    }
+
+    @Benchmark
+    public DataSet[] batch() {
+        return DataSet.batch(dataSet, batchSize);
+    }
+
+    @Benchmark
+    public NDArray readCsv() {
+        return ReadIO.readCsv("BostonHousing.csv");
+    }
+}
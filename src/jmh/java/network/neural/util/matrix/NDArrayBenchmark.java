@@ -0,0 +1,123 @@
+package network.neural.util.matrix;
+
+import network.neural.activationfunctions.LeakyReLU;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * throughput of the NDArray operations used by training.
+ * the shape is (rows x inner) for the element-wise ops, the products compute
+ * (rows x inner) dot (inner x cols).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NDArrayBenchmark {
+
+    @Param({"32x32x32", "64x784x100", "128x128x128", "512x512x512"})
+    public String shape;
+
+    @Param({"FLOAT64", "FLOAT32"})
+    public DType dtype;
+
+    private NDArray a;
+    private NDArray b;
+    private NDArray other;
+    private NDArray rowVector;
+    private NDArray columnVector;
+    private NDArray out;
+    private NDArray product;
+    private LeakyReLU activation;
+
+    @Setup
+    public void setup() {
+        String[] sizes = shape.split("x");
+        int rows = Integer.parseInt(sizes[0]);
+        int inner = Integer.parseInt(sizes[1]);
+        int cols = Integer.parseInt(sizes[2]);
+
+        a = NDArray.rand(rows, inner).asType(dtype);
+        b = NDArray.rand(inner, cols).asType(dtype);
+        other = NDArray.rand(rows, inner).asType(dtype);
+        rowVector = NDArray.rand(1, inner).asType(dtype);
+        columnVector = NDArray.rand(rows, 1).asType(dtype);
+        out = NDArray.zeros(dtype, rows, inner);
+        product = NDArray.zeros(dtype, rows, cols);
+        activation = new LeakyReLU();
+    }
+
+    @Benchmark
+    public NDArray dot() {
+        return a.dot(b);
+    }
+
+    @Benchmark
+    public NDArray dotInto() {
+        return a.dot(b, product);
+    }
+
+    @Benchmark
+    public NDArray dotTransposeA() {
+        return a.dotTransposeA(other);
+    }
+
+    @Benchmark
+    public NDArray transpose() {
+        return a.T();
+    }
+
+    @Benchmark
+    public NDArray add() {
+        return a.add(other);
+    }
+
+    @Benchmark
+    public NDArray addInto() {
+        return a.add(other, out);
+    }
+
+    @Benchmark
+    public NDArray mul() {
+        return a.mul(other);
+    }
+
+    @Benchmark
+    public NDArray scale() {
+        return a.mul(0.5);
+    }
+
+    @Benchmark
+    public NDArray pow() {
+        return a.pow(2);
+    }
+
+    @Benchmark
+    public double sum() {
+        return a.sum();
+    }
+
+    @Benchmark
+    public NDArray activation() {
+        return a.activation(activation, out);
+    }
+
+    @Benchmark
+    public NDArray addRowVector() {
+        return a.addVector(rowVector);
+    }
+
+    @Benchmark
+    public NDArray addColumnVector() {
+        return a.addVector(columnVector);
+    }
+}
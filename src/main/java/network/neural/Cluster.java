@@ -0,0 +1,439 @@
+package network.neural;
+
+import network.neural.util.matrix.DType;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * the connections between the worker processes of distributed training, see
+ * {@link NeuralNetwork#distributed(Cluster)}.
+ *
+ * every worker is started with the addresses of all workers and its own rank, the
+ * index of its address. the values are sent as they are laid out in direct buffers,
+ * little-endian, which the channels write to and read from the sockets without
+ * copying them to the heap.
+ *
+ * there are two ways to sum values over the workers:
+ * PARAMETER_SERVER sends everything to rank 0, which adds it up in rank order and
+ * sends the sum back. RING splits the values into one chunk per worker and passes
+ * the chunks around a ring of connections, first adding them up (reduce-scatter)
+ * and then handing the sums on (all-gather). every worker sends and receives
+ * 2 (n - 1) / n of the values, no matter how many workers there are.
+ * both give every worker exactly the same sum.
+ */
+public class Cluster implements AutoCloseable {
+
+    public enum Topology {
+        PARAMETER_SERVER,
+        RING
+    }
+
+    private static final long CONNECT_TIMEOUT = 60_000; // milliseconds to wait for the other workers to start
+    private static final long RETRY_DELAY = 50;
+
+    private final int rank;
+    private final int size;
+    private final Topology topology;
+    private final Selector selector;
+
+    private final SocketChannel[] peers;   // parameter server: rank 0 has every other worker, the others rank 0
+    private final SocketChannel next;      // ring: the worker this one sends to
+    private final SocketChannel previous;  // ring: the worker this one receives from
+
+    private ByteBuffer[] scratch = new ByteBuffer[0]; // received values that are added up
+    private long communicationTime;        // nanoseconds spent in allReduce and broadcast
+
+    private Cluster(int rank, int size, Topology topology, Selector selector,
+                    SocketChannel[] peers, SocketChannel next, SocketChannel previous) {
+        this.rank = rank;
+        this.size = size;
+        this.topology = topology;
+        this.selector = selector;
+        this.peers = peers;
+        this.next = next;
+        this.previous = previous;
+    }
+
+
+    /**
+     * connects this worker to the others. waits until the workers it needs a
+     * connection to have started.
+     *
+     * @param rank the index of the address of this worker
+     * @param addresses the addresses of all workers, the same list on every worker
+     * @param topology how the values are summed over the workers
+     * @return the cluster
+     */
+    public static Cluster connect(int rank, List<InetSocketAddress> addresses, Topology topology) throws IOException {
+        int size = addresses.size();
+        if (rank < 0 || rank >= size)
+            throw new IllegalArgumentException("Rank " + rank + " is not in a cluster of " + size + " workers");
+
+        if (size == 1)
+            return new Cluster(rank, size, topology, Selector.open(), new SocketChannel[0], null, null);
+
+        if (topology == Topology.RING) {
+            // every worker listens before it connects, so the connections can be made in any order
+            try (ServerSocketChannel server = ServerSocketChannel.open().bind(addresses.get(rank))) {
+                SocketChannel next = connect(addresses.get((rank + 1) % size), rank);
+                SocketChannel previous = accept(server, (rank + size - 1) % size);
+
+                return open(rank, size, topology, new SocketChannel[] {next, previous}, next, previous);
+            }
+        }
+
+        SocketChannel[] peers;
+        if (rank == 0) {
+            peers = new SocketChannel[size - 1];
+            try (ServerSocketChannel server = ServerSocketChannel.open().bind(addresses.get(0))) {
+                for (int i = 0; i < size - 1; i++) {
+                    SocketChannel worker = accept(server, -1);
+                    int from = readRank(worker);
+                    if (from < 1 || from >= size || peers[from - 1] != null)
+                        throw new IOException("Unexpected worker " + from);
+
+                    peers[from - 1] = worker;
+                }
+            }
+        } else {
+            peers = new SocketChannel[] {connect(addresses.get(0), rank)};
+        }
+
+        return open(rank, size, topology, peers, null, null);
+    }
+
+
+    /**
+     * sums the values in a buffer over all workers, every worker ends up with the sum.
+     * every worker must call this with the same number of values.
+     *
+     * @param values the values, little-endian, replaced by the sums
+     * @param dtype the type of the values
+     * @param count the number of values
+     */
+    public void allReduce(ByteBuffer values, DType dtype, int count) {
+        long start = System.nanoTime();
+
+        try {
+            if (size > 1 && topology == Topology.RING)
+                ringAllReduce(values, dtype, count);
+            else if (size > 1)
+                serverAllReduce(values, dtype, count);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        communicationTime += System.nanoTime() - start;
+    }
+
+
+    /**
+     * replaces the bytes of a buffer on every worker with those of rank 0
+     *
+     * @param bytes the bytes from position to limit are sent or received
+     */
+    public void broadcast(ByteBuffer bytes) {
+        long start = System.nanoTime();
+
+        try {
+            if (size > 1 && topology == Topology.RING) {
+                // rank 0 sends to rank 1, which passes it on to rank 2 ...
+                if (rank > 0)
+                    transfer(previous, bytes.duplicate(), false);
+                if (rank < size - 1)
+                    transfer(next, bytes.duplicate(), true);
+            } else if (size > 1) {
+                ByteBuffer[] copies = new ByteBuffer[peers.length];
+                for (int i = 0; i < peers.length; i++)
+                    copies[i] = bytes.duplicate();
+
+                transfer(peers, copies, rank == 0);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        communicationTime += System.nanoTime() - start;
+    }
+
+
+    public int getRank() {
+        return rank;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public Topology getTopology() {
+        return topology;
+    }
+
+    /**
+     * @return the time in nanoseconds spent sending, receiving and adding up values
+     */
+    public long getCommunicationTime() {
+        return communicationTime;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        for (SocketChannel peer : peers)
+            peer.close();
+
+        selector.close();
+    }
+
+
+    private static Cluster open(int rank, int size, Topology topology, SocketChannel[] peers,
+                                SocketChannel next, SocketChannel previous) throws IOException {
+        Selector selector = Selector.open();
+
+        for (SocketChannel peer : peers) {
+            peer.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            peer.configureBlocking(false);
+            peer.register(selector, 0);
+        }
+
+        return new Cluster(rank, size, topology, selector, peers, next, previous);
+    }
+
+
+    /**
+     * connects to a worker and tells it the rank of this worker,
+     * retrying until the worker listens
+     */
+    private static SocketChannel connect(InetSocketAddress address, int rank) throws IOException {
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+
+        while (true) {
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.connect(address);
+
+                ByteBuffer hello = ByteBuffer.allocate(Integer.BYTES).putInt(0, rank);
+                while (hello.hasRemaining())
+                    channel.write(hello);
+
+                return channel;
+            } catch (ConnectException e) {
+                channel.close();
+                if (System.currentTimeMillis() > deadline)
+                    throw e;
+            }
+
+            try {
+                Thread.sleep(RETRY_DELAY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while connecting to " + address, e);
+            }
+        }
+    }
+
+
+    /**
+     * accepts a connection from a worker
+     *
+     * @param expected the rank the worker must have, or -1 to leave checking it to the caller
+     */
+    private static SocketChannel accept(ServerSocketChannel server, int expected) throws IOException {
+        SocketChannel channel = server.accept();
+
+        if (expected >= 0 && readRank(channel) != expected)
+            throw new IOException("Expected a connection from worker " + expected);
+
+        return channel;
+    }
+
+
+    private static int readRank(SocketChannel channel) throws IOException {
+        ByteBuffer hello = ByteBuffer.allocate(Integer.BYTES);
+        while (hello.hasRemaining())
+            if (channel.read(hello) < 0)
+                throw new EOFException("Worker closed the connection");
+
+        return hello.getInt(0);
+    }
+
+
+    /**
+     * rank 0 receives the values of every worker and adds them to its own in rank
+     * order, then sends the sums back
+     */
+    private void serverAllReduce(ByteBuffer values, DType dtype, int count) throws IOException {
+        int bytes = count * bytes(dtype);
+        ByteBuffer buffer = values.duplicate().position(0).limit(bytes);
+
+        if (rank > 0) {
+            transfer(peers[0], buffer, true);
+            transfer(peers[0], buffer.clear().limit(bytes), false);
+            return;
+        }
+
+        ByteBuffer[] received = scratch(peers.length, bytes);
+        transfer(peers, received, false);
+
+        for (ByteBuffer worker : received)
+            add(values, worker, dtype, 0, count);
+
+        ByteBuffer[] sums = new ByteBuffer[peers.length];
+        for (int i = 0; i < peers.length; i++)
+            sums[i] = buffer.duplicate();
+
+        transfer(peers, sums, true);
+    }
+
+
+    /**
+     * reduce-scatter, after which this worker has the sum of chunk rank + 1,
+     * then all-gather to hand the sums of every chunk around the ring
+     */
+    private void ringAllReduce(ByteBuffer values, DType dtype, int count) throws IOException {
+        int[] chunks = new int[size + 1]; // chunk c holds the values chunks[c] up to chunks[c + 1]
+        for (int c = 0; c <= size; c++)
+            chunks[c] = (int) ((long) c * count / size);
+
+        ByteBuffer received = scratch(1, (count + size - 1) / size * bytes(dtype))[0];
+
+        for (int step = 0; step < size - 1; step++) {
+            int send = Math.floorMod(rank - step, size);
+            int receive = Math.floorMod(rank - step - 1, size);
+
+            exchange(chunk(values, chunks, send, dtype),
+                    received.clear().limit((chunks[receive + 1] - chunks[receive]) * bytes(dtype)));
+            add(values, received, dtype, chunks[receive], chunks[receive + 1] - chunks[receive]);
+        }
+
+        for (int step = 0; step < size - 1; step++) {
+            int send = Math.floorMod(rank + 1 - step, size);
+            int receive = Math.floorMod(rank - step, size);
+
+            exchange(chunk(values, chunks, send, dtype), chunk(values, chunks, receive, dtype));
+        }
+    }
+
+
+    private static ByteBuffer chunk(ByteBuffer values, int[] chunks, int chunk, DType dtype) {
+        return values.duplicate()
+                .limit(chunks[chunk + 1] * bytes(dtype))
+                .position(chunks[chunk] * bytes(dtype));
+    }
+
+
+    /**
+     * adds count values of a buffer to the values of another, starting at the given value
+     */
+    private static void add(ByteBuffer into, ByteBuffer from, DType dtype, int start, int count) {
+        ByteBuffer source = from.duplicate().clear().order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer target = into.duplicate().clear().order(ByteOrder.LITTLE_ENDIAN);
+
+        if (dtype == DType.FLOAT32) {
+            FloatBuffer a = target.asFloatBuffer();
+            FloatBuffer b = source.asFloatBuffer();
+            for (int i = 0; i < count; i++)
+                a.put(start + i, a.get(start + i) + b.get(i));
+        } else {
+            DoubleBuffer a = target.asDoubleBuffer();
+            DoubleBuffer b = source.asDoubleBuffer();
+            for (int i = 0; i < count; i++)
+                a.put(start + i, a.get(start + i) + b.get(i));
+        }
+    }
+
+
+    private static int bytes(DType dtype) {
+        return dtype == DType.FLOAT32 ? Float.BYTES : Double.BYTES;
+    }
+
+
+    /**
+     * direct buffers of at least the given number of bytes, reused by later calls
+     */
+    private ByteBuffer[] scratch(int count, int bytes) {
+        if (scratch.length < count || scratch[0].capacity() < bytes) {
+            scratch = new ByteBuffer[count];
+            for (int i = 0; i < count; i++)
+                scratch[i] = ByteBuffer.allocateDirect(bytes);
+        }
+
+        for (ByteBuffer buffer : scratch)
+            buffer.clear().limit(bytes);
+
+        return scratch;
+    }
+
+
+    /**
+     * sends a buffer to the next worker of the ring while receiving one from the previous
+     */
+    private void exchange(ByteBuffer send, ByteBuffer receive) throws IOException {
+        transfer(new SocketChannel[] {next, previous}, new ByteBuffer[] {send, receive}, new boolean[] {true, false});
+    }
+
+
+    private void transfer(SocketChannel channel, ByteBuffer buffer, boolean write) throws IOException {
+        transfer(new SocketChannel[] {channel}, new ByteBuffer[] {buffer}, new boolean[] {write});
+    }
+
+
+    private void transfer(SocketChannel[] channels, ByteBuffer[] buffers, boolean write) throws IOException {
+        boolean[] writes = new boolean[channels.length];
+        Arrays.fill(writes, write);
+
+        transfer(channels, buffers, writes);
+    }
+
+
+    /**
+     * writes or reads the remaining bytes of every buffer on its channel, all at the same
+     * time, so a worker never waits on one socket while another has data
+     */
+    private void transfer(SocketChannel[] channels, ByteBuffer[] buffers, boolean[] writes) throws IOException {
+        int pending = 0;
+
+        for (int i = 0; i < channels.length; i++) {
+            SelectionKey key = channels[i].keyFor(selector);
+            key.attach(i);
+
+            if (buffers[i].hasRemaining()) {
+                key.interestOps(writes[i] ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+                pending++;
+            }
+        }
+
+        while (pending > 0) {
+            selector.select();
+
+            for (SelectionKey key : selector.selectedKeys()) {
+                int i = (Integer) key.attachment();
+                int bytes = writes[i] ? channels[i].write(buffers[i]) : channels[i].read(buffers[i]);
+
+                if (bytes < 0)
+                    throw new EOFException("Worker closed the connection");
+
+                if (!buffers[i].hasRemaining()) {
+                    key.interestOps(0);
+                    pending--;
+                }
+            }
+            selector.selectedKeys().clear();
+        }
+    }
+}
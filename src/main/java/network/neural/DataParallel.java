@@ -0,0 +1,165 @@
+package network.neural;
+
+import network.neural.util.DataSet;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * data-parallel training of a network.
+ *
+ * every batch is split into one shard of consecutive rows per replica. the replicas
+ * share the weights of the network, so they only need their own training buffers.
+ * each replica computes the gradients of its shard on a thread of its own, the
+ * gradients are then summed pairwise in a tree (replica 0 + 1, 2 + 3, then 0 + 2 ...)
+ * and the network updates its weights once with the sum. the order of the additions
+ * only depends on the number of rows of the batch, so a run is repeatable.
+ *
+ * the network itself is replica 0. because the weights are shared, the summed
+ * gradients do not have to be sent back to the other replicas.
+ */
+class DataParallel implements AutoCloseable {
+
+    private final NeuralNetwork[] replicas;
+    private final Shard[] shards;
+    private final Reduce[] reduces;     // the additions of one level of the tree
+    private final Step step = new Step();
+    private final ForkJoinPool pool;
+
+    private int active;                 // replicas with rows in the current batch
+
+    /**
+     * @param network the network to train, replica 0
+     * @param replicas the number of replicas and threads
+     * @param batchSize the largest batch that will be trained on
+     */
+    DataParallel(NeuralNetwork network, int replicas, int batchSize) {
+        int shardSize = (batchSize + replicas - 1) / replicas;
+
+        this.replicas = new NeuralNetwork[replicas];
+        this.shards = new Shard[replicas];
+        this.reduces = new Reduce[replicas];
+        this.pool = new ForkJoinPool(replicas);
+
+        for (int i = 0; i < replicas; i++) {
+            this.replicas[i] = i == 0 ? network : network.replica(shardSize);
+            this.shards[i] = new Shard(i);
+            this.reduces[i] = new Reduce();
+        }
+    }
+
+
+    /**
+     * trains the network on a single batch
+     * @return the cost of the batch
+     */
+    double step(DataSet batch) {
+        int rows = batch.getX().shape(0);
+        active = Math.min(rows, replicas.length);
+
+        for (int i = 0; i < active; i++) {
+            int from = (int) ((long) i * rows / active);
+            int to = (int) ((long) (i + 1) * rows / active);
+            shards[i].set(new DataSet(batch.getX().getRows(from, to), batch.getY().getRows(from, to)), rows);
+        }
+
+        step.reinitialize();
+        pool.invoke(step);
+        replicas[0].applyGradients();
+
+        double cost = 0;
+        for (int i = 0; i < active; i++)
+            cost += shards[i].cost;
+
+        return cost;
+    }
+
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+
+    /**
+     * runs the first count tasks and waits for all of them
+     */
+    private static void runAll(RecursiveAction[] tasks, int count) {
+        for (int i = 0; i < count; i++)
+            tasks[i].reinitialize();
+
+        for (int i = 1; i < count; i++)
+            tasks[i].fork();
+
+        tasks[0].invoke();
+
+        for (int i = 1; i < count; i++)
+            tasks[i].join();
+    }
+
+
+    /**
+     * computes the gradients of every shard, then sums them into replica 0
+     */
+    private final class Step extends RecursiveAction {
+
+        @Override
+        protected void compute() {
+            runAll(shards, active);
+
+            for (int stride = 1; stride < active; stride *= 2) {
+                int count = 0;
+                for (int i = 0; i + stride < active; i += 2 * stride)
+                    reduces[count++].set(replicas[i], replicas[i + stride]);
+
+                runAll(reduces, count);
+            }
+        }
+    }
+
+
+    /**
+     * the gradients of the shard of a single replica
+     */
+    private final class Shard extends RecursiveAction {
+
+        private final int replica;
+        private DataSet rows;
+        private int batchRows;
+        private double cost;
+
+        Shard(int replica) {
+            this.replica = replica;
+        }
+
+        void set(DataSet rows, int batchRows) {
+            this.rows = rows;
+            this.batchRows = batchRows;
+        }
+
+        @Override
+        protected void compute() {
+            cost = replicas[replica].gradients(rows, batchRows);
+        }
+    }
+
+
+    /**
+     * adds the gradients of one replica to those of another
+     */
+    private static final class Reduce extends RecursiveAction {
+
+        private NeuralNetwork into;
+        private NeuralNetwork from;
+
+        void set(NeuralNetwork into, NeuralNetwork from) {
+            this.into = into;
+            this.from = from;
+        }
+
+        @Override
+        protected void compute() {
+            into.addGradients(from);
+        }
+    }
+}
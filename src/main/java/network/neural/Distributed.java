@@ -0,0 +1,168 @@
+package network.neural;
+
+import network.neural.layer.Layer;
+import network.neural.util.DataSet;
+import network.neural.util.matrix.DType;
+import network.neural.util.matrix.NDArray;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * data-parallel training over the worker processes of a {@link Cluster}.
+ *
+ * every worker trains on the same training set with the same sampler, so they all
+ * see the same batches. a worker computes the gradients of its share of the rows of
+ * a batch, like a replica of {@link DataParallel}, and the gradients are summed over
+ * the workers. every worker then updates its weights with the same sum, so once the
+ * weights of rank 0 are copied to the others at the start of training they stay
+ * equal on every worker.
+ *
+ * the gradients of all layers and the cost of the batch are sent together in a
+ * single direct buffer.
+ */
+class Distributed {
+
+    private final NeuralNetwork network;
+    private final Cluster cluster;
+    private final DType dtype;
+    private final int count;               // values in the buffer: every gradient, then the cost
+    private final ByteBuffer buffer;
+    private final DoubleBuffer doubles;    // views of the buffer, the one of the dtype is used
+    private final FloatBuffer floats;
+
+    private final long startCommunication; // communication time of the cluster before this training
+    private long computeTime;              // nanoseconds spent on the gradients and updates
+
+    Distributed(NeuralNetwork network, Cluster cluster) {
+        int values = 1;
+        for (int i = 0; i < network.getLayerCount(); i++)
+            values += network.getLayer(i).getWeights().size() + network.getLayer(i).getBias().size();
+
+        this.network = network;
+        this.cluster = cluster;
+        this.dtype = network.getPrecision();
+        this.count = values;
+        this.buffer = ByteBuffer.allocateDirect(values * (dtype == DType.FLOAT32 ? Float.BYTES : Double.BYTES))
+                .order(ByteOrder.LITTLE_ENDIAN);
+        this.doubles = buffer.asDoubleBuffer();
+        this.floats = buffer.asFloatBuffer();
+        this.startCommunication = cluster.getCommunicationTime();
+    }
+
+
+    /**
+     * copies the weights of rank 0 to every other worker
+     */
+    void synchronize() {
+        int index = 0;
+        for (int i = 0; i < network.getLayerCount(); i++) {
+            index = write(network.getLayer(i).getWeights(), index);
+            index = write(network.getLayer(i).getBias(), index);
+        }
+
+        cluster.broadcast(buffer.clear());
+
+        index = 0;
+        for (int i = 0; i < network.getLayerCount(); i++) {
+            index = read(network.getLayer(i).getWeights(), index);
+            index = read(network.getLayer(i).getBias(), index);
+        }
+    }
+
+
+    /**
+     * trains the network on a single batch
+     * @return the cost of the batch over all workers
+     */
+    double step(DataSet batch) {
+        long start = System.nanoTime();
+
+        int rows = batch.getX().shape(0);
+        int from = (int) ((long) cluster.getRank() * rows / cluster.getSize());
+        int to = (int) ((long) (cluster.getRank() + 1) * rows / cluster.getSize());
+
+        if (to > from) {
+            double cost = network.gradients(new DataSet(batch.getX().getRows(from, to), batch.getY().getRows(from, to)), rows);
+
+            int index = 0;
+            for (int i = 0; i < network.getLayerCount(); i++) {
+                index = write(network.getLayer(i).getWeightGradient(), index);
+                index = write(network.getLayer(i).getBiasGradient(), index);
+            }
+            put(index, cost);
+        } else {
+            // more workers than rows, this worker adds nothing
+            for (int index = 0; index < count; index++)
+                put(index, 0);
+        }
+
+        computeTime += System.nanoTime() - start;
+        cluster.allReduce(buffer, dtype, count);
+        start = System.nanoTime();
+
+        int index = 0;
+        for (int i = 0; i < network.getLayerCount(); i++) {
+            Layer layer = network.getLayer(i);
+            index = read(layer.getWeightGradient(), index);
+            index = read(layer.getBiasGradient(), index);
+        }
+        network.applyGradients();
+
+        computeTime += System.nanoTime() - start;
+        return dtype == DType.FLOAT32 ? floats.get(index) : doubles.get(index);
+    }
+
+
+    /**
+     * @return the time in nanoseconds this training spent exchanging gradients
+     */
+    long getCommunicationTime() {
+        return cluster.getCommunicationTime() - startCommunication;
+    }
+
+    /**
+     * @return the time in nanoseconds this training spent computing gradients and updating weights
+     */
+    long getComputeTime() {
+        return computeTime;
+    }
+
+
+    /**
+     * copies the values of an NDArray into the buffer
+     * @return the index after the values
+     */
+    private int write(NDArray values, int index) {
+        if (dtype == DType.FLOAT32)
+            values.writeRows(floats, index, 0, values.shape(0));
+        else
+            values.writeRows(doubles, index, 0, values.shape(0));
+
+        return index + values.size();
+    }
+
+
+    /**
+     * copies values from the buffer into an NDArray
+     * @return the index after the values
+     */
+    private int read(NDArray values, int index) {
+        if (dtype == DType.FLOAT32)
+            values.readRows(floats, index, 0, values.shape(0));
+        else
+            values.readRows(doubles, index, 0, values.shape(0));
+
+        return index + values.size();
+    }
+
+
+    private void put(int index, double value) {
+        if (dtype == DType.FLOAT32)
+            floats.put(index, (float) value);
+        else
+            doubles.put(index, value);
+    }
+}
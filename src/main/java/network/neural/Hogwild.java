@@ -0,0 +1,138 @@
+package network.neural;
+
+import network.neural.util.DataSet;
+import network.neural.util.Sampler;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * asynchronous (Hogwild) training of a network.
+ *
+ * several threads take the batches of an epoch from a shared counter. every thread
+ * has a replica of the network that shares its weights, computes the gradients of its
+ * batch with the weights as they are at that moment and adds them to the shared
+ * weights without a lock. an update can therefore be computed from weights another
+ * thread is changing, which works well when the updates of different batches rarely
+ * touch the same weights, as for sparse inputs.
+ *
+ * the order in which the batches are applied depends on the scheduling of the
+ * threads, so unlike serial or data-parallel training a run is not repeatable.
+ */
+public class Hogwild implements AutoCloseable {
+
+    /**
+     * how the threads write their updates to the shared weights
+     */
+    public enum Writes {
+        /** plain read-modify-write with the vectorized kernels, concurrent updates of an element can be lost */
+        PLAIN,
+        /** an atomic addition (VarHandle getAndAdd) per element, no update is lost */
+        ATOMIC
+    }
+
+    private final Sampler sampler;
+    private final Worker[] workers;
+    private final Epoch epoch = new Epoch();
+    private final AtomicInteger next = new AtomicInteger(); // the next batch of the epoch to train on
+    private final ForkJoinPool pool;
+    private final boolean atomic;
+
+    private int batches;
+
+    /**
+     * @param network the network to train, its sampler must be bound to the training set
+     * @param threads the number of threads and replicas
+     * @param batchSize the batch size the sampler is bound with
+     */
+    Hogwild(NeuralNetwork network, Sampler sampler, int threads, int batchSize, Writes writes) {
+        this.sampler = sampler;
+        this.workers = new Worker[threads];
+        this.pool = new ForkJoinPool(threads);
+        this.atomic = writes == Writes.ATOMIC;
+
+        for (int i = 0; i < threads; i++)
+            workers[i] = new Worker(i == 0 ? network : network.replica(batchSize));
+    }
+
+
+    /**
+     * trains on every batch of an epoch
+     * @return the cost of the epoch
+     */
+    double epoch() {
+        sampler.nextEpoch();
+        batches = sampler.batches();
+        next.set(0);
+
+        epoch.reinitialize();
+        pool.invoke(epoch);
+
+        double cost = 0;
+        for (Worker worker : workers)
+            cost += worker.cost;
+
+        return cost;
+    }
+
+
+    @Override
+    public void close() {
+        pool.shutdown();
+    }
+
+
+    /**
+     * runs every worker until the batches of the epoch are used up
+     */
+    private final class Epoch extends RecursiveAction {
+
+        @Override
+        protected void compute() {
+            for (Worker worker : workers)
+                worker.reinitialize();
+
+            for (int i = 1; i < workers.length; i++)
+                workers[i].fork();
+
+            workers[0].invoke();
+
+            for (int i = 1; i < workers.length; i++)
+                workers[i].join();
+        }
+    }
+
+
+    /**
+     * a thread with its own replica and batch buffers
+     */
+    private final class Worker extends RecursiveAction {
+
+        private final NeuralNetwork replica;
+        private final DataSet full;
+        private final DataSet last;
+        private double cost;
+
+        Worker(NeuralNetwork replica) {
+            this.replica = replica;
+            this.full = sampler.newBuffer();
+            this.last = sampler.lastRows(full);
+        }
+
+        @Override
+        protected void compute() {
+            cost = 0;
+
+            for (int index = next.getAndIncrement(); index < batches; index = next.getAndIncrement()) {
+                DataSet batch = sampler.batch(index, index == batches - 1 ? last : full);
+                cost += replica.gradients(batch, batch.getX().shape(0));
+
+                if (atomic)
+                    replica.applyGradientsAtomic();
+                else
+                    replica.applyGradients();
+            }
+        }
+    }
+}
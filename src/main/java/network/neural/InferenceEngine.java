@@ -0,0 +1,304 @@
+package network.neural;
+
+import network.neural.activationfunctions.IActivationFunction;
+import network.neural.layer.Layer;
+import network.neural.util.matrix.DType;
+import network.neural.util.matrix.NDArray;
+import network.neural.util.matrix.Parallelism;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * predictions of a trained network that can be shared by any number of threads.
+ *
+ * the engine keeps a copy of the weights of the network at the time it is created,
+ * so training the network afterwards does not change its predictions. it has no
+ * other state than pairs of activation buffers: every layer reads the activation of
+ * the layer before it from one buffer and writes its own to the other (ping-pong),
+ * so a prediction allocates nothing but its result. a prediction borrows a pair for
+ * as long as it runs. there are at most as many pairs as processors, more predictions
+ * at the same time wait for a pair, since they could not run any faster anyway.
+ *
+ * single rows can be submitted by many threads at the same time. they are collected
+ * into micro-batches on a thread of the engine, so the product of each layer runs once
+ * over many rows instead of once per row. a micro-batch is started when it is full,
+ * or when its first row has waited the maximum delay.
+ */
+public class InferenceEngine implements AutoCloseable {
+
+    private final NDArray[] weights;
+    private final NDArray[] biases;
+    private final IActivationFunction[] functions;
+    private final DType dtype;
+    private final Parallelism parallelism;
+    private final int inputSize;
+    private final int outputSize;
+    private final int width;                 // the widest input or output of a layer
+    private final int maxBatch;
+    private final long maxDelay;             // nanoseconds the first row of a micro-batch may wait
+
+    private final BlockingQueue<Object[]> buffers; // pairs of activation buffers that are not in use
+    private final AtomicInteger pairs = new AtomicInteger(); // pairs created so far
+    private final int maxPairs;
+    private final BlockingQueue<Request> requests = new LinkedBlockingQueue<>();
+    private final Thread batcher;
+    private volatile boolean closed;
+
+    /**
+     * @param network the trained network
+     * @param maxBatch the most rows that are computed together, by micro-batches and by predict
+     * @param maxDelay the longest a submitted row waits for other rows to share its micro-batch
+     */
+    public InferenceEngine(NeuralNetwork network, int maxBatch, long maxDelay, TimeUnit unit) {
+        if (maxBatch < 1)
+            throw new IllegalArgumentException("Batch size must be at least 1");
+
+        int layers = network.getLayerCount();
+        this.weights = new NDArray[layers];
+        this.biases = new NDArray[layers];
+        this.functions = new IActivationFunction[layers];
+        this.dtype = network.getPrecision();
+        this.parallelism = network.getParallelism();
+
+        int width = 0;
+        for (int i = 0; i < layers; i++) {
+            Layer layer = network.getLayer(i);
+            weights[i] = layer.getWeights().mul(1.0); // a copy
+            biases[i] = layer.getBias().mul(1.0);
+            functions[i] = layer.getActivationFunction();
+            width = Math.max(width, Math.max(weights[i].shape(0), weights[i].shape(1)));
+        }
+
+        this.inputSize = weights[0].shape(1);
+        this.outputSize = weights[layers - 1].shape(0);
+        this.width = width;
+        this.maxBatch = maxBatch;
+        this.maxDelay = unit.toNanos(maxDelay);
+        this.maxPairs = Runtime.getRuntime().availableProcessors();
+        this.buffers = new ArrayBlockingQueue<>(maxPairs);
+
+        batcher = new Thread(this::run, "inference-batcher");
+        batcher.setDaemon(true);
+        batcher.start();
+    }
+
+
+    /**
+     * predicts the output for every row of the input, on the calling thread
+     *
+     * @param input (rows x inputs)
+     * @return (rows x outputs)
+     */
+    public NDArray predict(NDArray input) {
+        if (input.shape(1) != inputSize)
+            throw new IllegalArgumentException("Input has " + input.shape(1) + " columns, expected " + inputSize);
+
+        int rows = input.shape(0);
+        Object result = storage(rows * outputSize);
+        Object[] pingPong = borrow();
+
+        try {
+            for (int start = 0; start < rows; start += maxBatch) {
+                int end = Math.min(rows, start + maxBatch);
+                Object output = forward(input.getRows(start, end).asType(dtype), end - start, pingPong);
+
+                System.arraycopy(output, 0, result, start * outputSize, (end - start) * outputSize);
+            }
+        } finally {
+            buffers.add(pingPong);
+        }
+
+        return view(result, rows, outputSize);
+    }
+
+
+    /**
+     * predicts the output for a single row, computed in a micro-batch with the rows
+     * other threads submit at about the same time
+     *
+     * @return the outputs, once the micro-batch is done. completing or cancelling the
+     *         future does not affect the micro-batch.
+     */
+    public CompletableFuture<double[]> submit(double[] row) {
+        if (row.length != inputSize)
+            throw new IllegalArgumentException("Row has " + row.length + " values, expected " + inputSize);
+
+        Request request = new Request(row);
+        requests.add(request);
+
+        // the batcher may have stopped between the check and adding the request
+        if (closed)
+            request.completeExceptionally(new IllegalStateException("Inference engine is closed"));
+
+        return request.copy();
+    }
+
+
+    /**
+     * submit, waiting for the result
+     */
+    public double[] predict(double[] row) {
+        return submit(row).join();
+    }
+
+
+    public int getMaxBatch() {
+        return maxBatch;
+    }
+
+
+    /**
+     * stops the batcher, rows that were submitted but not computed fail
+     */
+    @Override
+    public void close() {
+        closed = true;
+        batcher.interrupt();
+    }
+
+
+    /**
+     * runs the layers on the rows of the input
+     *
+     * @return the buffer holding the output, row after row
+     */
+    private Object forward(NDArray input, int rows, Object[] pingPong) {
+        NDArray a = input;
+
+        for (int i = 0; i < weights.length; i++) {
+            // z and a share the buffer, the activation overwrites each value of z once it is final
+            NDArray out = view(pingPong[i % 2], rows, weights[i].shape(0));
+            a = a.linear(weights[i], biases[i], functions[i], out, out, null, parallelism);
+        }
+
+        return pingPong[(weights.length - 1) % 2];
+    }
+
+
+    private void run() {
+        Request[] batch = new Request[maxBatch];
+        Object input = storage(maxBatch * inputSize);
+        Object[] pingPong = newPair(); // the batcher keeps a pair of its own
+
+        try {
+            while (true) {
+                int rows = 0;
+                batch[rows++] = requests.take();
+                long deadline = batch[0].arrival + maxDelay;
+
+                while (rows < maxBatch) {
+                    Request next = requests.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                    if (next == null)
+                        break;
+
+                    batch[rows++] = next;
+                }
+
+                compute(batch, rows, input, pingPong);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+
+        for (Request request = requests.poll(); request != null; request = requests.poll())
+            request.completeExceptionally(new IllegalStateException("Inference engine is closed"));
+    }
+
+
+    private void compute(Request[] batch, int rows, Object input, Object[] pingPong) {
+        try {
+            for (int r = 0; r < rows; r++) {
+                double[] row = batch[r].row;
+                if (input instanceof float[])
+                    for (int j = 0; j < inputSize; j++)
+                        ((float[]) input)[r * inputSize + j] = (float) row[j];
+                else
+                    System.arraycopy(row, 0, input, r * inputSize, inputSize);
+            }
+
+            Object output = forward(view(input, rows, inputSize), rows, pingPong);
+
+            for (int r = 0; r < rows; r++) {
+                double[] result = new double[outputSize];
+                if (output instanceof float[])
+                    for (int j = 0; j < outputSize; j++)
+                        result[j] = ((float[]) output)[r * outputSize + j];
+                else
+                    System.arraycopy(output, r * outputSize, result, 0, outputSize);
+
+                batch[r].complete(result);
+            }
+        } catch (RuntimeException e) {
+            for (int r = 0; r < rows; r++)
+                batch[r].completeExceptionally(e);
+        }
+
+        for (int r = 0; r < rows; r++)
+            batch[r] = null;
+    }
+
+
+    /**
+     * a pair of activation buffers that is not in use, created while there are fewer
+     * than maxPairs. hand it back by adding it to buffers.
+     */
+    private Object[] borrow() {
+        Object[] pair = buffers.poll();
+        if (pair != null)
+            return pair;
+
+        if (pairs.getAndIncrement() < maxPairs)
+            return newPair();
+
+        pairs.decrementAndGet();
+        try {
+            return buffers.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for activation buffers", e);
+        }
+    }
+
+
+    private Object[] newPair() {
+        return new Object[] {storage(maxBatch * width), storage(maxBatch * width)};
+    }
+
+
+    /**
+     * a double[] or float[] of the given length, in the precision of the network
+     */
+    private Object storage(int length) {
+        return dtype == DType.FLOAT32 ? new float[length] : new double[length];
+    }
+
+
+    /**
+     * the first rows * cols values of a buffer from storage() as an NDArray
+     */
+    private static NDArray view(Object storage, int rows, int cols) {
+        if (storage instanceof float[])
+            return new NDArray((float[]) storage, rows, cols);
+
+        return new NDArray((double[]) storage, rows, cols);
+    }
+
+
+    /**
+     * a submitted row, completed with its outputs
+     */
+    private static final class Request extends CompletableFuture<double[]> {
+
+        private final double[] row;
+        private final long arrival = System.nanoTime();
+
+        Request(double[] row) {
+            this.row = row;
+        }
+    }
+}
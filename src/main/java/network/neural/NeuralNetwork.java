@@ -1,17 +1,24 @@
 package network.neural;
 
 import me.tongfei.progressbar.ProgressBar;
-import network.neural.activationfunctions.IActivationFunction;
 import network.neural.charts.LineChart;
 import network.neural.layer.Layer;
-import network.neural.layer.LayerOutput;
 import network.neural.util.DataSet;
+import network.neural.util.Prefetcher;
+import network.neural.util.Sampler;
+import network.neural.util.matrix.DType;
 import network.neural.util.matrix.NDArray;
-import network.neural.util.readwrite.ObjectIO;
+import network.neural.util.matrix.Parallelism;
+import network.neural.util.readwrite.CategoricalEncoder;
+import network.neural.util.readwrite.Checkpoint;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * A multi-layer, fully connected, artificial neural network.
@@ -23,10 +30,29 @@ public class NeuralNetwork implements Serializable {
 
     private double learningRate;
     private boolean costGraph;
-
-    private DataSet[] batchList;
+    private DType precision = DType.FLOAT64;
+
+    private Sampler sampler = Sampler.sequential();
+    private int prefetchDepth;
+    private int prefetchThreads;
+    private int replicas = 1;
+    private int hogwildThreads;
+    private Hogwild.Writes hogwildWrites;
+    private int pipelineStages;
+    private int microBatches;
     private int m;
 
+    private CategoricalEncoder encoder; // dictionaries of the categorical inputs, saved with the network
+
+    private transient Parallelism parallelism = Parallelism.SERIAL; // of the products of the layers
+    private transient DataParallel dataParallel; // null when training on a single thread
+    private transient Hogwild hogwild;           // null unless training asynchronously
+    private transient Pipeline pipeline;         // null unless the layers are split into stages
+    private transient double[] stageUtilisation; // of the last pipelined training
+    private transient Cluster cluster;           // null unless training over several processes
+    private transient Distributed distributed;
+    private transient NDArray[] costBuffers; // by number of rows, like the buffers of the layers
+
     public NeuralNetwork() {
         layers = new ArrayList<>();
     }
@@ -39,6 +65,7 @@ public class NeuralNetwork implements Serializable {
      */
     public NeuralNetwork layer(Layer layer) {
         layer.setNetwork(this);
+        layer.setPrecision(precision);
         layers.add(layer);
         return this;
     }
@@ -65,6 +92,164 @@ public class NeuralNetwork implements Serializable {
     }
 
 
+    /**
+     * sets the precision of the weights, activations and training buffers.
+     * FLOAT32 halves the memory traffic of training, the matrix products still
+     * accumulate in double precision.
+     */
+    public NeuralNetwork precision(DType precision) {
+        this.precision = precision;
+
+        for (Layer layer : layers)
+            layer.setPrecision(precision);
+
+        return this;
+    }
+
+
+    /**
+     * sets how the training set is split into mini-batches each epoch,
+     * sequential batches by default
+     */
+    public NeuralNetwork sampler(Sampler sampler) {
+        this.sampler = sampler;
+        return this;
+    }
+
+
+    /**
+     * prepares batches on background threads while the network trains on the
+     * previous ones. the time training had to wait for a batch is reported when
+     * training completes. a depth of 0 prepares every batch on the training thread.
+     *
+     * @param depth number of batches that can be ready ahead of training
+     * @param threads number of threads preparing batches
+     */
+    public NeuralNetwork prefetch(int depth, int threads) {
+        if (depth < 0)
+            throw new IllegalArgumentException("Prefetch depth can not be negative");
+        if (threads < 1)
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+
+        this.prefetchDepth = depth;
+        this.prefetchThreads = threads;
+        return this;
+    }
+
+
+    /**
+     * splits every batch into shards that are trained on by separate replicas of the
+     * network, each on its own thread. the gradients of the shards are summed before
+     * the weights are updated once, so the result matches training on a single thread
+     * up to rounding. 1 trains on the calling thread.
+     *
+     * @param replicas number of replicas and threads
+     */
+    public NeuralNetwork dataParallel(int replicas) {
+        if (replicas < 1)
+            throw new IllegalArgumentException("Number of replicas must be at least 1");
+
+        this.replicas = replicas;
+        return this;
+    }
+
+
+    /**
+     * trains asynchronously (Hogwild): every thread trains on its own batches and
+     * writes its updates to the shared weights without a lock, see {@link Hogwild}.
+     * the batches are prepared by the training threads, so prefetching is not used.
+     * 0 threads turns it off.
+     *
+     * @param threads number of training threads
+     * @param writes how the updates are written to the shared weights
+     */
+    public NeuralNetwork hogwild(int threads, Hogwild.Writes writes) {
+        if (threads < 0)
+            throw new IllegalArgumentException("Number of threads can not be negative");
+
+        this.hogwildThreads = threads;
+        this.hogwildWrites = writes;
+        return this;
+    }
+
+
+    /**
+     * splits the layers into stages of consecutive layers that each run on their own
+     * thread, and every batch into micro-batches that flow through the stages, see
+     * {@link Pipeline}. the gradients of the micro-batches are summed before the weights
+     * are updated, so the result matches training without stages up to rounding.
+     * the share of the training time each stage was busy is reported when training
+     * completes. 0 stages turns it off.
+     *
+     * @param stages number of stages and threads, at most the number of layers
+     * @param microBatches number of micro-batches a batch is split into
+     */
+    public NeuralNetwork pipeline(int stages, int microBatches) {
+        if (stages < 0)
+            throw new IllegalArgumentException("Number of stages can not be negative");
+        if (microBatches < 1)
+            throw new IllegalArgumentException("Number of micro-batches must be at least 1");
+
+        this.pipelineStages = stages;
+        this.microBatches = microBatches;
+        return this;
+    }
+
+
+    /**
+     * trains together with the other worker processes of a cluster: every batch is
+     * split over the workers and the gradients are summed over the cluster before the
+     * weights are updated, see {@link Distributed}. every worker must build the same
+     * network and train on the same data with the same sampler. the weights of rank 0
+     * are copied to the other workers when training starts. the time spent exchanging
+     * gradients is reported when training completes. null trains in this process only.
+     *
+     * @param cluster the connections to the other workers, closed by the caller
+     */
+    public NeuralNetwork distributed(Cluster cluster) {
+        this.cluster = cluster;
+        return this;
+    }
+
+
+    /**
+     * stores the encoder the training data was read with, so it is saved with the
+     * network and the same codes are used for inference. the encoder is frozen,
+     * values it has not seen are encoded as unknown instead of getting a new code.
+     */
+    public NeuralNetwork encoder(CategoricalEncoder encoder) {
+        this.encoder = encoder.freeze();
+        return this;
+    }
+
+
+    /**
+     * sets the number of threads the matrix products of the forward and backward
+     * pass are split over. the pool belongs to this network, other networks keep
+     * their own. 1, the default, keeps all the work on the calling thread.
+     */
+    public NeuralNetwork threads(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+
+        // the previous pool is not shut down, an inference engine or a replica may still
+        // be computing on it. its workers exit once they are idle.
+        ForkJoinPool pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        parallelism = new Parallelism(pool, getParallelism().getThreshold());
+        return this;
+    }
+
+
+    /**
+     * sets the size (rows * inner * cols) from which a matrix product is
+     * computed in parallel. smaller products stay single-threaded.
+     */
+    public NeuralNetwork parallelThreshold(long threshold) {
+        parallelism = getParallelism().withThreshold(threshold);
+        return this;
+    }
+
+
     /**
      * Predict the output of the network by using forward propagation.
      *
@@ -72,9 +257,12 @@ public class NeuralNetwork implements Serializable {
      * @return the output of the last layer.
      */
     public NDArray predict(NDArray input) {
-        ArrayList<LayerOutput> outputs = forward(input);
+        NDArray a = input;
 
-        return outputs.get(outputs.size() - 1).getA();
+        for (Layer layer : layers)
+            a = layer.forward(a).getA();
+
+        return a;
     }
 
     /**
@@ -84,10 +272,33 @@ public class NeuralNetwork implements Serializable {
      * @param epochs the number of epochs to train for
      */
     public void train(DataSet trainingSet, int epochs, int batchSize) {
-        this.batchList = DataSet.batch(trainingSet, batchSize);
-        this.m = batchList.length * batchSize;
+        if ((hogwildThreads > 0 ? 1 : 0) + (replicas > 1 ? 1 : 0) + (pipelineStages > 0 ? 1 : 0) + (cluster != null ? 1 : 0) > 1)
+            throw new IllegalStateException("Only one of Hogwild, data-parallel, pipeline and distributed training can be used");
+
+        sampler.bind(trainingSet.asType(precision), batchSize);
+        this.m = trainingSet.getX().shape(0);
+        allocate(batchSize);
+
+        double[] errors;
+        try (DataParallel parallel = replicas > 1 ? new DataParallel(this, replicas, batchSize) : null;
+             Hogwild asynchronous = hogwildThreads > 0 ? new Hogwild(this, sampler, hogwildThreads, batchSize, hogwildWrites) : null;
+             Pipeline stages = pipelineStages > 0 ? new Pipeline(this, pipelineStages, microBatches, batchSize) : null) {
+            dataParallel = parallel;
+            hogwild = asynchronous;
+            pipeline = stages;
+
+            if (cluster != null) {
+                distributed = new Distributed(this, cluster);
+                distributed.synchronize();
+            }
 
-        double[] errors = train(epochs);
+            errors = train(epochs);
+        } finally {
+            dataParallel = null;
+            hogwild = null;
+            pipeline = null;
+            distributed = null;
+        }
 
         if (costGraph)
             createCostGraph(errors);
@@ -101,22 +312,51 @@ public class NeuralNetwork implements Serializable {
 
         double[] costs; // list of costs for each epoch
         double totalTime; // total time of training
+        DecimalFormat format = new DecimalFormat("#.##");
+
+        try (ProgressBar pb = new ProgressBar("Training", epochs);
+             Prefetcher prefetcher = prefetchDepth > 0 && hogwild == null ? new Prefetcher(sampler, prefetchDepth, prefetchThreads) : null) {
 
-        try (ProgressBar pb = new ProgressBar("Training", epochs)) {
             long startTime = System.currentTimeMillis();
             costs = new double[epochs];
 
 
             for (int epoch = 0; epoch < epochs; epoch++) {
-                for (int batch = 0; batch < batchList.length; batch++)
-                    costs[epoch] += backpropagation(batch);
-
+                if (hogwild != null)
+                    costs[epoch] = hogwild.epoch();
+                else
+                    costs[epoch] = prefetcher != null ? epoch(prefetcher) : epoch();
 
                 pb.step();
-                pb.setExtraMessage("Cost: " + new DecimalFormat("#.##").format(costs[epoch]));
+                pb.setExtraMessage("Cost: " + format.format(costs[epoch]));
             }
             totalTime = (System.currentTimeMillis() - startTime) / 1000.0;
             System.out.println("\nTraining complete in " + totalTime + " seconds.");
+
+            if (prefetcher != null) {
+                double stallTime = prefetcher.getStallTime() / 1e9;
+                System.out.println("Waited " + format.format(stallTime) + " seconds for batches ("
+                        + format.format(totalTime > 0 ? 100 * stallTime / totalTime : 0) + "% of the training time).");
+            }
+
+            if (distributed != null) {
+                double communication = distributed.getCommunicationTime() / 1e9;
+                double compute = distributed.getComputeTime() / 1e9;
+                System.out.println("Worker " + cluster.getRank() + " of " + cluster.getSize() + " exchanged gradients for "
+                        + format.format(communication) + " seconds and computed for " + format.format(compute) + " seconds ("
+                        + format.format(communication + compute > 0 ? 100 * communication / (communication + compute) : 0)
+                        + "% communication).");
+            }
+
+            if (pipeline != null) {
+                stageUtilisation = pipeline.utilisation();
+
+                StringBuilder report = new StringBuilder("Stages busy:");
+                for (int stage = 0; stage < stageUtilisation.length; stage++)
+                    report.append(stage == 0 ? " " : ", ").append(format.format(100 * stageUtilisation[stage])).append('%');
+
+                System.out.println(report.append(" of the time spent in training steps."));
+            }
         }
 
         return costs;
@@ -124,23 +364,64 @@ public class NeuralNetwork implements Serializable {
 
 
     /**
-     * saves the state of the network to a file
+     * trains on every batch of an epoch, preparing each batch on the training thread
+     * @return the cost of the epoch
+     */
+    private double epoch() {
+        double cost = 0;
+
+        sampler.nextEpoch();
+        for (int batch = 0; batch < sampler.batches(); batch++)
+            cost += backpropagation(sampler.batch(batch));
+
+        return cost;
+    }
+
+
+    /**
+     * trains on every batch of an epoch, with the batches prepared by the prefetcher
+     * @return the cost of the epoch
+     */
+    private double epoch(Prefetcher prefetcher) {
+        double cost = 0;
+
+        prefetcher.startEpoch();
+        for (int batch = 0; batch < prefetcher.batches(); batch++) {
+            cost += backpropagation(prefetcher.take(batch));
+            prefetcher.release(batch);
+        }
+
+        return cost;
+    }
+
+
+    /**
+     * saves the layers, learning rate, precision and encoder of the network to a
+     * checkpoint file, see {@link Checkpoint}
      *
      * @param path location of the file
      */
     public void save(String path) {
-        ObjectIO.WriteObjectToFile(this, path);
+        try {
+            Checkpoint.write(this, Paths.get(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + path, e);
+        }
     }
 
 
     /**
-     * load a neural network from a file.
+     * load a neural network from a checkpoint file.
      *
      * @param path location of the file
      * @return the neural network
      */
     public static NeuralNetwork load(String path) {
-        return (NeuralNetwork) ObjectIO.readObjectFromFile(path);
+        try {
+            return Checkpoint.read(Paths.get(path));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + path, e);
+        }
     }
 
 
@@ -160,165 +441,298 @@ public class NeuralNetwork implements Serializable {
         return learningRate;
     }
 
+    /**
+     * @return the pool and threshold the products of the layers are split over
+     */
+    public Parallelism getParallelism() {
+        return parallelism != null ? parallelism : Parallelism.SERIAL; // null after java deserialization
+    }
+
+    public DType getPrecision() {
+        return precision;
+    }
+
+    public CategoricalEncoder getEncoder() {
+        return encoder;
+    }
 
     /**
-     * performs a single run of backward propagation on a batch
+     * @return the share of the time in training steps each stage was busy during the
+     *         last pipelined training, or null if the network has not trained with stages
+     */
+    public double[] getStageUtilisation() {
+        return stageUtilisation;
+    }
+
+
+    /**
+     * performs a single run of backward propagation on a batch.
+     * package-private so the benchmarks can time a single step, the buffers
+     * must have been allocated for the size of the batch.
      *
      * @return the cost
      */
-    private double backpropagation(int batchIndex) {
+    double backpropagation(DataSet batch) {
 
-        ArrayList<LayerOutput> outputs; // the outputs of each layer.
-        DataSet batch;                  // the batch of data.
-        NDArray[] errors;               // the errors of each layer.
         NDArray prediction;             // the output/prediction of the network.
         double cost;                    // the cost of the batch.
 
-        batch = batchList[batchIndex];
-        outputs = forward(batch.getX());
-        errors = getErrors(outputs, batchIndex);
+        if (dataParallel != null)
+            return dataParallel.step(batch);
+        if (pipeline != null)
+            return pipeline.step(batch);
+        if (distributed != null)
+            return distributed.step(batch);
+
+        prediction = forward(batch.getX());
+        cost = cost(batch.getY(), prediction);
+
+        updateErrors(batch.getY(), prediction);
+        updateWeights(batch.getX());
+
+        return cost;
+    }
+
+
+    /**
+     * computes the gradients of every layer for a shard of a batch, without
+     * updating the weights. used by the replicas of data-parallel training.
+     *
+     * @param shard rows of the batch
+     * @param batchRows the number of rows of the whole batch
+     * @return the cost of the shard
+     */
+    double gradients(DataSet shard, int batchRows) {
+
+        NDArray prediction;             // the output/prediction of the network.
+        double cost;                    // the cost of the shard.
+
+        prediction = forward(shard.getX());
+        cost = cost(shard.getY(), prediction);
+
+        updateErrors(shard.getY(), prediction);
+        computeGradients(shard.getX(), 0, layers.size(), batchRows);
+
+        return cost;
+    }
+
+
+    /**
+     * forward propagation through the layers from up to (not including) to, using the
+     * training buffers of the layers. the first layer of the range takes the activation
+     * the layer before it computed last, or x when the range starts at the first layer.
+     *
+     * @return the activation of the last layer of the range
+     */
+    NDArray forward(NDArray x, int from, int to) {
+
+        NDArray a = input(x, from); // activation of the last computed layer.
+
+        for (int i = from; i < to; i++)
+            a = layers.get(i).forwardTraining(a).getA();
 
-        // assign the computed errors to each layer.
-        for (int i = 0; i < layers.size(); i++)
-            layers.get(i).setError(errors[i]);
+        return a;
+    }
 
-        updateWeights(outputs);
 
-        prediction = outputs.get(outputs.size() - 1).getA();
-        cost = cost(batch.getY(), prediction).sum();
+    /**
+     * computes the cost of a batch and the error of the last layer from the
+     * prediction of forward()
+     *
+     * @return the cost
+     */
+    double outputError(NDArray y, NDArray prediction) {
+        double cost = cost(y, prediction);
+        getFinalLayerError(y, prediction);
 
         return cost;
     }
 
 
     /**
-     * updates the error of each hidden layer
-     * error of a layer l = (W^l+1 dot derivative^l+1) * activation'(z^l)
+     * propagates the error of layer to - 1 back through the layers of the range, and
+     * on to the layer before the range. the error of layer to - 1 must be computed.
+     * error of a layer l = (derivative^l+1 dot W^l+1) * activation'(z^l)
+     */
+    void hiddenErrors(int from, int to) {
+        for (int i = to - 2; i >= Math.max(from - 1, 0); i--)
+            layers.get(i).hiddenError(layers.get(i + 1));
+    }
+
+
+    /**
+     * computes the gradients of the layers from up to (not including) to from their
+     * errors, see {@link Layer#computeGradients}
      *
-     * @param batchIndex the index of the batch
-     * @param outputs list of forward propagation outputs of all the layers layer
-     * @return array of errors of each layer
-     */
-    private NDArray[] getErrors(ArrayList<LayerOutput> outputs, int batchIndex) {
-        NDArray[] errors;          // the errors of each layer.
-        LayerOutput prediction;    // the output/prediction of the network.
-
-        errors = new NDArray[layers.size()];
-        prediction = outputs.get(outputs.size() - 1);
-        errors[layers.size()-1] = getFinalLayerError(prediction, batchIndex);
-
-        Layer currentLayer;
-        Layer nextLayer;
-        NDArray error;
-        NDArray weights;            // the weights of the next layer.
-        IActivationFunction actFun; // the activation function of the current layer.
-        NDArray z;                  // output of the next layer
-
-        for  (int i = layers.size()-2; i >= 0; i--) {
-            currentLayer = layers.get(i);
-            nextLayer = layers.get(i + 1);
-            weights = nextLayer.getWeights();
-
-            z = outputs.get(i+1).getZ();
-            actFun = currentLayer.getActivationFunction();
-
-            error = weights.T()
-                    .dot(errors[i+1])
-                    .mul(z.gradient(actFun).T());
-
-            errors[i] = error;
+     * @param x the input of the batch, used when the range starts at the first layer
+     * @param batchRows the number of rows of the whole batch
+     */
+    void computeGradients(NDArray x, int from, int to, int batchRows) {
+
+        NDArray input = input(x, from); // activation of the previous layer.
+
+        for (int i = from; i < to; i++) {
+            layers.get(i).computeGradients(input, batchRows);
+            input = layers.get(i).getOutput().getA();
         }
+    }
 
-        return errors;
+
+    /**
+     * adds the gradients of a replica to the gradients of this network
+     */
+    void addGradients(NeuralNetwork replica) {
+        addGradients(replica, 0, layers.size());
+    }
+
+
+    /**
+     * adds the gradients of the layers from up to (not including) to of a replica
+     */
+    void addGradients(NeuralNetwork replica, int from, int to) {
+        for (int i = from; i < to; i++)
+            layers.get(i).addGradients(replica.layers.get(i));
+    }
+
+
+    /**
+     * updates the weights of every layer with the gradients computed by gradients()
+     */
+    void applyGradients() {
+        applyGradients(0, layers.size());
+    }
+
+
+    /**
+     * updates the weights of the layers from up to (not including) to with their gradients
+     */
+    void applyGradients(int from, int to) {
+        for (int i = from; i < to; i++)
+            layers.get(i).applyGradients(learningRate);
+    }
+
+
+    /**
+     * applyGradients with atomic additions, for weights that other threads update at the same time
+     */
+    void applyGradientsAtomic() {
+        for (Layer layer : layers)
+            layer.applyGradientsAtomic(learningRate);
+    }
+
+
+    /**
+     * @return a network whose layers share the weights of this network, with its own
+     *         training buffers for batches of up to batchSize rows
+     */
+    NeuralNetwork replica(int batchSize) {
+        NeuralNetwork replica = new NeuralNetwork();
+        replica.precision = precision; // before adding the layers, so the shared weights are not converted
+        replica.parallelism = parallelism;
+
+        for (Layer layer : layers)
+            replica.layer(layer.replica());
+
+        replica.learningRate = learningRate;
+        replica.m = m;
+        replica.allocate(batchSize);
+
+        return replica;
+    }
+
+
+    /**
+     * @return the input of the layer at the given index: x for the first layer,
+     *         otherwise the activation the layer before it computed last
+     */
+    private NDArray input(NDArray x, int layer) {
+        return layer == 0 ? x : layers.get(layer - 1).getOutput().getA();
+    }
+
+
+    /**
+     * creates the buffers each layer reuses for every batch during training.
+     */
+    private void allocate(int batchSize) {
+        for (Layer layer : layers)
+            layer.allocate(batchSize);
+
+        costBuffers = new NDArray[batchSize + 1];
+        costBuffers[batchSize] = NDArray.zeros(precision, batchSize, getOutputSize());
+    }
+
+
+    /**
+     * @return the buffer for the cost of a batch of the given number of rows
+     */
+    private NDArray costBuffer(int rows) {
+        if (costBuffers[rows] == null)
+            costBuffers[rows] = costBuffers[costBuffers.length - 1].getRows(0, rows);
+
+        return costBuffers[rows];
+    }
+
+
+    /**
+     * updates the error of each layer
+     * error of a layer l = (derivative^l+1 dot W^l+1) * activation'(z^l)
+     *
+     * @param y labels of the batch
+     * @param prediction the output of the last layer
+     */
+    private void updateErrors(NDArray y, NDArray prediction) {
+        getFinalLayerError(y, prediction);
+        hiddenErrors(0, layers.size());
     }
 
     /**
      * Computes the error of the final layer.
      * error of a FinalLayer L = cost' * activation'(z^L)
      *
-     * @param lastOutput the output of the last layer
-     * @param batchIndex the index of the batch
+     * @param y labels of the batch
+     * @param prediction the output of the last layer
      * @return the error of the final layer
      */
-    private NDArray getFinalLayerError(LayerOutput lastOutput, int batchIndex) {
+    private NDArray getFinalLayerError(NDArray y, NDArray prediction) {
 
         Layer finalLayer;                       // the final layer of our network.
         NDArray costDerivative;                 // derivative of the cost function at the current state of the network.
-        IActivationFunction activationFunction; // activation function of the last layer (Sigmoid, Relu, etc).
-        NDArray z;                              // output of the last layer.
-
 
         finalLayer = layers.get(layers.size() - 1);
-        costDerivative = costDerivative(batchList[batchIndex].getY(), lastOutput.getA());
-        activationFunction = finalLayer.getActivationFunction();
-        z = lastOutput.getZ();
+        costDerivative = costDerivative(y, prediction);
 
-        return costDerivative.mul(z.gradient(activationFunction)).T();
+        return finalLayer.outputError(costDerivative);
     }
 
 
     /**
      * updates the weights and bias of each layer
-     * using the error of the layer computed in updateLayerError().
-     * weights^l += error^l dot activation^l-1.
+     * using the error of the layer computed in updateErrors().
+     * weights^l += error^l^T dot activation^l-1.
      * bias^l += error^l.
      *
-     * @param outputs list of forward propagation outputs of all the layers layer
+     * @param x the input of the batch
      */
-    private void updateWeights(ArrayList<LayerOutput> outputs) {
-
-        Layer layer;            // the current layer.
-        NDArray weight;         // weight of the layer.
-        NDArray bias;           // bias of the layer.
+    private void updateWeights(NDArray x) {
 
-        NDArray error;          // error of the layer.
-        NDArray a;              // activation of the layer.
+        NDArray input = x; // activation of the previous layer.
 
-        NDArray updatedWeight;  // the new weight.
-        NDArray updatedBias;    // the new bias.
-
-        for (int i = 0; i < layers.size(); i++) {
-            layer = layers.get(i);
-            weight = layer.getWeights();
-            bias = layer.getBias();
-
-            error = layer.getError();
-            a = outputs.get(i).getA();
-
-            updatedWeight = weight.add(error.dot(a).mul(learningRate));
-            updatedBias = bias.add(error.mul(learningRate).getAvgColVector());
-
-            layer.setWeights(updatedWeight);
-            layer.setBias(updatedBias);
+        for (Layer layer : layers) {
+            layer.updateWeights(input, learningRate);
+            input = layer.getOutput().getA();
         }
     }
 
 
     /**
-     * does forward propagation on each layer of the network
-     * and returns the output of each layer
+     * does forward propagation on each layer of the network, using the
+     * training buffers of the layers.
      *
      * @param x data we want to make a prediction on
      * @return the prediction
      */
-    private ArrayList<LayerOutput> forward(NDArray x) {
-
-        ArrayList<LayerOutput> outputs; // collection of all the outputs of each layer.
-        LayerOutput input;             // the output of the input layer (l = 0). this layer does not contain weights.
-        LayerOutput lastOutput;        // the output of the last computed layer.
-        LayerOutput nextOutput;         // the output of the next layer.
-
-        outputs = new ArrayList<>();
-        input = new LayerOutput(x, x); // a and z are both the same for the input layer.
-        outputs.add(input);
-
-        for (Layer layer : layers) {
-            lastOutput = outputs.get(outputs.size() - 1);
-            nextOutput = layer.forward(lastOutput.getA());
-            outputs.add(nextOutput);
-        }
-
-        return outputs;
+    private NDArray forward(NDArray x) {
+        return forward(x, 0, layers.size()); // the input layer (l = 0) has no weights.
     }
 
 
@@ -327,18 +741,16 @@ public class NeuralNetwork implements Serializable {
      *
      * @param y labels
      * @param yHat predictions
-     * @return error squared vector
+     * @return sum of the squared errors
      */
-    private NDArray cost(NDArray y, NDArray yHat) {
+    private double cost(NDArray y, NDArray yHat) {
         NDArray error; // error between the labels and the predictions.
-        NDArray cost;  // the average cost of a training instance.
-        double m;               // the number of training instances.
+        double m;      // the number of training instances.
 
         m = this.m;
-        error = y.sub(yHat);
-        cost = error.pow(2).mul(1.0/(m*2.0));
+        error = y.sub(yHat, costBuffer(y.shape(0)));
 
-        return cost;
+        return error.powi(2).sum() / (m*2.0);
     }
 
 
@@ -355,8 +767,8 @@ public class NeuralNetwork implements Serializable {
         double m;               // the number of training instances.
 
         m = this.m;
-        error = y.sub(yHat);
-        costDerivative = error.mul(1.0/m);
+        error = y.sub(yHat, costBuffer(y.shape(0)));
+        costDerivative = error.muli(1.0/m);
 
         return costDerivative;
     }
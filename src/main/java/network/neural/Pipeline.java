@@ -0,0 +1,244 @@
+package network.neural;
+
+import network.neural.util.DataSet;
+import network.neural.util.matrix.NDArray;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * pipeline-parallel training of a network (GPipe).
+ *
+ * the layers are split into stages of consecutive layers, each run by a thread of
+ * its own, and every batch into micro-batches of consecutive rows. a stage forwards
+ * a micro-batch through its layers and passes it on to the next stage, which starts
+ * on it while the stage forwards the next micro-batch. the last stage computes the
+ * error of a micro-batch as soon as it is forwarded and sends it back, so the
+ * backward pass of a micro-batch overlaps the forward pass of the ones after it.
+ *
+ * every micro-batch has its own replica of the network, sharing the weights, to keep
+ * its activations until its backward pass. a stage adds the gradients of every
+ * micro-batch to those of replica 0 (the network itself) in order, and updates the
+ * weights of its layers after the last one. the next batch only enters the pipeline
+ * once the previous one has left it, so every micro-batch of a batch sees the same
+ * weights and a run is repeatable.
+ *
+ * the stages talk through a queue each. a message is the index k of a micro-batch
+ * to forward, or ~k for a micro-batch whose error is ready to propagate back.
+ */
+class Pipeline implements AutoCloseable {
+
+    private final NeuralNetwork[] replicas; // one per micro-batch, replica 0 is the network
+    private final int[] bounds;             // stage s has the layers bounds[s] up to bounds[s + 1]
+    private final List<BlockingQueue<Integer>> queues;
+    private final Thread[] workers;
+    private final long[] busy;              // nanoseconds each stage spent on micro-batches
+    private final Semaphore done = new Semaphore(0); // a permit when a stage is done with a batch
+
+    private final DataSet[] micro;          // rows of the current batch in each micro-batch
+    private final double[] costs;
+    private int active;                     // micro-batches in the current batch
+    private int batchRows;
+    private long stepTime;                  // nanoseconds spent in step()
+    private volatile Throwable failure;
+
+    /**
+     * @param network the network to train, replica 0
+     * @param stages the number of stages and threads
+     * @param microBatches the number of micro-batches a batch is split into
+     * @param batchSize the largest batch that will be trained on
+     */
+    Pipeline(NeuralNetwork network, int stages, int microBatches, int batchSize) {
+        if (stages > network.getLayerCount())
+            throw new IllegalArgumentException("A pipeline of " + stages + " stages needs at least as many layers, the network has "
+                    + network.getLayerCount());
+
+        int microSize = (batchSize + microBatches - 1) / microBatches;
+
+        this.replicas = new NeuralNetwork[microBatches];
+        this.micro = new DataSet[microBatches];
+        this.costs = new double[microBatches];
+        this.bounds = partition(network, stages);
+        this.queues = new ArrayList<>(stages);
+        this.workers = new Thread[stages];
+        this.busy = new long[stages];
+
+        for (int k = 0; k < microBatches; k++)
+            replicas[k] = k == 0 ? network : network.replica(microSize);
+
+        // a stage receives a forward and a backward message per micro-batch of a batch,
+        // and no more before the batch has left the pipeline, so a put never waits
+        for (int s = 0; s < stages; s++)
+            queues.add(new ArrayBlockingQueue<>(2 * microBatches));
+
+        for (int s = 0; s < stages; s++) {
+            int stage = s;
+            workers[s] = new Thread(() -> run(stage), "pipeline-stage-" + s);
+            workers[s].setDaemon(true);
+            workers[s].start();
+        }
+    }
+
+
+    /**
+     * trains the network on a single batch
+     * @return the cost of the batch
+     */
+    double step(DataSet batch) {
+        long start = System.nanoTime();
+
+        batchRows = batch.getX().shape(0);
+        active = Math.min(batchRows, replicas.length);
+
+        for (int k = 0; k < active; k++) {
+            int from = (int) ((long) k * batchRows / active);
+            int to = (int) ((long) (k + 1) * batchRows / active);
+            micro[k] = new DataSet(batch.getX().getRows(from, to), batch.getY().getRows(from, to));
+        }
+
+        for (int k = 0; k < active; k++)
+            queues.get(0).add(k);
+
+        done.acquireUninterruptibly(workers.length);
+        if (failure != null)
+            throw new IllegalStateException("Pipeline stage failed", failure);
+
+        double cost = 0;
+        for (int k = 0; k < active; k++)
+            cost += costs[k];
+
+        stepTime += System.nanoTime() - start;
+        return cost;
+    }
+
+
+    /**
+     * @return the share of the time spent in step() each stage was busy
+     */
+    double[] utilisation() {
+        double[] utilisation = new double[busy.length];
+        for (int s = 0; s < busy.length; s++)
+            utilisation[s] = stepTime > 0 ? (double) busy[s] / stepTime : 0;
+
+        return utilisation;
+    }
+
+
+    @Override
+    public void close() {
+        for (Thread worker : workers)
+            worker.interrupt();
+    }
+
+
+    /**
+     * splits the layers into stages of consecutive layers with about the same number
+     * of weights, every stage gets at least one layer
+     *
+     * @return the index of the first layer of each stage, followed by the number of layers
+     */
+    private static int[] partition(NeuralNetwork network, int stages) {
+        int layers = network.getLayerCount();
+        long[] weights = new long[layers + 1]; // weights of the layers before each index
+
+        for (int i = 0; i < layers; i++)
+            weights[i + 1] = weights[i] + network.getLayer(i).getWeights().size();
+
+        int[] bounds = new int[stages + 1];
+        bounds[stages] = layers;
+
+        for (int s = 1; s < stages; s++) {
+            double target = (double) weights[layers] * s / stages;
+            int end = bounds[s - 1] + 1;
+
+            // grow the stage while that brings its end closer to the target,
+            // leaving a layer for each of the stages after it
+            while (end < layers - (stages - s)
+                    && Math.abs(weights[end + 1] - target) <= Math.abs(weights[end] - target))
+                end++;
+
+            bounds[s] = end;
+        }
+
+        return bounds;
+    }
+
+
+    private void run(int stage) {
+        int from = bounds[stage];
+        int to = bounds[stage + 1];
+        boolean last = stage == workers.length - 1;
+
+        try {
+            while (true) {
+                int message = queues.get(stage).take();
+                long start = System.nanoTime();
+                boolean finished;
+
+                try {
+                    finished = message >= 0 ? forward(stage, message, from, to, last) : backward(stage, ~message, from, to);
+                } catch (RuntimeException e) {
+                    failure = e;
+                    done.release(workers.length);
+                    continue;
+                }
+
+                busy[stage] += System.nanoTime() - start;
+                if (finished)
+                    done.release();
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+
+    /**
+     * forwards a micro-batch through the layers of a stage, the last stage goes on with
+     * the backward pass right away
+     *
+     * @return whether the stage is done with the batch
+     */
+    private boolean forward(int stage, int k, int from, int to, boolean last) {
+        NeuralNetwork replica = replicas[k];
+        NDArray prediction = replica.forward(micro[k].getX(), from, to);
+
+        if (!last) {
+            queues.get(stage + 1).add(k);
+            return false;
+        }
+
+        costs[k] = replica.outputError(micro[k].getY(), prediction);
+        return backward(stage, k, from, to);
+    }
+
+
+    /**
+     * propagates the error of a micro-batch back through the layers of a stage and
+     * on to the last layer of the stage before it, which only reads the weights of
+     * this stage. a stage therefore only reads its own weights and can update them
+     * after its last micro-batch, while the stages before it are still busy.
+     *
+     * @return whether the stage is done with the batch
+     */
+    private boolean backward(int stage, int k, int from, int to) {
+        NeuralNetwork replica = replicas[k];
+
+        replica.hiddenErrors(from, to);
+        replica.computeGradients(micro[k].getX(), from, to, batchRows);
+
+        if (k > 0)
+            replicas[0].addGradients(replica, from, to);
+
+        if (k == active - 1)
+            replicas[0].applyGradients(from, to);
+
+        if (stage > 0)
+            queues.get(stage - 1).add(~k);
+
+        return k == active - 1;
+    }
+}
@@ -16,5 +16,19 @@ public interface IActivationFunction{
      * @return output of the activation function
      */
     double gradient(double x);
+
+
+    /**
+     * calculates the gradient when the output of the activation function is already known.
+     * functions whose derivative is easier to express in their output can override this
+     * to avoid computing get(x) again.
+     *
+     * @param x double to apply the activation function to
+     * @param y the output of get(x)
+     * @return output of the activation function
+     */
+    default double gradient(double x, double y) {
+        return gradient(x);
+    }
 }
 
@@ -1,6 +1,8 @@
 package network.neural.activationfunctions;
 
-public class LeakyReLU implements IActivationFunction{
+import java.io.Serializable;
+
+public class LeakyReLU implements IActivationFunction, Serializable {
     @Override
     public double get(double x) {
         return x > 0 ? x : 0.01 * x;
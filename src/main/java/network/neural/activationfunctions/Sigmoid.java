@@ -10,7 +10,12 @@ public class Sigmoid implements IActivationFunction, Serializable {
 
     @Override
     public double gradient(double x) {
-        return get(x) * (1.0 - get(x));
+        return gradient(x, get(x));
+    }
+
+    @Override
+    public double gradient(double x, double y) {
+        return y * (1.0 - y);
     }
 
 }
@@ -10,7 +10,12 @@ public class Tanh implements IActivationFunction, Serializable {
 
     @Override
     public double gradient(double x) {
-        return 1 - Math.pow(Math.tanh(x), 2);
+        return gradient(x, get(x));
+    }
+
+    @Override
+    public double gradient(double x, double y) {
+        return 1 - y * y;
     }
 
 
@@ -1,10 +1,13 @@
 package network.neural.layer;
 
 import network.neural.NeuralNetwork;
+import network.neural.util.matrix.DType;
 import network.neural.util.matrix.NDArray;
+import network.neural.util.matrix.Parallelism;
 import network.neural.activationfunctions.IActivationFunction;
 
 import java.io.Serializable;
+import java.util.Arrays;
 
 public class Layer implements Serializable {
 
@@ -18,6 +21,17 @@ public class Layer implements Serializable {
 
     private NDArray error;
 
+    // buffers reused by every batch during training, see allocate().
+    private transient int batchSize;          // rows of the current batch
+    private transient NDArray z;              // weighted input (batch x outputSize)
+    private transient NDArray a;              // activation (batch x outputSize)
+    private transient NDArray gradient;       // activation'(z) (batch x outputSize)
+    private transient NDArray weightGradient; // outputSize x inputSize
+    private transient NDArray biasGradient;   // 1 x outputSize
+    private transient NDArray biasRow;        // bias viewed as a row vector (1 x outputSize)
+    private transient LayerOutput output;
+    private transient Buffers[] buffers;      // buffers by number of rows, see use()
+
     /**
      * layer of neurons with weights and biases.
      *
@@ -37,6 +51,32 @@ public class Layer implements Serializable {
         this.bias = NDArray.rand(epsilon,  outputSize, 1);
     }
 
+    /**
+     * layer with the given weights and bias, e.g. of a network read from a checkpoint.
+     * the arrays are used as they are, not copied.
+     *
+     * @param weights (outputSize x inputSize)
+     * @param bias (outputSize x 1), converted to the dtype of the weights
+     */
+    public Layer(NDArray weights, NDArray bias, IActivationFunction activationFunction) {
+        if (bias.shape(0) != weights.shape(0) || bias.shape(1) != 1)
+            throw new IllegalArgumentException("Bias of shape " + Arrays.toString(bias.shape()) + " does not fit weights of shape " + Arrays.toString(weights.shape()));
+
+        this.inputSize = weights.shape(1);
+        this.outputSize = weights.shape(0);
+        this.activationFunction = activationFunction;
+        this.weights = weights;
+        this.bias = bias.asType(weights.dtype());
+    }
+
+    private Layer(Layer source) {
+        this.inputSize = source.inputSize;
+        this.outputSize = source.outputSize;
+        this.activationFunction = source.activationFunction;
+        this.weights = source.weights;
+        this.bias = source.bias;
+    }
+
     /**
      * Predict the output of the network by using forward propagation.
      *
@@ -44,12 +84,204 @@ public class Layer implements Serializable {
      * @return array where [0] is the output z and [1] is the activation a
      */
     public LayerOutput forward(NDArray input) {
-        NDArray z = weights.dot(input.T()).addVector(bias).T();
-        NDArray a = z.activation(activationFunction);
+        int rows = input.shape()[0];
+        NDArray z = NDArray.zeros(getPrecision(), rows, outputSize);
+        NDArray a = NDArray.zeros(getPrecision(), rows, outputSize);
+
+        input.asType(getPrecision()).linear(weights, bias, activationFunction, z, a, null, parallelism());
 
         return new LayerOutput(z, a);
     }
 
+
+    /**
+     * creates the buffers used during training for batches of up to batchSize rows.
+     * does nothing if the buffers already have the right size.
+     */
+    public void allocate(int batchSize) {
+        if (buffers != null && buffers.length == batchSize + 1)
+            return;
+
+        DType dtype = getPrecision();
+        weightGradient = NDArray.zeros(dtype, outputSize, inputSize);
+        biasGradient = NDArray.zeros(dtype, 1, outputSize);
+        biasRow = bias.transposed();
+
+        buffers = new Buffers[batchSize + 1];
+        buffers[batchSize] = new Buffers(
+                NDArray.zeros(dtype, batchSize, outputSize),
+                NDArray.zeros(dtype, batchSize, outputSize),
+                NDArray.zeros(dtype, batchSize, outputSize),
+                NDArray.zeros(dtype, batchSize, outputSize));
+        use(batchSize);
+    }
+
+
+    /**
+     * switches the training buffers to a batch of the given number of rows.
+     * a batch smaller than the allocated size uses the first rows of the full buffers,
+     * the views are created once per size and reused after that.
+     */
+    private void use(int rows) {
+        if (rows >= buffers.length)
+            throw new IllegalArgumentException("Batch of " + rows + " rows is larger than the allocated " + (buffers.length - 1));
+
+        Buffers full = buffers[buffers.length - 1];
+        if (buffers[rows] == null)
+            buffers[rows] = new Buffers(full.z.getRows(0, rows), full.a.getRows(0, rows),
+                    full.gradient.getRows(0, rows), full.error.getRows(0, rows));
+
+        Buffers current = buffers[rows];
+        batchSize = rows;
+        z = current.z;
+        a = current.a;
+        gradient = current.gradient;
+        error = current.error;
+        output = current.output;
+    }
+
+
+    /**
+     * forward propagation during training, the result is written to the buffers
+     * of this layer and stays valid until the next call.
+     * the derivative of the activation is computed in the same pass and kept
+     * for the backward pass.
+     *
+     * @param input input data of shape (batch x inputSize), in the precision of this layer
+     * @return the output z and activation a of this layer
+     */
+    public LayerOutput forwardTraining(NDArray input) {
+        if (input.shape(0) != batchSize)
+            use(input.shape(0));
+
+        input.linear(weights, bias, activationFunction, z, a, gradient, parallelism());
+
+        return output;
+    }
+
+
+    /**
+     * computes the error of the last layer.
+     * error = cost' * activation'(z)
+     *
+     * @param costDerivative derivative of the cost (batch x outputSize), overwritten
+     * @return the error of this layer
+     */
+    public NDArray outputError(NDArray costDerivative) {
+        return costDerivative.mul(gradient, error);
+    }
+
+
+    /**
+     * computes the error of a hidden layer from the error of the layer after it.
+     * error = (error^l+1 dot W^l+1) * activation'(z)
+     *
+     * @param next the layer after this one
+     * @return the error of this layer
+     */
+    public NDArray hiddenError(Layer next) {
+        next.error.dot(next.weights, error, parallelism())
+                .muli(gradient);
+
+        return error;
+    }
+
+
+    /**
+     * updates the weights and bias using the error of this layer.
+     * weights += learningRate * error^T dot input.
+     * bias += learningRate * average(error).
+     *
+     * @param input the input this layer received in forwardTraining
+     */
+    public void updateWeights(NDArray input, double learningRate) {
+        computeGradients(input, input.shape(0));
+        applyGradients(learningRate);
+    }
+
+
+    /**
+     * computes the gradients of the weights and bias from the error of this layer,
+     * without applying them. the rows may be a shard of a larger batch, the
+     * gradients of all shards add up to the gradients of the whole batch.
+     * weightGradient = error^T dot input.
+     * biasGradient = sum(error) / batchRows.
+     *
+     * @param input the input this layer received in forwardTraining
+     * @param batchRows the number of rows of the whole batch
+     */
+    public void computeGradients(NDArray input, int batchRows) {
+        int rows = input.shape(0);
+
+        error.dotTransposeA(input, weightGradient, parallelism());
+        error.getAvgRowVector(biasGradient);
+
+        if (rows != batchRows)
+            biasGradient.muli((double) rows / batchRows);
+    }
+
+
+    /**
+     * adds the gradients of another layer of the same shape to the gradients of this layer
+     */
+    public void addGradients(Layer other) {
+        weightGradient.addi(other.weightGradient);
+        biasGradient.addi(other.biasGradient);
+    }
+
+
+    /**
+     * weights += learningRate * weightGradient.
+     * bias += learningRate * biasGradient.
+     */
+    public void applyGradients(double learningRate) {
+        weights.addi(weightGradient.muli(learningRate));
+        biasRow.addi(biasGradient.muli(learningRate));
+    }
+
+
+    /**
+     * applyGradients with atomic additions, for layers whose weights are updated
+     * by several threads without a lock
+     */
+    public void applyGradientsAtomic(double learningRate) {
+        weights.addiAtomic(weightGradient.muli(learningRate));
+        biasRow.addiAtomic(biasGradient.muli(learningRate));
+    }
+
+
+    /**
+     * @return a layer that shares the weights and bias of this layer, with its own
+     *         training buffers, so several batches can be computed at the same time
+     */
+    public Layer replica() {
+        return new Layer(this);
+    }
+
+    /**
+     * converts the weights and bias to the given precision. the training buffers
+     * are recreated in the new precision by the next call to allocate.
+     */
+    public void setPrecision(DType dtype) {
+        if (dtype == getPrecision())
+            return;
+
+        weights = weights.asType(dtype);
+        setBias(bias.asType(dtype));
+        buffers = null;
+    }
+
+    public DType getPrecision() {
+        return weights.dtype();
+    }
+
+    /**
+     * the pool the products of this layer are split over, the one of its network
+     */
+    private Parallelism parallelism() {
+        return network != null ? network.getParallelism() : Parallelism.SERIAL;
+    }
+
     public void setNetwork(NeuralNetwork network) {
         this.network = network;
     }
@@ -72,6 +304,7 @@ public class Layer implements Serializable {
 
     public void setBias(NDArray bias) {
         this.bias = bias;
+        this.biasRow = bias.transposed();
     }
 
     public NDArray getBias() {
@@ -91,7 +324,49 @@ public class Layer implements Serializable {
         this.error = error;
     }
 
+    /**
+     * @return the error of the last batch, of shape (batch x outputSize)
+     */
     public NDArray getError() {
         return error;
     }
+
+    /**
+     * @return the weight gradient of the last call to computeGradients (outputSize x inputSize)
+     */
+    public NDArray getWeightGradient() {
+        return weightGradient;
+    }
+
+    /**
+     * @return the bias gradient of the last call to computeGradients (1 x outputSize)
+     */
+    public NDArray getBiasGradient() {
+        return biasGradient;
+    }
+
+    /**
+     * @return the output of the last call to forwardTraining
+     */
+    public LayerOutput getOutput() {
+        return output;
+    }
+
+
+    /**
+     * the training buffers for one batch size
+     */
+    private static final class Buffers {
+
+        private final NDArray z, a, gradient, error;
+        private final LayerOutput output;
+
+        Buffers(NDArray z, NDArray a, NDArray gradient, NDArray error) {
+            this.z = z;
+            this.a = a;
+            this.gradient = gradient;
+            this.error = error;
+            this.output = new LayerOutput(z, a);
+        }
+    }
 }
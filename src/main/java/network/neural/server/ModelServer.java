@@ -0,0 +1,433 @@
+package network.neural.server;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import network.neural.InferenceEngine;
+import network.neural.NeuralNetwork;
+import network.neural.util.matrix.NDArray;
+import network.neural.util.readwrite.CategoricalEncoder;
+import network.neural.util.readwrite.Checkpoint;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * a small http server for the predictions of a network saved with {@link NeuralNetwork#save}.
+ *
+ *   POST /predict  a row of inputs per line, the values separated by commas. the
+ *                  response has a line of outputs for every row. a request of a single
+ *                  row joins the micro-batches of an {@link InferenceEngine}, larger
+ *                  requests are computed as a batch of their own.
+ *   GET  /metrics  counters of the requests, rows and errors, the throughput since the
+ *                  server started and the p50 / p99 / max latency of /predict.
+ *   POST /reload   loads the network from the file of the server again. the file can
+ *                  only be changed through {@link #reload(Path)}, never by a client.
+ *
+ * when the network was saved with a {@link CategoricalEncoder}, the values of its
+ * categorical columns can be sent as text and are encoded like the training data.
+ * the inputs are the leading columns of the csv the network was trained on.
+ *
+ * every request runs on a thread of its own, a virtual thread when the jdk has them
+ * (21 and later) and otherwise a thread of a cached pool.
+ *
+ * the jdk http server writes the headers and the body of a response separately.
+ * without TCP_NODELAY the body waits for the client to acknowledge the headers, about
+ * 40 ms per request. main() turns it on, an application that starts the server itself
+ * should run the jvm with -Dsun.net.httpserver.nodelay=true.
+ *
+ * a reload builds the engine of the new network before it is swapped in, requests
+ * that started before the swap finish on the old engine, which is closed when the
+ * last of them is done. so no request is dropped or sees a half loaded network.
+ */
+public class ModelServer implements AutoCloseable {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final int maxBatch;
+    private final long maxDelay;                // nanoseconds
+    private final AtomicReference<Model> model = new AtomicReference<>();
+    private volatile Path path;
+
+    private final long started = System.nanoTime();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Latency latency = new Latency();
+
+    private ModelServer(HttpServer server, ExecutorService executor, Path path, int maxBatch, long maxDelay) {
+        this.server = server;
+        this.executor = executor;
+        this.path = path;
+        this.maxBatch = maxBatch;
+        this.maxDelay = maxDelay;
+    }
+
+
+    /**
+     * loads a network and starts serving it
+     *
+     * @param path the file the network was saved to
+     * @param address the address to listen on, port 0 picks a free port
+     * @param maxBatch the most single-row requests that are computed together
+     * @param maxDelay the longest a single-row request waits for others to share its batch
+     * @return the running server
+     */
+    public static ModelServer start(Path path, InetSocketAddress address, int maxBatch, long maxDelay, TimeUnit unit) throws IOException {
+        HttpServer server = HttpServer.create(address, 0);
+        ExecutorService executor = threadPerRequest();
+        ModelServer modelServer = new ModelServer(server, executor, path, maxBatch, unit.toNanos(maxDelay));
+
+        modelServer.model.set(modelServer.load(path, 1));
+
+        server.createContext("/predict", modelServer::predict);
+        server.createContext("/metrics", modelServer::metrics);
+        server.createContext("/reload", modelServer::reload);
+        server.setExecutor(executor);
+        server.start();
+
+        return modelServer;
+    }
+
+
+    /**
+     * starts a server, with the arguments: model file, port and optionally the
+     * batch size and the delay in microseconds
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("usage: ModelServer <model file> <port> [max batch] [max delay in microseconds]");
+            System.exit(1);
+        }
+
+        // read once, when the first http server of the jvm is created
+        if (System.getProperty("sun.net.httpserver.nodelay") == null)
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+
+        ModelServer server = start(Paths.get(args[0]), new InetSocketAddress(Integer.parseInt(args[1])),
+                args.length > 2 ? Integer.parseInt(args[2]) : 32,
+                args.length > 3 ? Long.parseLong(args[3]) : 500, TimeUnit.MICROSECONDS);
+
+        System.out.println("Serving " + args[0] + " on " + server.getAddress());
+    }
+
+
+    /**
+     * loads the network from the file again
+     * @return the version of the model, counting from 1
+     */
+    public int reload() throws IOException {
+        return reload(path);
+    }
+
+
+    /**
+     * loads a network from another file, which is then used by later reloads
+     * @return the version of the model, counting from 1
+     */
+    public int reload(Path path) throws IOException {
+        synchronized (model) {
+            Model next = load(path, model.get().version + 1);
+            Model previous = model.getAndSet(next);
+            this.path = path;
+
+            previous.retire();
+            return next.version;
+        }
+    }
+
+
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+
+
+    /**
+     * stops accepting requests, waits up to a second for the ones in flight and
+     * closes the engine
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+        model.get().retire();
+    }
+
+
+    private Model load(Path path, int version) throws IOException {
+        NeuralNetwork network = Checkpoint.read(path);
+
+        return new Model(new InferenceEngine(network, maxBatch, maxDelay, TimeUnit.NANOSECONDS), network.getEncoder(), version);
+    }
+
+
+    /**
+     * virtual threads when the jdk has them, looked up by reflection so the library
+     * still runs on older jdks
+     */
+    private static ExecutorService threadPerRequest() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "model-server");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+
+    private void predict(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "Use POST\n");
+            return;
+        }
+
+        long start = System.nanoTime();
+        requests.increment();
+        inFlight.incrementAndGet();
+        Model current = acquire();
+
+        try {
+            String[] lines = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8).trim().split("\\R");
+            NDArray input = current.parse(lines);
+
+            StringBuilder response = new StringBuilder();
+            if (input.shape(0) == 1) {
+                CompletableFuture<double[]> output = current.engine.submit(input.data()[0]);
+                append(response, output.join());
+            } else {
+                double[][] output = current.engine.predict(input).data();
+                for (double[] row : output)
+                    append(response, row);
+            }
+
+            rows.add(input.shape(0));
+            respond(exchange, 200, response.toString());
+            latency.record(System.nanoTime() - start);
+        } catch (IllegalArgumentException e) {
+            errors.increment();
+            respond(exchange, 400, e.getMessage() + "\n");
+        } catch (RuntimeException e) {
+            errors.increment();
+            respond(exchange, 500, e + "\n");
+        } finally {
+            current.release();
+            inFlight.decrementAndGet();
+        }
+    }
+
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        double seconds = (System.nanoTime() - started) / 1e9;
+
+        String response = "model_version " + model.get().version + "\n"
+                + "requests " + requests.sum() + "\n"
+                + "rows " + rows.sum() + "\n"
+                + "errors " + errors.sum() + "\n"
+                + "in_flight " + inFlight.get() + "\n"
+                + "requests_per_second " + String.format("%.1f", requests.sum() / seconds) + "\n"
+                + "rows_per_second " + String.format("%.1f", rows.sum() / seconds) + "\n"
+                + "latency_p50_us " + latency.percentile(0.5) / 1000 + "\n"
+                + "latency_p99_us " + latency.percentile(0.99) / 1000 + "\n"
+                + "latency_max_us " + latency.max() / 1000 + "\n";
+
+        respond(exchange, 200, response);
+    }
+
+
+    private void reload(HttpExchange exchange) throws IOException {
+        if (!exchange.getRequestMethod().equals("POST")) {
+            respond(exchange, 405, "Use POST\n");
+            return;
+        }
+
+        if (exchange.getRequestBody().read() >= 0) {
+            respond(exchange, 400, "Reload takes no body, the model is read from the file of the server\n");
+            return;
+        }
+
+        try {
+            int version = reload();
+            respond(exchange, 200, "model_version " + version + "\n");
+        } catch (IOException | RuntimeException e) {
+            // the previous model keeps serving
+            respond(exchange, 500, e.getMessage() + "\n");
+        }
+    }
+
+
+    /**
+     * the current model, which is not closed before release is called
+     */
+    private Model acquire() {
+        while (true) {
+            Model current = model.get();
+            current.users.incrementAndGet();
+
+            // a reload may have retired the model before it was counted
+            if (model.get() == current)
+                return current;
+
+            current.release();
+        }
+    }
+
+
+    private static void append(StringBuilder response, double[] row) {
+        for (int j = 0; j < row.length; j++)
+            response.append(j == 0 ? "" : ",").append(row[j]);
+
+        response.append('\n');
+    }
+
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+
+    /**
+     * a loaded network with the requests that use it
+     */
+    private static final class Model {
+
+        private final InferenceEngine engine;
+        private final CategoricalEncoder encoder;
+        private final int version;
+        private final AtomicInteger users = new AtomicInteger();
+        private volatile boolean retired;
+
+        Model(InferenceEngine engine, CategoricalEncoder encoder, int version) {
+            this.engine = engine;
+            this.encoder = encoder;
+            this.version = version;
+        }
+
+        /**
+         * parses the rows of a request into the inputs of the network
+         */
+        NDArray parse(String[] lines) {
+            if (lines.length > 0 && lines[0].isEmpty())
+                throw new IllegalArgumentException("Request has no rows");
+
+            double[][] values = new double[lines.length][];
+            for (int i = 0; i < lines.length; i++) {
+                String[] fields = lines[i].split(",");
+                if (i > 0 && fields.length != values[0].length)
+                    throw new IllegalArgumentException("Row " + i + " has " + fields.length + " values, row 0 has " + values[0].length);
+
+                values[i] = new double[fields.length];
+                for (int j = 0; j < fields.length; j++) {
+                    String field = fields[j].trim();
+
+                    if (encoder != null && encoder.isCategorical(j))
+                        values[i][j] = encoder.code(j, field);
+                    else
+                        values[i][j] = parseDouble(field, i, j);
+                }
+            }
+
+            NDArray input = new NDArray(values);
+            return encoder != null ? encoder.encode(input) : input;
+        }
+
+        private static double parseDouble(String field, int row, int column) {
+            try {
+                return Double.parseDouble(field);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Value '" + field + "' in row " + row + ", column " + column + " is not a number");
+            }
+        }
+
+        void release() {
+            if (users.decrementAndGet() == 0 && retired)
+                engine.close();
+        }
+
+        /**
+         * closes the engine once the last request using it is done
+         */
+        void retire() {
+            retired = true;
+            if (users.get() == 0)
+                engine.close();
+        }
+    }
+
+
+    /**
+     * a histogram of latencies, with 4 buckets per power of two (at most 19% apart)
+     */
+    private static final class Latency {
+
+        private static final int SUB_BUCKETS = 4;
+
+        private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+        private final AtomicLongArray max = new AtomicLongArray(1);
+
+        void record(long nanos) {
+            counts.incrementAndGet(bucket(Math.max(nanos, 1)));
+            max.accumulateAndGet(0, nanos, Math::max);
+        }
+
+        /**
+         * @return the upper bound in nanoseconds of the bucket the percentile falls in
+         */
+        long percentile(double percentile) {
+            long total = 0;
+            for (int i = 0; i < counts.length(); i++)
+                total += counts.get(i);
+
+            long rank = (long) Math.ceil(percentile * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length(); i++) {
+                seen += counts.get(i);
+                if (seen >= rank && seen > 0)
+                    return Math.min(upperBound(i), max());
+            }
+
+            return 0;
+        }
+
+        long max() {
+            return max.get(0);
+        }
+
+        private static int bucket(long value) {
+            int power = 63 - Long.numberOfLeadingZeros(value);
+            int sub = power < 2 ? 0 : (int) (value >>> (power - 2)) & (SUB_BUCKETS - 1);
+
+            return power * SUB_BUCKETS + sub;
+        }
+
+        private static long upperBound(int bucket) {
+            int power = bucket / SUB_BUCKETS;
+            int sub = bucket % SUB_BUCKETS;
+
+            if (power < 2)
+                return (2L << power) - 1;
+
+            return (1L << power) + ((long) (sub + 1) << (power - 2)) - 1;
+        }
+    }
+}
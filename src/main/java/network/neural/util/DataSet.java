@@ -1,5 +1,6 @@
 package network.neural.util;
 
+import network.neural.util.matrix.DType;
 import network.neural.util.matrix.NDArray;
 
 public class DataSet {
@@ -28,41 +29,95 @@ public class DataSet {
         this.y = y;
     }
 
+    /**
+     * @return this dataset if x and y already have the given precision, otherwise a converted copy
+     */
+    public DataSet asType(DType dtype) {
+        if (x.dtype() == dtype && y.dtype() == dtype)
+            return this;
+
+        return new DataSet(x.asType(dtype), y.asType(dtype));
+    }
+
 
     /**
      * separates the data into a feature set and a label set
      */
     public static DataSet split(NDArray data, int labelSize) {
-        data = data.removeRow(0); // remove column names
+        int cols = data.shape(1);
+        int[] labelColumns = new int[labelSize];
+
+        for (int i = 0; i < labelSize; i++)
+            labelColumns[i] = cols - labelSize + i;
+
+        return split(data.getRows(1, data.shape(0)), labelColumns, false); // without the column names
+    }
 
-        NDArray labels = data.getColumn(data.shape()[1] - 1);
-        data = data.removeColumn(data.shape()[1] - 1);
 
-        for (int i = 1; i < labelSize; i++) {
-            labels = data.getColumn(data.shape()[1] - 1).concat(labels, 1);
-            data = (data.removeColumn(data.shape()[1]-1));
+    /**
+     * separates the data into a feature set and a label set. the labels are the given
+     * columns in the given order, the features are the other columns in their order.
+     *
+     * @param labelColumns the indices of the label columns
+     * @param view if true and the label columns are a range at the start or the end of
+     *             the rows, x and y are views sharing the data of the given NDArray.
+     *             otherwise both are copied, reading every value once.
+     */
+    public static DataSet split(NDArray data, int[] labelColumns, boolean view) {
+        int cols = data.shape(1);
+        boolean[] isLabel = new boolean[cols];
+
+        for (int c : labelColumns) {
+            if (c < 0 || c >= cols)
+                throw new IllegalArgumentException("Label column " + c + " out of range for " + cols + " columns");
+            if (isLabel[c])
+                throw new IllegalArgumentException("Label column " + c + " is given twice");
+            isLabel[c] = true;
         }
 
-        return new DataSet(data, labels);
+        if (labelColumns.length == 0 || labelColumns.length == cols)
+            throw new IllegalArgumentException("Need at least one label and one feature column, got " + labelColumns.length + " labels of " + cols + " columns");
+
+        int first = labelColumns[0];
+        int last = labelColumns[labelColumns.length - 1];
+        boolean range = last - first == labelColumns.length - 1;
+        for (int i = 1; i < labelColumns.length; i++)
+            range &= labelColumns[i] == labelColumns[i - 1] + 1;
+
+        if (view && range && first == 0)
+            return new DataSet(data.getColumns(last + 1, cols), data.getColumns(0, last + 1));
+        if (view && range && last == cols - 1)
+            return new DataSet(data.getColumns(0, first), data.getColumns(first, cols));
+
+        int[] featureColumns = new int[cols - labelColumns.length];
+        for (int c = 0, n = 0; c < cols; c++)
+            if (!isLabel[c])
+                featureColumns[n++] = c;
+
+        return new DataSet(data.selectColumns(featureColumns), data.selectColumns(labelColumns));
     }
 
 
     /**
-     * separate the data into mini-batches
+     * separate the data into mini-batches. the batches are views of consecutive rows
+     * of the dataset, no data is copied. when the number of rows is not a multiple of
+     * the batch size, the last batch holds the remaining rows.
      */
     public static DataSet[] batch(DataSet dataSet, int batchSize) {
-        int totalBatches = dataSet.getX().shape()[0] / batchSize;
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be at least 1");
+
+        NDArray x = dataSet.getX().contiguous();
+        NDArray y = dataSet.getY().contiguous();
+        int rows = x.shape(0);
+        int totalBatches = (rows + batchSize - 1) / batchSize;
         DataSet[] batches = new DataSet[totalBatches];
 
         for (int i = 0; i < totalBatches; i++) {
-            NDArray xBatch = dataSet.getX().getRow(i * batchSize);
-            NDArray yBatch = dataSet.getY().getRow(i * batchSize);
-
-            batches[i] = new DataSet(xBatch, yBatch);
-            for (int j = 1; j < batchSize; j++) {
-                batches[i].setX(batches[i].getX().concat(dataSet.getX().getRow(i * batchSize + j), 0));
-                batches[i].setY(batches[i].getY().concat(dataSet.getY().getRow(i * batchSize + j), 0));
-            }
+            int start = i * batchSize;
+            int end = Math.min(start + batchSize, rows);
+
+            batches[i] = new DataSet(x.getRows(start, end), y.getRows(start, end));
         }
 
         return batches;
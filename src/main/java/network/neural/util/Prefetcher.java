@@ -0,0 +1,172 @@
+package network.neural.util;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * prepares the batches of a sampler on background threads while the previous
+ * batches are being trained on.
+ *
+ * the batches are gathered into a ring of buffers, one slot per batch that can be
+ * ready ahead of the training thread. batch i always uses slot i % depth, so the
+ * batches come out in the same order as from the sampler itself, no matter which
+ * worker finished first. a slot is refilled only after the training thread has
+ * released the batch in it.
+ *
+ * the batches of an epoch are only prepared once the epoch is started, because the
+ * order of the rows is drawn at the start of an epoch.
+ */
+public class Prefetcher implements AutoCloseable {
+
+    private final Sampler sampler;
+    private final DataSet[] full;      // buffer of each slot
+    private final DataSet[] last;      // the rows of each buffer the last batch fills
+    private final Semaphore[] ready;   // a permit when the batch in a slot is gathered
+    private final int[] turn;          // the batch that may fill each slot next, guarded by itself
+    private final Semaphore work;      // a permit for each batch that is not claimed yet
+    private final Thread[] workers;
+
+    private int next;                  // next batch to claim, guarded by this
+    private int batches;               // batches in the current epoch
+    private long stallTime;            // nanoseconds the training thread waited in take()
+    private volatile Throwable failure;
+
+    /**
+     * @param sampler a sampler that is bound to the training set
+     * @param depth the number of batches that can be ready ahead of training, at least 1
+     * @param threads the number of worker threads, at least 1
+     */
+    public Prefetcher(Sampler sampler, int depth, int threads) {
+        if (depth < 1)
+            throw new IllegalArgumentException("Prefetch depth must be at least 1");
+        if (threads < 1)
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+
+        this.sampler = sampler;
+        this.full = new DataSet[depth];
+        this.last = new DataSet[depth];
+        this.ready = new Semaphore[depth];
+        this.turn = new int[depth];
+        this.work = new Semaphore(0);
+
+        for (int slot = 0; slot < depth; slot++) {
+            full[slot] = sampler.newBuffer();
+            last[slot] = sampler.lastRows(full[slot]);
+            ready[slot] = new Semaphore(0);
+        }
+
+        workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Thread(this::run, "prefetch-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+
+    /**
+     * draws the order of the next epoch and starts preparing its batches.
+     * every batch of the previous epoch must have been released.
+     */
+    public void startEpoch() {
+        sampler.nextEpoch();
+
+        synchronized (this) {
+            next = 0;
+            batches = sampler.batches();
+        }
+        synchronized (turn) {
+            for (int slot = 0; slot < turn.length; slot++)
+                turn[slot] = slot;
+        }
+        work.release(batches);
+    }
+
+
+    /**
+     * @return the number of batches in an epoch
+     */
+    public int batches() {
+        return sampler.batches();
+    }
+
+
+    /**
+     * waits until the batch at the given index of the current epoch is ready.
+     * the batches must be taken in order, and the batch stays valid until release.
+     */
+    public DataSet take(int index) {
+        int slot = index % full.length;
+        long start = System.nanoTime();
+
+        ready[slot].acquireUninterruptibly();
+        stallTime += System.nanoTime() - start;
+
+        if (failure != null)
+            throw new IllegalStateException("Preparing batch failed", failure);
+
+        return index == batches - 1 ? last[slot] : full[slot];
+    }
+
+
+    /**
+     * hands the buffer of the batch at the given index back to the workers
+     */
+    public void release(int index) {
+        synchronized (turn) {
+            turn[index % full.length] = index + full.length;
+            turn.notifyAll();
+        }
+    }
+
+
+    /**
+     * @return the total time in nanoseconds the training thread had to wait for a batch
+     */
+    public long getStallTime() {
+        return stallTime;
+    }
+
+
+    @Override
+    public void close() {
+        for (Thread worker : workers)
+            worker.interrupt();
+    }
+
+
+    private void run() {
+        try {
+            while (true) {
+                work.acquire();
+
+                int index;
+                int batches;
+                int slot;
+
+                synchronized (this) {
+                    index = next++;
+                    batches = this.batches;
+                    slot = index % full.length;
+                }
+
+                // a slot is filled in the order of its batches: batch index waits until
+                // the batch depth before it was released, not just until the slot is free
+                synchronized (turn) {
+                    while (turn[slot] != index)
+                        turn.wait();
+                }
+
+                try {
+                    sampler.batch(index, index == batches - 1 ? last[slot] : full[slot]);
+                } catch (Throwable e) {
+                    // also errors, so take() fails instead of waiting for the batch forever
+                    failure = e;
+                } finally {
+                    ready[slot].release();
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+}
@@ -0,0 +1,329 @@
+package network.neural.util;
+
+import network.neural.util.matrix.NDArray;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * decides which rows of a dataset go into each mini-batch of an epoch.
+ *
+ * sequential sampling hands out views of consecutive rows, the same batches every epoch.
+ * the other modes draw a new order of the row indices at the start of every epoch,
+ * using a random number generator seeded with the given seed, and copy the rows of
+ * each batch into a batch buffer that is reused for every batch.
+ * the dataset itself is never copied or reordered.
+ */
+public class Sampler implements Serializable {
+
+    private enum Mode { SEQUENTIAL, SHUFFLE, STRATIFIED, WEIGHTED }
+
+    private final Mode mode;
+    private final long seed;
+    private final double[] weights;
+
+    // state for the dataset the sampler is bound to, see bind().
+    private transient NDArray x;
+    private transient NDArray y;
+    private transient int rows;
+    private transient int batchSize;
+    private transient Random random;
+    private transient int[] order;          // row indices in the order of the current epoch
+    private transient DataSet[] views;      // the batches of sequential sampling
+    private transient DataSet fullBatch;    // buffer for a batch of batchSize rows
+    private transient DataSet lastBatch;    // buffer for a smaller last batch, views of fullBatch
+
+    private transient int[] strata;         // row indices grouped by stratum
+    private transient int[] strataEnd;      // end of each stratum in strata
+    private transient int[] positions;      // position in the epoch of each entry of strata
+    private transient int[] counts;         // rows per position, for the counting sort
+    private transient double[] cumulative;  // running sum of the weights
+
+    private Sampler(Mode mode, long seed, double[] weights) {
+        this.mode = mode;
+        this.seed = seed;
+        this.weights = weights;
+    }
+
+
+    /**
+     * batches of consecutive rows, in the same order every epoch
+     */
+    public static Sampler sequential() {
+        return new Sampler(Mode.SEQUENTIAL, 0, null);
+    }
+
+
+    /**
+     * every row once per epoch, in a new random order every epoch
+     */
+    public static Sampler shuffle(long seed) {
+        return new Sampler(Mode.SHUFFLE, seed, null);
+    }
+
+
+    /**
+     * every row once per epoch, in a random order in which each stratum is spread
+     * evenly over the epoch, so every batch holds about the same share of each stratum
+     * as the whole dataset. the stratum of a row is its label, or the index of the
+     * largest value for labels with more than one column (one-hot labels).
+     */
+    public static Sampler stratified(long seed) {
+        return new Sampler(Mode.STRATIFIED, seed, null);
+    }
+
+
+    /**
+     * as many rows per epoch as the dataset has, drawn with replacement. the chance
+     * of a row being drawn is its weight divided by the sum of all weights.
+     *
+     * @param weights one non-negative weight per row of the dataset
+     */
+    public static Sampler weighted(double[] weights, long seed) {
+        for (double weight : weights)
+            if (weight < 0 || Double.isNaN(weight))
+                throw new IllegalArgumentException("Weights must be non-negative, got " + weight);
+
+        return new Sampler(Mode.WEIGHTED, seed, Arrays.copyOf(weights, weights.length));
+    }
+
+
+    /**
+     * prepares the sampler for a dataset. the random number generator is reset to
+     * the seed, so binding the same dataset again repeats the same epochs.
+     */
+    public void bind(DataSet dataSet, int batchSize) {
+        if (batchSize < 1)
+            throw new IllegalArgumentException("Batch size must be at least 1");
+
+        this.x = dataSet.getX().contiguous();
+        this.y = dataSet.getY().contiguous();
+        this.rows = x.shape(0);
+        this.batchSize = batchSize;
+        this.random = new Random(seed);
+
+        if (y.shape(0) != rows)
+            throw new IllegalArgumentException("Incompatible shapes " + Arrays.toString(x.shape()) + " and " + Arrays.toString(y.shape()));
+
+        order = new int[rows];
+        for (int i = 0; i < rows; i++)
+            order[i] = i;
+
+        if (mode == Mode.SEQUENTIAL) {
+            views = DataSet.batch(new DataSet(x, y), batchSize);
+            return;
+        }
+
+        fullBatch = newBuffer();
+        lastBatch = lastRows(fullBatch);
+
+        if (mode == Mode.STRATIFIED)
+            bindStrata();
+        if (mode == Mode.WEIGHTED)
+            bindWeights();
+    }
+
+
+    /**
+     * @return a buffer for a full batch, with the columns and dtype of the bound dataset
+     */
+    public DataSet newBuffer() {
+        int size = Math.min(batchSize, rows);
+        return new DataSet(NDArray.zeros(x.dtype(), size, x.shape(1)), NDArray.zeros(y.dtype(), size, y.shape(1)));
+    }
+
+
+    /**
+     * @return a view of the rows of buffer that the last batch of an epoch fills,
+     *         the buffer itself if the last batch is a full batch
+     */
+    public DataSet lastRows(DataSet buffer) {
+        int remainder = rows - (batches() - 1) * batchSize;
+        if (remainder == buffer.getX().shape(0))
+            return buffer;
+
+        return new DataSet(buffer.getX().getRows(0, remainder), buffer.getY().getRows(0, remainder));
+    }
+
+
+    /**
+     * @return the number of batches in an epoch
+     */
+    public int batches() {
+        return (rows + batchSize - 1) / batchSize;
+    }
+
+
+    /**
+     * draws the order of the rows for the next epoch
+     */
+    public void nextEpoch() {
+        switch (mode) {
+            case SHUFFLE:
+                shuffle(order, 0, rows);
+                break;
+            case STRATIFIED:
+                stratify();
+                break;
+            case WEIGHTED:
+                draw();
+                break;
+            default:
+                break;
+        }
+    }
+
+
+    /**
+     * the batch at the given index of the current epoch. except for sequential
+     * sampling, the returned batch is overwritten by the next call.
+     */
+    public DataSet batch(int index) {
+        if (mode == Mode.SEQUENTIAL)
+            return views[index];
+
+        return batch(index, index == batches() - 1 ? lastBatch : fullBatch);
+    }
+
+
+    /**
+     * copies the rows of the batch at the given index of the current epoch into out.
+     * several threads can fill different buffers at the same time, but not while
+     * nextEpoch is running.
+     *
+     * @param out a buffer from newBuffer(), or lastRows() of one for the last batch
+     * @return out
+     */
+    public DataSet batch(int index, DataSet out) {
+        int start = index * batchSize;
+
+        x.gatherRows(order, start, out.getX());
+        y.gatherRows(order, start, out.getY());
+
+        return out;
+    }
+
+
+    /**
+     * Fisher-Yates shuffle of a range of indices
+     */
+    private void shuffle(int[] indices, int from, int to) {
+        for (int i = to - 1; i > from; i--) {
+            int j = from + random.nextInt(i - from + 1);
+            int swap = indices[i];
+            indices[i] = indices[j];
+            indices[j] = swap;
+        }
+    }
+
+
+    /**
+     * groups the row indices by stratum
+     */
+    private void bindStrata() {
+        Map<Double, List<Integer>> groups = new LinkedHashMap<>();
+
+        for (int i = 0; i < rows; i++)
+            groups.computeIfAbsent(stratum(i), key -> new ArrayList<>()).add(i);
+
+        strata = new int[rows];
+        strataEnd = new int[groups.size()];
+        positions = new int[rows];
+        counts = new int[rows + 1];
+
+        int n = 0;
+        int s = 0;
+        for (List<Integer> group : groups.values()) {
+            for (int row : group)
+                strata[n++] = row;
+            strataEnd[s++] = n;
+        }
+    }
+
+
+    private double stratum(int row) {
+        int cols = y.shape(1);
+        if (cols == 1)
+            return y.get(row, 0);
+
+        int max = 0;
+        for (int j = 1; j < cols; j++)
+            if (y.get(row, j) > y.get(row, max))
+                max = j;
+
+        return max;
+    }
+
+
+    /**
+     * shuffles each stratum, then spreads its rows evenly over the epoch: row j of a
+     * stratum of size n goes to position (j + u) * rows / n, with u a random offset
+     * per stratum. the rows are put in position order with a counting sort.
+     */
+    private void stratify() {
+        Arrays.fill(counts, 0);
+
+        int start = 0;
+        for (int end : strataEnd) {
+            int size = end - start;
+            double offset = random.nextDouble();
+            shuffle(strata, start, end);
+
+            for (int j = 0; j < size; j++) {
+                int position = (int) ((j + offset) * rows / size);
+                positions[start + j] = position;
+                counts[position + 1]++;
+            }
+            start = end;
+        }
+
+        for (int p = 1; p <= rows; p++)
+            counts[p] += counts[p - 1];
+
+        for (int i = 0; i < rows; i++)
+            order[counts[positions[i]]++] = strata[i];
+    }
+
+
+    private void bindWeights() {
+        if (weights.length != rows)
+            throw new IllegalArgumentException("Expected " + rows + " weights, got " + weights.length);
+
+        cumulative = new double[rows];
+        double sum = 0;
+        for (int i = 0; i < rows; i++)
+            cumulative[i] = sum += weights[i];
+
+        if (sum <= 0)
+            throw new IllegalArgumentException("At least one weight must be positive");
+    }
+
+
+    /**
+     * draws the rows of the epoch with replacement, by a binary search for a
+     * uniform value in the running sum of the weights
+     */
+    private void draw() {
+        double total = cumulative[rows - 1];
+
+        for (int i = 0; i < rows; i++) {
+            double value = random.nextDouble() * total;
+            int low = 0;
+            int high = rows - 1;
+
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (cumulative[mid] <= value)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            order[i] = low;
+        }
+    }
+}
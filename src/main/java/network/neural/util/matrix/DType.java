@@ -0,0 +1,13 @@
+package network.neural.util.matrix;
+
+/**
+ * precision of the values in an NDArray.
+ */
+public enum DType {
+
+    /** 64 bit double precision, the default */
+    FLOAT64,
+
+    /** 32 bit single precision, half the memory and bandwidth of FLOAT64 */
+    FLOAT32
+}
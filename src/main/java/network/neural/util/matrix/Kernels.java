@@ -0,0 +1,76 @@
+package network.neural.util.matrix;
+
+/**
+ * Element-wise loops over contiguous ranges of flat buffers.
+ *
+ * There is a scalar implementation and one built on the JDK Vector API. The vector
+ * version is used when the jdk.incubator.vector module is present at runtime
+ * (and the system property network.neural.simd is not set to false).
+ */
+interface Kernels {
+
+    Kernels INSTANCE = Loader.load();
+
+    /** out = a + b */
+    void add(double[] a, int aOff, double[] b, int bOff, double[] out, int outOff, int length);
+
+    /** out = a - b */
+    void sub(double[] a, int aOff, double[] b, int bOff, double[] out, int outOff, int length);
+
+    /** out = a * b */
+    void mul(double[] a, int aOff, double[] b, int bOff, double[] out, int outOff, int length);
+
+    /** out = a * scalar */
+    void scale(double[] a, int aOff, double scalar, double[] out, int outOff, int length);
+
+    /** out = a + scalar */
+    void addScalar(double[] a, int aOff, double scalar, double[] out, int outOff, int length);
+
+    /** out = a ^ power */
+    void pow(double[] a, int aOff, int power, double[] out, int outOff, int length);
+
+    /** sum of a */
+    double sum(double[] a, int aOff, int length);
+
+    // single precision versions of the loops above
+
+    void add(float[] a, int aOff, float[] b, int bOff, float[] out, int outOff, int length);
+
+    void sub(float[] a, int aOff, float[] b, int bOff, float[] out, int outOff, int length);
+
+    void mul(float[] a, int aOff, float[] b, int bOff, float[] out, int outOff, int length);
+
+    void scale(float[] a, int aOff, float scalar, float[] out, int outOff, int length);
+
+    void addScalar(float[] a, int aOff, float scalar, float[] out, int outOff, int length);
+
+    void pow(float[] a, int aOff, int power, float[] out, int outOff, int length);
+
+    /** sum of a, accumulated in double precision */
+    double sum(float[] a, int aOff, int length);
+
+
+    final class Loader {
+
+        private static final String VECTOR_MODULE = "jdk.incubator.vector";
+
+        private Loader() {}
+
+        static Kernels load() {
+            if (!Boolean.parseBoolean(System.getProperty("network.neural.simd", "true")))
+                return new ScalarKernels();
+
+            if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty())
+                return new ScalarKernels();
+
+            try {
+                // loaded by name, so the class is never touched when the module is missing
+                return (Kernels) Class.forName("network.neural.util.matrix.VectorKernels")
+                        .getDeclaredConstructor()
+                        .newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                return new ScalarKernels();
+            }
+        }
+    }
+}
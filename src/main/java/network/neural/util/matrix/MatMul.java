@@ -0,0 +1,680 @@
+package network.neural.util.matrix;
+
+import network.neural.activationfunctions.IActivationFunction;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Matrix multiplication kernels working on flat, strided buffers.
+ *
+ * Large products are computed with a blocked algorithm: blocks of A and B are
+ * packed into contiguous panels that fit in the L1/L2 cache, and a 4x4 micro kernel
+ * keeps its part of C in registers while it walks over the shared dimension.
+ * Small products skip the packing and use a plain i-k-j loop.
+ * Products above the parallel threshold are split into tiles of C that are
+ * computed on a fork/join pool.
+ *
+ * An optional epilogue is run on every block of C as soon as it is complete,
+ * while the block is still in cache.
+ *
+ * Single precision (float[]) products go through the same kernels: blocks are
+ * packed into the double panels and accumulated in double precision, every value
+ * of C is rounded to float once, after the whole shared dimension.
+ */
+final class MatMul {
+
+    /** products with fewer multiply-adds than this use the simple kernel. */
+    static final long SMALL_THRESHOLD = 48 * 48 * 48;
+
+    private static final int MR = 4;   // rows of C held in registers by the micro kernel
+    private static final int NR = 4;   // columns of C held in registers by the micro kernel
+    private static final int MC = 64;  // rows of A packed per block (L2)
+    private static final int KC = 256; // depth of a packed block (L1 panel of B)
+    private static final int NC = 512; // columns of B packed per block (L2/L3)
+
+    /** the pool and threshold of products that are not given their own, see NDArray.setThreadPool. */
+    static volatile Parallelism global = Parallelism.SERIAL;
+
+    private static final ThreadLocal<double[]> PACKED_A = ThreadLocal.withInitial(() -> new double[MC * KC]);
+    private static final ThreadLocal<double[]> PACKED_B = ThreadLocal.withInitial(() -> new double[KC * NC]);
+    private static final ThreadLocal<Epilogue> EPILOGUE = ThreadLocal.withInitial(Epilogue::new);
+    private static final ThreadLocal<double[]> ROW = ThreadLocal.withInitial(() -> new double[NC]);
+    private static final ThreadLocal<double[]> TILE = ThreadLocal.withInitial(() -> new double[MC * NC]);
+
+    private MatMul() {}
+
+
+    /**
+     * C += A dot B, running the epilogue on each finished block of C
+     *
+     * @param m rows of A and C
+     * @param n columns of B and C
+     * @param k columns of A, rows of B
+     * @param epilogue may be null
+     * @param parallelism the pool large products are split over
+     */
+    static void gemm(int m, int n, int k,
+                     double[] a, int aOff, int aRs, int aCs,
+                     double[] b, int bOff, int bRs, int bCs,
+                     double[] c, int cOff, int ldc, Epilogue epilogue, Parallelism parallelism) {
+
+        if (parallelism.splits((long) m * n * k))
+            parallelism.getPool().invoke(new Tile(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, ldc, 0, epilogue, parallelism.getThreshold()));
+        else
+            serial(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, ldc, 0, epilogue);
+    }
+
+
+    /**
+     * C += A dot B in single precision, accumulated in double precision
+     */
+    static void gemm(int m, int n, int k,
+                     float[] a, int aOff, int aRs, int aCs,
+                     float[] b, int bOff, int bRs, int bCs,
+                     float[] c, int cOff, int ldc, Epilogue epilogue, Parallelism parallelism) {
+
+        if (parallelism.splits((long) m * n * k))
+            parallelism.getPool().invoke(new Tile(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, ldc, 0, epilogue, parallelism.getThreshold()));
+        else
+            serial(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, ldc, 0, epilogue);
+    }
+
+
+    /**
+     * @return the epilogue of the calling thread, to be filled in with {@link Epilogue#set}
+     */
+    static Epilogue epilogue() {
+        return EPILOGUE.get();
+    }
+
+
+    /**
+     * @param col the column of the full C that column 0 of this (sub) product is
+     */
+    private static void serial(int m, int n, int k,
+                               double[] a, int aOff, int aRs, int aCs,
+                               double[] b, int bOff, int bRs, int bCs,
+                               double[] c, int cOff, int ldc, int col, Epilogue epilogue) {
+
+        if ((long) m * n * k < SMALL_THRESHOLD)
+            simple(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, ldc, col, epilogue);
+        else
+            blocked(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, ldc, col, epilogue);
+    }
+
+
+    /**
+     * i-k-j loop, the inner loop runs along a row of B and a row of C.
+     * when B is read transposed, an i-j-k loop is used instead so the inner
+     * loop runs along a row of A and a column of B, which are both contiguous.
+     */
+    private static void simple(int m, int n, int k,
+                               double[] a, int aOff, int aRs, int aCs,
+                               double[] b, int bOff, int bRs, int bCs,
+                               double[] c, int cOff, int ldc, int col, Epilogue epilogue) {
+
+        if (bCs != 1 && bRs == 1 && aCs == 1) {
+            for (int i = 0; i < m; i++) {
+                int aRow = aOff + i * aRs;
+                int cRow = cOff + i * ldc;
+                for (int j = 0; j < n; j++) {
+                    int bCol = bOff + j * bCs;
+                    double sum = 0;
+                    for (int p = 0; p < k; p++)
+                        sum += a[aRow + p] * b[bCol + p];
+                    c[cRow + j] += sum;
+                }
+
+                if (epilogue != null)
+                    epilogue.apply(c, cRow, ldc, 1, n, col);
+            }
+            return;
+        }
+
+        for (int i = 0; i < m; i++) {
+            int cRow = cOff + i * ldc;
+            for (int p = 0; p < k; p++) {
+                double aValue = a[aOff + i * aRs + p * aCs];
+                int bRow = bOff + p * bRs;
+
+                if (bCs == 1)
+                    for (int j = 0; j < n; j++)
+                        c[cRow + j] += aValue * b[bRow + j];
+                else
+                    for (int j = 0; j < n; j++)
+                        c[cRow + j] += aValue * b[bRow + j * bCs];
+            }
+
+            if (epilogue != null)
+                epilogue.apply(c, cRow, ldc, 1, n, col);
+        }
+    }
+
+
+    private static void blocked(int m, int n, int k,
+                                double[] a, int aOff, int aRs, int aCs,
+                                double[] b, int bOff, int bRs, int bCs,
+                                double[] c, int cOff, int ldc, int col, Epilogue epilogue) {
+
+        double[] packedA = PACKED_A.get();
+        double[] packedB = PACKED_B.get();
+
+        for (int jc = 0; jc < n; jc += NC) {
+            int nc = Math.min(NC, n - jc);
+
+            for (int pc = 0; pc < k; pc += KC) {
+                int kc = Math.min(KC, k - pc);
+                packB(kc, nc, b, bOff + pc * bRs + jc * bCs, bRs, bCs, packedB);
+
+                for (int ic = 0; ic < m; ic += MC) {
+                    int mc = Math.min(MC, m - ic);
+                    packA(mc, kc, a, aOff + ic * aRs + pc * aCs, aRs, aCs, packedA);
+
+                    macroKernel(mc, nc, kc, packedA, packedB, c, cOff + ic * ldc + jc, ldc);
+
+                    // the last block of the shared dimension finishes this block of C
+                    if (epilogue != null && pc + kc == k)
+                        epilogue.apply(c, cOff + ic * ldc + jc, ldc, mc, nc, col + jc);
+                }
+            }
+        }
+    }
+
+
+    private static void serial(int m, int n, int k,
+                               float[] a, int aOff, int aRs, int aCs,
+                               float[] b, int bOff, int bRs, int bCs,
+                               float[] c, int cOff, int ldc, int col, Epilogue epilogue) {
+
+        if ((long) m * n * k < SMALL_THRESHOLD)
+            simple(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, ldc, col, epilogue);
+        else
+            blocked(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, ldc, col, epilogue);
+    }
+
+
+    /**
+     * single precision version of the simple kernel, each row of C is
+     * accumulated in a double row buffer before it is stored.
+     */
+    private static void simple(int m, int n, int k,
+                               float[] a, int aOff, int aRs, int aCs,
+                               float[] b, int bOff, int bRs, int bCs,
+                               float[] c, int cOff, int ldc, int col, Epilogue epilogue) {
+
+        if (bCs != 1 && bRs == 1 && aCs == 1) {
+            for (int i = 0; i < m; i++) {
+                int aRow = aOff + i * aRs;
+                int cRow = cOff + i * ldc;
+                for (int j = 0; j < n; j++) {
+                    int bCol = bOff + j * bCs;
+                    double sum = 0;
+                    for (int p = 0; p < k; p++)
+                        sum += (double) a[aRow + p] * b[bCol + p];
+                    c[cRow + j] += sum;
+                }
+
+                if (epilogue != null)
+                    epilogue.apply(c, cRow, ldc, 1, n, col);
+            }
+            return;
+        }
+
+        double[] row = ROW.get();
+        if (row.length < n)
+            ROW.set(row = new double[n]);
+
+        for (int i = 0; i < m; i++) {
+            int cRow = cOff + i * ldc;
+            for (int j = 0; j < n; j++)
+                row[j] = c[cRow + j];
+
+            for (int p = 0; p < k; p++) {
+                double aValue = a[aOff + i * aRs + p * aCs];
+                int bRow = bOff + p * bRs;
+
+                if (bCs == 1)
+                    for (int j = 0; j < n; j++)
+                        row[j] += aValue * b[bRow + j];
+                else
+                    for (int j = 0; j < n; j++)
+                        row[j] += aValue * b[bRow + j * bCs];
+            }
+
+            for (int j = 0; j < n; j++)
+                c[cRow + j] = (float) row[j];
+
+            if (epilogue != null)
+                epilogue.apply(c, cRow, ldc, 1, n, col);
+        }
+    }
+
+
+    /**
+     * single precision version of the blocked kernel. when the shared dimension takes
+     * several blocks, every block of C is accumulated in a double tile over all of them
+     * and rounded to float once, see deepBlocked.
+     */
+    private static void blocked(int m, int n, int k,
+                                float[] a, int aOff, int aRs, int aCs,
+                                float[] b, int bOff, int bRs, int bCs,
+                                float[] c, int cOff, int ldc, int col, Epilogue epilogue) {
+
+        if (k > KC) {
+            deepBlocked(m, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, ldc, col, epilogue);
+            return;
+        }
+
+        double[] packedA = PACKED_A.get();
+        double[] packedB = PACKED_B.get();
+
+        for (int jc = 0; jc < n; jc += NC) {
+            int nc = Math.min(NC, n - jc);
+
+            for (int pc = 0; pc < k; pc += KC) {
+                int kc = Math.min(KC, k - pc);
+                packB(kc, nc, b, bOff + pc * bRs + jc * bCs, bRs, bCs, packedB);
+
+                for (int ic = 0; ic < m; ic += MC) {
+                    int mc = Math.min(MC, m - ic);
+                    packA(mc, kc, a, aOff + ic * aRs + pc * aCs, aRs, aCs, packedA);
+
+                    macroKernel(mc, nc, kc, packedA, packedB, c, cOff + ic * ldc + jc, ldc);
+
+                    if (epilogue != null && pc + kc == k)
+                        epilogue.apply(c, cOff + ic * ldc + jc, ldc, mc, nc, col + jc);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * the loops of blocked() in the order jc, ic, pc: every MC x NC block of C is
+     * accumulated in a double tile over all blocks of the shared dimension and stored
+     * once it is complete. the tile has a fixed size, whatever the shape of the product,
+     * at the cost of packing every block of B once per row block of C.
+     */
+    private static void deepBlocked(int m, int n, int k,
+                                    float[] a, int aOff, int aRs, int aCs,
+                                    float[] b, int bOff, int bRs, int bCs,
+                                    float[] c, int cOff, int ldc, int col, Epilogue epilogue) {
+
+        double[] packedA = PACKED_A.get();
+        double[] packedB = PACKED_B.get();
+        double[] tile = TILE.get();
+
+        for (int jc = 0; jc < n; jc += NC) {
+            int nc = Math.min(NC, n - jc);
+
+            for (int ic = 0; ic < m; ic += MC) {
+                int mc = Math.min(MC, m - ic);
+                int block = cOff + ic * ldc + jc;
+
+                for (int i = 0; i < mc; i++)
+                    for (int j = 0; j < nc; j++)
+                        tile[i * nc + j] = c[block + i * ldc + j];
+
+                for (int pc = 0; pc < k; pc += KC) {
+                    int kc = Math.min(KC, k - pc);
+                    packB(kc, nc, b, bOff + pc * bRs + jc * bCs, bRs, bCs, packedB);
+                    packA(mc, kc, a, aOff + ic * aRs + pc * aCs, aRs, aCs, packedA);
+
+                    macroKernel(mc, nc, kc, packedA, packedB, tile, 0, nc);
+                }
+
+                for (int i = 0; i < mc; i++)
+                    for (int j = 0; j < nc; j++)
+                        c[block + i * ldc + j] = (float) tile[i * nc + j];
+
+                if (epilogue != null)
+                    epilogue.apply(c, block, ldc, mc, nc, col + jc);
+            }
+        }
+    }
+
+
+    /**
+     * packs an mc x kc block of A into row panels of MR rows, stored column by column.
+     * rows past the end of the block are padded with zeros.
+     */
+    private static void packA(int mc, int kc, double[] a, int off, int rs, int cs, double[] packed) {
+        int dst = 0;
+
+        for (int ir = 0; ir < mc; ir += MR) {
+            int rows = Math.min(MR, mc - ir);
+
+            for (int p = 0; p < kc; p++) {
+                int src = off + ir * rs + p * cs;
+                for (int r = 0; r < MR; r++)
+                    packed[dst++] = r < rows ? a[src + r * rs] : 0;
+            }
+        }
+    }
+
+
+    /**
+     * packs a kc x nc block of B into column panels of NR columns, stored row by row.
+     * columns past the end of the block are padded with zeros.
+     */
+    private static void packB(int kc, int nc, double[] b, int off, int rs, int cs, double[] packed) {
+        int dst = 0;
+
+        for (int jr = 0; jr < nc; jr += NR) {
+            int cols = Math.min(NR, nc - jr);
+
+            for (int p = 0; p < kc; p++) {
+                int src = off + p * rs + jr * cs;
+                for (int q = 0; q < NR; q++)
+                    packed[dst++] = q < cols ? b[src + q * cs] : 0;
+            }
+        }
+    }
+
+
+    private static void packA(int mc, int kc, float[] a, int off, int rs, int cs, double[] packed) {
+        int dst = 0;
+
+        for (int ir = 0; ir < mc; ir += MR) {
+            int rows = Math.min(MR, mc - ir);
+
+            for (int p = 0; p < kc; p++) {
+                int src = off + ir * rs + p * cs;
+                for (int r = 0; r < MR; r++)
+                    packed[dst++] = r < rows ? a[src + r * rs] : 0;
+            }
+        }
+    }
+
+
+    private static void packB(int kc, int nc, float[] b, int off, int rs, int cs, double[] packed) {
+        int dst = 0;
+
+        for (int jr = 0; jr < nc; jr += NR) {
+            int cols = Math.min(NR, nc - jr);
+
+            for (int p = 0; p < kc; p++) {
+                int src = off + p * rs + jr * cs;
+                for (int q = 0; q < NR; q++)
+                    packed[dst++] = q < cols ? b[src + q * cs] : 0;
+            }
+        }
+    }
+
+
+    private static void macroKernel(int mc, int nc, int kc, double[] packedA, double[] packedB,
+                                    double[] c, int cOff, int ldc) {
+
+        for (int jr = 0; jr < nc; jr += NR) {
+            int cols = Math.min(NR, nc - jr);
+            int bPanel = jr * kc;
+
+            for (int ir = 0; ir < mc; ir += MR) {
+                int rows = Math.min(MR, mc - ir);
+                int aPanel = ir * kc;
+
+                if (rows == MR && cols == NR)
+                    microKernel(kc, packedA, aPanel, packedB, bPanel, c, cOff + ir * ldc + jr, ldc);
+                else
+                    edgeKernel(kc, rows, cols, packedA, aPanel, packedB, bPanel, c, cOff + ir * ldc + jr, ldc);
+            }
+        }
+    }
+
+
+    private static void macroKernel(int mc, int nc, int kc, double[] packedA, double[] packedB,
+                                    float[] c, int cOff, int ldc) {
+
+        for (int jr = 0; jr < nc; jr += NR) {
+            int cols = Math.min(NR, nc - jr);
+            int bPanel = jr * kc;
+
+            for (int ir = 0; ir < mc; ir += MR) {
+                int rows = Math.min(MR, mc - ir);
+                int aPanel = ir * kc;
+
+                if (rows == MR && cols == NR)
+                    microKernel(kc, packedA, aPanel, packedB, bPanel, c, cOff + ir * ldc + jr, ldc);
+                else
+                    edgeKernel(kc, rows, cols, packedA, aPanel, packedB, bPanel, c, cOff + ir * ldc + jr, ldc);
+            }
+        }
+    }
+
+
+    /**
+     * computes a full MR x NR tile of C, keeping the tile in local variables.
+     */
+    private static void microKernel(int kc, double[] a, int aIdx, double[] b, int bIdx,
+                                    double[] c, int cIdx, int ldc) {
+
+        double c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        double c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        double c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        double c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+
+        for (int p = 0; p < kc; p++) {
+            double a0 = a[aIdx], a1 = a[aIdx + 1], a2 = a[aIdx + 2], a3 = a[aIdx + 3];
+            double b0 = b[bIdx], b1 = b[bIdx + 1], b2 = b[bIdx + 2], b3 = b[bIdx + 3];
+
+            c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+            c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+            c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+            c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+
+            aIdx += MR;
+            bIdx += NR;
+        }
+
+        c[cIdx] += c00; c[cIdx + 1] += c01; c[cIdx + 2] += c02; c[cIdx + 3] += c03;
+        cIdx += ldc;
+        c[cIdx] += c10; c[cIdx + 1] += c11; c[cIdx + 2] += c12; c[cIdx + 3] += c13;
+        cIdx += ldc;
+        c[cIdx] += c20; c[cIdx + 1] += c21; c[cIdx + 2] += c22; c[cIdx + 3] += c23;
+        cIdx += ldc;
+        c[cIdx] += c30; c[cIdx + 1] += c31; c[cIdx + 2] += c32; c[cIdx + 3] += c33;
+    }
+
+
+    /**
+     * computes a partial tile at the bottom or right edge of C.
+     */
+    private static void edgeKernel(int kc, int rows, int cols, double[] a, int aIdx, double[] b, int bIdx,
+                                   double[] c, int cIdx, int ldc) {
+
+        for (int r = 0; r < rows; r++)
+            for (int q = 0; q < cols; q++) {
+                double sum = 0;
+                for (int p = 0; p < kc; p++)
+                    sum += a[aIdx + p * MR + r] * b[bIdx + p * NR + q];
+                c[cIdx + r * ldc + q] += sum;
+            }
+    }
+
+
+    private static void microKernel(int kc, double[] a, int aIdx, double[] b, int bIdx,
+                                    float[] c, int cIdx, int ldc) {
+
+        double c00 = 0, c01 = 0, c02 = 0, c03 = 0;
+        double c10 = 0, c11 = 0, c12 = 0, c13 = 0;
+        double c20 = 0, c21 = 0, c22 = 0, c23 = 0;
+        double c30 = 0, c31 = 0, c32 = 0, c33 = 0;
+
+        for (int p = 0; p < kc; p++) {
+            double a0 = a[aIdx], a1 = a[aIdx + 1], a2 = a[aIdx + 2], a3 = a[aIdx + 3];
+            double b0 = b[bIdx], b1 = b[bIdx + 1], b2 = b[bIdx + 2], b3 = b[bIdx + 3];
+
+            c00 += a0 * b0; c01 += a0 * b1; c02 += a0 * b2; c03 += a0 * b3;
+            c10 += a1 * b0; c11 += a1 * b1; c12 += a1 * b2; c13 += a1 * b3;
+            c20 += a2 * b0; c21 += a2 * b1; c22 += a2 * b2; c23 += a2 * b3;
+            c30 += a3 * b0; c31 += a3 * b1; c32 += a3 * b2; c33 += a3 * b3;
+
+            aIdx += MR;
+            bIdx += NR;
+        }
+
+        c[cIdx] += c00; c[cIdx + 1] += c01; c[cIdx + 2] += c02; c[cIdx + 3] += c03;
+        cIdx += ldc;
+        c[cIdx] += c10; c[cIdx + 1] += c11; c[cIdx + 2] += c12; c[cIdx + 3] += c13;
+        cIdx += ldc;
+        c[cIdx] += c20; c[cIdx + 1] += c21; c[cIdx + 2] += c22; c[cIdx + 3] += c23;
+        cIdx += ldc;
+        c[cIdx] += c30; c[cIdx + 1] += c31; c[cIdx + 2] += c32; c[cIdx + 3] += c33;
+    }
+
+
+    private static void edgeKernel(int kc, int rows, int cols, double[] a, int aIdx, double[] b, int bIdx,
+                                   float[] c, int cIdx, int ldc) {
+
+        for (int r = 0; r < rows; r++)
+            for (int q = 0; q < cols; q++) {
+                double sum = 0;
+                for (int p = 0; p < kc; p++)
+                    sum += a[aIdx + p * MR + r] * b[bIdx + p * NR + q];
+                c[cIdx + r * ldc + q] += sum;
+            }
+    }
+
+
+    /**
+     * a rectangular tile of C. tiles above the parallel threshold are halved along
+     * their longest side, until each piece is small enough to be computed serially.
+     */
+    private static final class Tile extends RecursiveAction {
+
+        private final int m, n, k;
+        private final Object a, b, c; // all double[] or all float[]
+        private final int aOff, aRs, aCs;
+        private final int bOff, bRs, bCs;
+        private final int cOff, ldc, col;
+        private final Epilogue epilogue;
+        private final long threshold;
+
+        Tile(int m, int n, int k,
+             Object a, int aOff, int aRs, int aCs,
+             Object b, int bOff, int bRs, int bCs,
+             Object c, int cOff, int ldc, int col, Epilogue epilogue, long threshold) {
+            this.m = m; this.n = n; this.k = k;
+            this.a = a; this.aOff = aOff; this.aRs = aRs; this.aCs = aCs;
+            this.b = b; this.bOff = bOff; this.bRs = bRs; this.bCs = bCs;
+            this.c = c; this.cOff = cOff; this.ldc = ldc; this.col = col;
+            this.epilogue = epilogue;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected void compute() {
+            if ((long) m * n * k < threshold || (m <= MR && n <= NR)) {
+                if (c instanceof float[])
+                    serial(m, n, k, (float[]) a, aOff, aRs, aCs, (float[]) b, bOff, bRs, bCs, (float[]) c, cOff, ldc, col, epilogue);
+                else
+                    serial(m, n, k, (double[]) a, aOff, aRs, aCs, (double[]) b, bOff, bRs, bCs, (double[]) c, cOff, ldc, col, epilogue);
+                return;
+            }
+
+            if (m >= n) {
+                int half = split(m, MR);
+                invokeAll(
+                        new Tile(half, n, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, ldc, col, epilogue, threshold),
+                        new Tile(m - half, n, k, a, aOff + half * aRs, aRs, aCs, b, bOff, bRs, bCs, c, cOff + half * ldc, ldc, col, epilogue, threshold));
+            } else {
+                int half = split(n, NR);
+                invokeAll(
+                        new Tile(m, half, k, a, aOff, aRs, aCs, b, bOff, bRs, bCs, c, cOff, ldc, col, epilogue, threshold),
+                        new Tile(m, n - half, k, a, aOff, aRs, aCs, b, bOff + half * bCs, bRs, bCs, c, cOff + half, ldc, col + half, epilogue, threshold));
+            }
+        }
+
+        /**
+         * half of size, rounded up to a whole number of micro kernel tiles
+         */
+        private static int split(int size, int tile) {
+            int half = (size / 2 + tile - 1) / tile * tile;
+            return Math.min(half, size - 1);
+        }
+    }
+
+
+    /**
+     * bias + activation step of a fully connected layer, run on finished blocks of z.
+     * z += bias, a = f(z) and, when a gradient buffer is set, gradient = f'(z).
+     * a and gradient have the same layout as z.
+     * the buffers are either all double[] or, after {@link #setSingle}, all float[].
+     */
+    static final class Epilogue {
+
+        private double[] bias;
+        private int biasOff, biasStride;
+        private IActivationFunction function;
+        private int zOff;
+        private double[] a;
+        private int aOff;
+        private double[] gradient;
+        private int gradientOff;
+
+        private float[] singleBias, singleA, singleGradient;
+
+        Epilogue set(double[] bias, int biasOff, int biasStride, IActivationFunction function,
+                     int zOff, double[] a, int aOff, double[] gradient, int gradientOff) {
+            this.bias = bias; this.biasOff = biasOff; this.biasStride = biasStride;
+            this.function = function;
+            this.zOff = zOff;
+            this.a = a; this.aOff = aOff;
+            this.gradient = gradient; this.gradientOff = gradientOff;
+            this.singleBias = null; this.singleA = null; this.singleGradient = null;
+            return this;
+        }
+
+        Epilogue setSingle(float[] bias, int biasOff, int biasStride, IActivationFunction function,
+                           int zOff, float[] a, int aOff, float[] gradient, int gradientOff) {
+            set(null, biasOff, biasStride, function, zOff, null, aOff, null, gradientOff);
+            this.singleBias = bias; this.singleA = a; this.singleGradient = gradient;
+            return this;
+        }
+
+        /**
+         * drops the references to the buffers, so they are not kept alive by the thread
+         */
+        void clear() {
+            set(null, 0, 0, null, 0, null, 0, null, 0);
+        }
+
+        /**
+         * @param z the buffer the block is in, starting at index start
+         * @param col the column in z of the first column of the block
+         */
+        void apply(double[] z, int start, int ldz, int rows, int cols, int col) {
+            for (int r = 0; r < rows; r++) {
+                int row = start + r * ldz;
+                int out = row - zOff;
+
+                for (int q = 0; q < cols; q++) {
+                    double value = z[row + q] + bias[biasOff + (col + q) * biasStride];
+                    double activation = function.get(value);
+
+                    z[row + q] = value;
+                    a[aOff + out + q] = activation;
+                    if (gradient != null)
+                        gradient[gradientOff + out + q] = function.gradient(value, activation);
+                }
+            }
+        }
+
+        void apply(float[] z, int start, int ldz, int rows, int cols, int col) {
+            for (int r = 0; r < rows; r++) {
+                int row = start + r * ldz;
+                int out = row - zOff;
+
+                for (int q = 0; q < cols; q++) {
+                    float value = z[row + q] + singleBias[biasOff + (col + q) * biasStride];
+                    double activation = function.get(value);
+
+                    z[row + q] = value;
+                    singleA[aOff + out + q] = (float) activation;
+                    if (singleGradient != null)
+                        singleGradient[gradientOff + out + q] = (float) function.gradient(value, activation);
+                }
+            }
+        }
+    }
+}
@@ -3,24 +3,115 @@ package network.neural.util.matrix;
 import network.neural.activationfunctions.IActivationFunction;
 
 import java.io.Serializable;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
 import java.util.Arrays;
 import java.util.Random;
-
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Two dimensional array of doubles.
+ *
+ * The values are stored in a single row-major double[], element (i, j) lives at
+ * data[offset + i * strides[0] + j * strides[1]]. Arrays created by the operations
+ * below are always contiguous, views (e.g. getRow) share the buffer of their source.
+ *
+ * A FLOAT32 array keeps its values in a float[] instead, see {@link DType}.
+ * Operations return arrays of the dtype of this instance, other operands are
+ * converted to it when their dtype differs.
+ */
 public class NDArray implements Serializable {
 
-    private int[] shape;
-    private double[][] data;
+    private static final VarHandle DOUBLE_ELEMENT = MethodHandles.arrayElementVarHandle(double[].class);
+    private static final VarHandle FLOAT_ELEMENT = MethodHandles.arrayElementVarHandle(float[].class);
+
+    private final int[] shape;
+    private final int[] strides;
+    private final int offset;
+    private final double[] data;  // FLOAT64 values, null for FLOAT32
+    private final float[] floats; // FLOAT32 values, null for FLOAT64
 
     public NDArray(double[][] data) {
-        this.data = data;
-        this.shape = new int[] {data.length, data[0].length};
+        this(new double[data.length * data[0].length], data.length, data[0].length);
+
+        for (int i = 0; i < data.length; i++)
+            System.arraycopy(data[i], 0, this.data, i * shape[1], shape[1]);
     }
 
 
     public NDArray(double[] data) {
-        this.data = new double[1][data.length];
-        this.data[0] = data;
-        this.shape = new int[] {1, data.length};
+        this(data, 1, data.length);
+    }
+
+
+    /**
+     * wraps a row-major buffer without copying it
+     *
+     * @param data the values, row after row
+     * @param rows number of rows
+     * @param cols number of columns
+     */
+    public NDArray(double[] data, int rows, int cols) {
+        this(data, 0, new int[] {rows, cols}, new int[] {cols, 1});
+
+        if (data.length < rows * cols)
+            throw new IllegalArgumentException("Buffer of length " + data.length + " is too small for shape " + Arrays.toString(shape));
+    }
+
+
+    /**
+     * wraps a row-major buffer of single precision values without copying it
+     *
+     * @param data the values, row after row
+     * @param rows number of rows
+     * @param cols number of columns
+     */
+    public NDArray(float[] data, int rows, int cols) {
+        this(null, data, 0, new int[] {rows, cols}, new int[] {cols, 1});
+
+        if (data.length < rows * cols)
+            throw new IllegalArgumentException("Buffer of length " + data.length + " is too small for shape " + Arrays.toString(shape));
+    }
+
+
+    private NDArray(double[] data, int offset, int[] shape, int[] strides) {
+        this(data, null, offset, shape, strides);
+    }
+
+
+    private NDArray(double[] data, float[] floats, int offset, int[] shape, int[] strides) {
+        this.data = data;
+        this.floats = floats;
+        this.offset = offset;
+        this.shape = shape;
+        this.strides = strides;
+    }
+
+
+    /**
+     * @return the precision of the values
+     */
+    public DType dtype() {
+        return floats != null ? DType.FLOAT32 : DType.FLOAT64;
+    }
+
+
+    /**
+     * @return this instance if it already has the given dtype, otherwise a
+     *         contiguous copy with the values converted
+     */
+    public NDArray asType(DType dtype) {
+        if (dtype() == dtype)
+            return this;
+
+        NDArray out = empty(dtype, shape[0], shape[1]);
+        for (int i = 0; i < shape[0]; i++)
+            for (int j = 0; j < shape[1]; j++)
+                out.set(i * shape[1] + j, get(i, j));
+
+        return out;
     }
 
 
@@ -29,28 +120,215 @@ public class NDArray implements Serializable {
      * @return A new NDArray with the transposed data
      */
     public NDArray T() {
-        double[][] newData = new double[data[0].length][data.length];
+        return T(empty(shape[1], shape[0]));
+    }
 
-        for (int i = 0; i < data.length; i++)
-            for (int j = 0; j < data[0].length; j++)
-                newData[j][i] = data[i][j];
 
-        return new NDArray(newData);
+    /**
+     * Transposes a NDArray into out, out can not share its data with this instance
+     * @return out
+     */
+    public NDArray T(NDArray out) {
+        int rows = shape[0];
+        int cols = shape[1];
+        checkOutput(out, cols, rows);
+        checkNotShared(out);
+
+        if (floats != null) {
+            float[] newData = out.floats;
+            for (int i = 0; i < rows; i++) {
+                int p = index(i, 0);
+                for (int j = 0; j < cols; j++)
+                    newData[out.offset + j * rows + i] = floats[p + j * strides[1]];
+            }
+            return out;
+        }
+
+        double[] newData = out.data;
+        for (int i = 0; i < rows; i++) {
+            int p = index(i, 0);
+            for (int j = 0; j < cols; j++)
+                newData[out.offset + j * rows + i] = data[p + j * strides[1]];
+        }
+
+        return out;
     }
 
 
+    /**
+     * transpose without copying: the returned view reads the data of this
+     * NDArray with the strides swapped.
+     */
+    public NDArray transposed() {
+        return new NDArray(data, floats, offset, new int[] {shape[1], shape[0]}, new int[] {strides[1], strides[0]});
+    }
+
+
+    /**
+     * @return a view of a single row, sharing the data of this NDArray
+     */
     public NDArray getRow(int row) {
-        return new NDArray(new double[][] {data[row]});
+        return new NDArray(data, floats, index(row, 0), new int[] {1, shape[1]}, new int[] {shape[1], strides[1]});
+    }
+
+
+    /**
+     * @param start first row, inclusive
+     * @param end last row, exclusive
+     * @return a view of the rows from start to end, sharing the data of this NDArray
+     */
+    public NDArray getRows(int start, int end) {
+        if (start < 0 || end > shape[0] || start > end)
+            throw new IllegalArgumentException("Invalid row range [" + start + ", " + end + ") for shape " + Arrays.toString(shape));
+
+        return new NDArray(data, floats, index(start, 0), new int[] {end - start, shape[1]}, new int[] {strides[0], strides[1]});
+    }
+
+
+    /**
+     * copies rows of this NDArray into out, row i of out is row indices[start + i].
+     *
+     * @param indices row indices of this NDArray
+     * @param start the index in indices of the first row to copy
+     * @param out the rows are written here, one for each row of out
+     * @return out
+     */
+    public NDArray gatherRows(int[] indices, int start, NDArray out) {
+        int rows = out.shape[0];
+        int cols = shape[1];
+        checkOutput(out, rows, cols);
+        checkNotShared(out);
+
+        NDArray src = contiguous();
+        Object from = src.storage();
+        Object to = out.storage();
+
+        for (int i = 0; i < rows; i++)
+            System.arraycopy(from, src.offset + indices[start + i] * cols, to, out.offset + i * cols, cols);
+
+        return out;
+    }
+
+
+    /**
+     * copies rows from a buffer of double values, e.g. a memory mapped file, into this NDArray
+     *
+     * @param source the values, row after row
+     * @param index the index in source of the first value
+     * @param row the first row of this NDArray to fill
+     * @param rows the number of rows to copy
+     * @return this
+     */
+    public NDArray readRows(DoubleBuffer source, int index, int row, int rows) {
+        checkReadRows(DType.FLOAT64, row, rows);
+        source.get(index, data, index(row, 0), rows * shape[1]);
+
+        return this;
+    }
+
+
+    /**
+     * copies rows from a buffer of float values into this FLOAT32 NDArray,
+     * see {@link #readRows(DoubleBuffer, int, int, int)}
+     */
+    public NDArray readRows(FloatBuffer source, int index, int row, int rows) {
+        checkReadRows(DType.FLOAT32, row, rows);
+        source.get(index, floats, index(row, 0), rows * shape[1]);
+
+        return this;
+    }
+
+
+    /**
+     * copies rows of this NDArray into a buffer of double values, e.g. a direct
+     * buffer that is sent over a socket
+     *
+     * @param target the buffer, the rows are written one after the other
+     * @param index the index in target of the first value
+     * @param row the first row to copy
+     * @param rows the number of rows to copy
+     * @return this
+     */
+    public NDArray writeRows(DoubleBuffer target, int index, int row, int rows) {
+        checkReadRows(DType.FLOAT64, row, rows);
+        target.put(index, data, index(row, 0), rows * shape[1]);
+
+        return this;
+    }
+
+
+    /**
+     * copies rows of this FLOAT32 NDArray into a buffer of float values,
+     * see {@link #writeRows(DoubleBuffer, int, int, int)}
+     */
+    public NDArray writeRows(FloatBuffer target, int index, int row, int rows) {
+        checkReadRows(DType.FLOAT32, row, rows);
+        target.put(index, floats, index(row, 0), rows * shape[1]);
+
+        return this;
     }
 
 
     public NDArray getColumn(int col) {
-        double[][] newData = new double[shape[0]][1];
+        NDArray column = empty(shape[0], 1);
 
         for (int i = 0; i < shape[0]; i++)
-            newData[i][0] = data[i][col];
+            column.set(i, get(i, col));
 
-        return new NDArray(newData);
+        return column;
+    }
+
+
+    /**
+     * @param start first column, inclusive
+     * @param end last column, exclusive
+     * @return a view of the columns from start to end, sharing the data of this NDArray
+     */
+    public NDArray getColumns(int start, int end) {
+        if (start < 0 || end > shape[1] || start > end)
+            throw new IllegalArgumentException("Invalid column range [" + start + ", " + end + ") for shape " + Arrays.toString(shape));
+
+        return new NDArray(data, floats, index(0, start), new int[] {shape[0], end - start}, new int[] {strides[0], strides[1]});
+    }
+
+
+    /**
+     * copies the given columns, in the given order, into a new NDArray.
+     * consecutive columns are copied as a single range of each row.
+     *
+     * @param columns column indices of this NDArray
+     */
+    public NDArray selectColumns(int[] columns) {
+        NDArray out = empty(shape[0], columns.length);
+
+        for (int c : columns)
+            if (c < 0 || c >= shape[1])
+                throw new IllegalArgumentException("Column " + c + " out of range for shape " + Arrays.toString(shape));
+
+        if (strides[1] != 1) {
+            for (int i = 0; i < shape[0]; i++)
+                for (int c = 0; c < columns.length; c++)
+                    out.set(i * columns.length + c, get(i, columns[c]));
+            return out;
+        }
+
+        Object from = storage();
+        Object to = out.storage();
+
+        for (int i = 0; i < shape[0]; i++) {
+            int row = index(i, 0);
+
+            for (int c = 0; c < columns.length; ) {
+                int run = 1;
+                while (c + run < columns.length && columns[c + run] == columns[c] + run)
+                    run++;
+
+                System.arraycopy(from, row + columns[c], to, i * columns.length + c, run);
+                c += run;
+            }
+        }
+
+        return out;
     }
 
 
@@ -60,15 +338,14 @@ public class NDArray implements Serializable {
      * @return A new NDArray with the row removed
      */
     public NDArray removeRow(int i) {
-        double[][] newData = new double[shape[0] - 1][shape[1]];
+        NDArray src = contiguous();
+        int cols = shape[1];
+        NDArray out = empty(shape[0] - 1, cols);
 
-        for (int j = 0; j < shape[0] - 1; j++)
-            if (j < i)
-                newData[j] = data[j];
-            else
-                newData[j] = data[j+1];
+        System.arraycopy(src.storage(), src.offset, out.storage(), 0, i * cols);
+        System.arraycopy(src.storage(), src.offset + (i + 1) * cols, out.storage(), i * cols, (shape[0] - i - 1) * cols);
 
-        return new NDArray(newData);
+        return out;
     }
 
 
@@ -78,21 +355,18 @@ public class NDArray implements Serializable {
      * @return A new NDArray with the column removed
      */
     public NDArray removeColumn(int i) {
-        double[][] newData = new double[shape[0]][shape[1] - 1];
-        double[] newRow;
+        NDArray src = contiguous();
+        int cols = shape[1];
+        int newCols = cols - 1;
+        NDArray out = empty(shape[0], newCols);
 
         for (int k = 0; k < shape[0]; k++) {
-             newRow = new double[shape[1] - 1];
-
-            for (int j = 0; j < shape[1] - 1; j++) {
-                if (j < i)
-                    newRow[j] = data[k][j];
-                else
-                    newRow[j] = data[k][j + 1];
-            }
-            newData[k] = newRow;
+            int from = src.offset + k * cols;
+            System.arraycopy(src.storage(), from, out.storage(), k * newCols, i);
+            System.arraycopy(src.storage(), from + i + 1, out.storage(), k * newCols + i, newCols - i);
         }
-        return new NDArray(newData);
+
+        return out;
     }
 
 
@@ -122,15 +396,15 @@ public class NDArray implements Serializable {
      * Concatenates two NDArrays along the rows
      */
     private NDArray concatRows(NDArray other) {
-        double[][] newData = new double[this.shape[0] + other.shape[0]][this.shape[1]];
+        NDArray a = this.contiguous();
+        NDArray b = other.asType(dtype()).contiguous();
+        int thisSize = a.size();
+        NDArray out = empty(this.shape[0] + other.shape[0], this.shape[1]);
 
-        for (int i = 0; i < this.shape[0]; i++)
-            newData[i] = this.data[i];
+        System.arraycopy(a.storage(), a.offset, out.storage(), 0, thisSize);
+        System.arraycopy(b.storage(), b.offset, out.storage(), thisSize, b.size());
 
-        for (int i = 0; i < other.shape[0]; i++)
-            newData[i + this.shape[0]] = other.data[i];
-
-        return new NDArray(newData);
+        return out;
     }
 
 
@@ -138,16 +412,19 @@ public class NDArray implements Serializable {
      * Adds two NDArrays along the columns
      */
     private NDArray concatCols(NDArray other) {
-        double[][] newData = new double[this.shape[0]][this.shape[1] + other.shape[1]];
+        NDArray a = this.contiguous();
+        NDArray b = other.asType(dtype()).contiguous();
+        int aCols = this.shape[1];
+        int bCols = other.shape[1];
+        int cols = aCols + bCols;
+        NDArray out = empty(this.shape[0], cols);
 
         for (int i = 0; i < this.shape[0]; i++) {
-            for (int j = 0; j < this.shape[1]; j++)
-                newData[i][j] = this.data[i][j];
-            for (int j = 0; j < other.shape[1]; j++)
-                newData[i][j + this.shape[1]] = other.data[i][j];
+            System.arraycopy(a.storage(), a.offset + i * aCols, out.storage(), i * cols, aCols);
+            System.arraycopy(b.storage(), b.offset + i * bCols, out.storage(), i * cols + aCols, bCols);
         }
 
-        return new NDArray(newData);
+        return out;
     }
 
 
@@ -158,20 +435,208 @@ public class NDArray implements Serializable {
      * @return A new NDArray with the result of the matrix dot product
      */
     public NDArray dot(NDArray other) {
-        if (this.shape[1] != other.shape[0])
-            throw new IllegalArgumentException("Incompatible shapes" + Arrays.toString(this.shape) + " and " + Arrays.toString(other.shape));
+        return dot(other, empty(this.shape[0], other.shape[1]));
+    }
+
+
+    /**
+     * performs matrix dot product on two NDArrays and writes the result to out.
+     * out can not share its data with either of the inputs.
+     *
+     * @return out
+     */
+    public NDArray dot(NDArray other, NDArray out) {
+        return dot(this, false, other, false, out, MatMul.global);
+    }
+
+
+    /**
+     * dot(other, out), split over the pool of the given parallelism when it is large enough
+     *
+     * @return out
+     */
+    public NDArray dot(NDArray other, NDArray out, Parallelism parallelism) {
+        return dot(this, false, other, false, out, parallelism);
+    }
+
+
+    /**
+     * this^T dot other, without transposing this instance first
+     *
+     * @return A new NDArray with the result of the matrix dot product
+     */
+    public NDArray dotTransposeA(NDArray other) {
+        return dotTransposeA(other, empty(this.shape[1], other.shape[1]));
+    }
+
+
+    /**
+     * this^T dot other, written to out
+     * @return out
+     */
+    public NDArray dotTransposeA(NDArray other, NDArray out) {
+        return dot(this, true, other, false, out, MatMul.global);
+    }
+
+
+    /**
+     * dotTransposeA(other, out), split over the pool of the given parallelism when it is large enough
+     *
+     * @return out
+     */
+    public NDArray dotTransposeA(NDArray other, NDArray out, Parallelism parallelism) {
+        return dot(this, true, other, false, out, parallelism);
+    }
+
+
+    /**
+     * this dot other^T, without transposing other first
+     *
+     * @return A new NDArray with the result of the matrix dot product
+     */
+    public NDArray dotTransposeB(NDArray other) {
+        return dotTransposeB(other, empty(this.shape[0], other.shape[0]));
+    }
+
+
+    /**
+     * this dot other^T, written to out
+     * @return out
+     */
+    public NDArray dotTransposeB(NDArray other, NDArray out) {
+        return dot(this, false, other, true, out, MatMul.global);
+    }
+
+
+    /**
+     * fused forward pass of a fully connected layer. the bias, activation and
+     * (optionally) its derivative are applied to each block of the product as soon
+     * as the block is computed, instead of in separate passes over the output.
+     *
+     * z = this dot weights^T + bias
+     * a = function(z)
+     * gradient = function'(z), skipped when gradient is null
+     *
+     * @param weights (outputs x inputs), this instance is (rows x inputs)
+     * @param bias vector with one value per output
+     * @return a
+     */
+    public NDArray linear(NDArray weights, NDArray bias, IActivationFunction function,
+                          NDArray z, NDArray a, NDArray gradient) {
+
+        return linear(weights, bias, function, z, a, gradient, MatMul.global);
+    }
+
+
+    /**
+     * linear(), with the product split over the pool of the given parallelism when it is large enough
+     *
+     * @return a
+     */
+    public NDArray linear(NDArray weights, NDArray bias, IActivationFunction function,
+                          NDArray z, NDArray a, NDArray gradient, Parallelism parallelism) {
 
-        int cols = other.shape[1];
         int rows = this.shape[0];
+        int cols = weights.shape[0];
+
+        if (this.shape[1] != weights.shape[1])
+            throw new IllegalArgumentException("Incompatible shapes" + Arrays.toString(this.shape) + " and " + Arrays.toString(weights.shape) + "^T");
+        if (bias.size() != cols || (bias.shape[0] != 1 && bias.shape[1] != 1))
+            throw new IllegalArgumentException("Incompatible shapes. " + Arrays.toString(bias.shape) + " is not a vector of size " + cols);
+
+        checkOutput(z, rows, cols);
+        checkOutput(a, rows, cols);
+        this.checkNotShared(z);
+        weights.checkNotShared(z);
+        if (gradient != null)
+            checkOutput(gradient, rows, cols);
+
+        weights = weights.asType(dtype());
+        bias = bias.asType(dtype());
+        int biasStride = bias.shape[0] == 1 ? bias.strides[1] : bias.strides[0];
+        MatMul.Epilogue epilogue = MatMul.epilogue();
+
+        try {
+            if (floats != null) {
+                epilogue.setSingle(bias.floats, bias.offset, biasStride, function, z.offset, a.floats, a.offset,
+                        gradient == null ? null : gradient.floats, gradient == null ? 0 : gradient.offset);
+
+                Arrays.fill(z.floats, z.offset, z.offset + rows * cols, 0);
+                MatMul.gemm(rows, cols, this.shape[1],
+                        this.floats, this.offset, this.strides[0], this.strides[1],
+                        weights.floats, weights.offset, weights.strides[1], weights.strides[0],
+                        z.floats, z.offset, cols, epilogue, parallelism);
+            } else {
+                epilogue.set(bias.data, bias.offset, biasStride, function, z.offset, a.data, a.offset,
+                        gradient == null ? null : gradient.data, gradient == null ? 0 : gradient.offset);
+
+                Arrays.fill(z.data, z.offset, z.offset + rows * cols, 0);
+                MatMul.gemm(rows, cols, this.shape[1],
+                        this.data, this.offset, this.strides[0], this.strides[1],
+                        weights.data, weights.offset, weights.strides[1], weights.strides[0],
+                        z.data, z.offset, cols, epilogue, parallelism);
+            }
+        } finally {
+            epilogue.clear();
+        }
 
-        double[][] newData = new double[rows][cols];
+        return a;
+    }
 
-        for (int i = 0; i < rows; i++)
-            for (int j = 0; j <cols; j++)
-                for (int k = 0; k < this.shape[1]; k++)
-                    newData[i][j] += this.data[i][k] * other.data[k][j];
 
-        return new NDArray(newData);
+    /**
+     * a dot b, where either side can be read transposed by swapping its strides.
+     */
+    private static NDArray dot(NDArray a, boolean transposeA, NDArray b, boolean transposeB, NDArray out, Parallelism parallelism) {
+        int rows = a.shape[transposeA ? 1 : 0];
+        int inner = a.shape[transposeA ? 0 : 1];
+        int cols = b.shape[transposeB ? 0 : 1];
+
+        if (inner != b.shape[transposeB ? 1 : 0])
+            throw new IllegalArgumentException("Incompatible shapes" + Arrays.toString(a.shape) + (transposeA ? "^T" : "")
+                    + " and " + Arrays.toString(b.shape) + (transposeB ? "^T" : ""));
+
+        a.checkOutput(out, rows, cols);
+        a.checkNotShared(out);
+        b.checkNotShared(out);
+        b = b.asType(a.dtype());
+
+        if (a.floats != null) {
+            Arrays.fill(out.floats, out.offset, out.offset + rows * cols, 0);
+            MatMul.gemm(rows, cols, inner,
+                    a.floats, a.offset, a.strides[transposeA ? 1 : 0], a.strides[transposeA ? 0 : 1],
+                    b.floats, b.offset, b.strides[transposeB ? 1 : 0], b.strides[transposeB ? 0 : 1],
+                    out.floats, out.offset, cols, null, parallelism);
+            return out;
+        }
+
+        Arrays.fill(out.data, out.offset, out.offset + rows * cols, 0);
+        MatMul.gemm(rows, cols, inner,
+                a.data, a.offset, a.strides[transposeA ? 1 : 0], a.strides[transposeA ? 0 : 1],
+                b.data, b.offset, b.strides[transposeB ? 1 : 0], b.strides[transposeB ? 0 : 1],
+                out.data, out.offset, cols, null, parallelism);
+
+        return out;
+    }
+
+
+    /**
+     * sets the pool that large dot products are split over when they are not given a
+     * parallelism of their own. this applies to every NDArray in the jvm, but not to
+     * the layers of a network, which use the parallelism of their network. null, the
+     * default, keeps all products on the calling thread.
+     */
+    public static void setThreadPool(ForkJoinPool pool) {
+        MatMul.global = new Parallelism(pool, MatMul.global.getThreshold());
+    }
+
+
+    /**
+     * dot products with at least this many multiply-adds (rows * inner * cols)
+     * are split into tiles and computed on the thread pool of setThreadPool.
+     */
+    public static void setParallelThreshold(long threshold) {
+        MatMul.global = MatMul.global.withThreshold(threshold);
     }
 
 
@@ -182,51 +647,110 @@ public class NDArray implements Serializable {
      * @return A new NDArray with each index multiplied by the scalar
      */
     public NDArray mul(double scalar) {
-        double[][] result = new double[shape[0]][shape[1]];
-        for (int i = 0; i < shape[0]; i++)
-            for (int j = 0; j < shape[1]; j++)
-                result[i][j] = data[i][j] * scalar;
+        return mul(scalar, empty(shape[0], shape[1]));
+    }
+
 
-        return new NDArray(result);
+    /**
+     * in-place version of {@link #mul(double)}
+     * @return this instance
+     */
+    public NDArray muli(double scalar) {
+        return mul(scalar, this);
+    }
+
+
+    /**
+     * multiplies each index by a scalar and writes the result to out
+     * @return out
+     */
+    public NDArray mul(double scalar, NDArray out) {
+        checkOutput(out, shape[0], shape[1]);
+
+        NDArray src = contiguous();
+        if (floats != null)
+            Kernels.INSTANCE.scale(src.floats, src.offset, (float) scalar, out.floats, out.offset, size());
+        else
+            Kernels.INSTANCE.scale(src.data, src.offset, scalar, out.data, out.offset, size());
+
+        return out;
     }
 
 
     public NDArray mul(NDArray other) {
-        if (this.shape[0] != other.shape[0] || this.shape[1] != other.shape[1])
-            throw new IllegalArgumentException("Incompatible shapes " + Arrays.toString(this.shape) + " and " + Arrays.toString(other.shape));
+        return mul(other, empty(shape[0], shape[1]));
+    }
+
 
-        double[][] newData = new double[this.shape[0]][this.shape[1]];
+    /**
+     * in-place version of {@link #mul(NDArray)}
+     * @return this instance
+     */
+    public NDArray muli(NDArray other) {
+        return mul(other, this);
+    }
 
-        for (int i = 0; i < this.shape[0]; i++)
-            for (int j = 0; j < this.shape[1]; j++)
-                newData[i][j] = this.data[i][j] * other.data[i][j];
 
-        return new NDArray(newData);
+    /**
+     * element-wise multiplication, written to out
+     * @return out
+     */
+    public NDArray mul(NDArray other, NDArray out) {
+        checkSameShape(other);
+        checkOutput(out, shape[0], shape[1]);
+
+        NDArray a = this.contiguous();
+        NDArray b = other.asType(dtype()).contiguous();
+        if (floats != null)
+            Kernels.INSTANCE.mul(a.floats, a.offset, b.floats, b.offset, out.floats, out.offset, size());
+        else
+            Kernels.INSTANCE.mul(a.data, a.offset, b.data, b.offset, out.data, out.offset, size());
+
+        return out;
     }
 
 
     public NDArray pow(int power) {
-        double[][] newData = new double[shape[0]][shape[1]];
+        return pow(power, empty(shape[0], shape[1]));
+    }
 
-        for (int i = 0; i < shape[0]; i++)
-            for (int j = 0; j < shape[1]; j++)
-                newData[i][j] = Math.pow(data[i][j], power);
 
-        return new NDArray(newData);
+    /**
+     * in-place version of {@link #pow(int)}
+     * @return this instance
+     */
+    public NDArray powi(int power) {
+        return pow(power, this);
     }
 
 
     /**
-     * Sum of all elements in the NDArray
+     * raises each index to a power and writes the result to out
+     * @return out
+     */
+    public NDArray pow(int power, NDArray out) {
+        checkOutput(out, shape[0], shape[1]);
+
+        NDArray src = contiguous();
+        if (floats != null)
+            Kernels.INSTANCE.pow(src.floats, src.offset, power, out.floats, out.offset, size());
+        else
+            Kernels.INSTANCE.pow(src.data, src.offset, power, out.data, out.offset, size());
+
+        return out;
+    }
+
+
+    /**
+     * Sum of all elements in the NDArray, FLOAT32 values are summed in double precision
      * @return The sum of all the elements in the NDArray
      */
     public double sum() {
-        double sum = 0;
-        for (int i = 0; i < shape[0]; i++)
-            for (int j = 0; j < shape[1]; j++)
-                sum += data[i][j];
+        NDArray src = contiguous();
+        if (floats != null)
+            return Kernels.INSTANCE.sum(src.floats, src.offset, size());
 
-        return sum;
+        return Kernels.INSTANCE.sum(src.data, src.offset, size());
     }
 
 
@@ -236,16 +760,56 @@ public class NDArray implements Serializable {
      * @return A new NDArray with the result of the addition
      */
     public NDArray add(NDArray other) {
-        if (this.shape[0] != other.shape[0] || this.shape[1] != other.shape[1])
-            throw new IllegalArgumentException("Incompatible shapes " + Arrays.toString(this.shape) + " and " + Arrays.toString(other.shape()));
+        return add(other, empty(shape[0], shape[1]));
+    }
 
-        double[][] newData = new double[this.shape[0]][this.shape[1]];
 
-        for (int i = 0; i < this.shape[0]; i++)
-            for (int j = 0; j < this.shape[1]; j++)
-                newData[i][j] = this.data[i][j] + other.data[i][j];
+    /**
+     * in-place version of {@link #add(NDArray)}
+     * @return this instance
+     */
+    public NDArray addi(NDArray other) {
+        return add(other, this);
+    }
 
-        return new NDArray(newData);
+
+    /**
+     * in-place addition with an atomic update of every element, so additions made
+     * by several threads at the same time are never lost. much slower than addi.
+     * @return this instance
+     */
+    public NDArray addiAtomic(NDArray other) {
+        checkSameShape(other);
+
+        for (int i = 0; i < shape[0]; i++) {
+            for (int j = 0; j < shape[1]; j++) {
+                if (floats != null)
+                    FLOAT_ELEMENT.getAndAdd(floats, index(i, j), (float) other.get(i, j));
+                else
+                    DOUBLE_ELEMENT.getAndAdd(data, index(i, j), other.get(i, j));
+            }
+        }
+
+        return this;
+    }
+
+
+    /**
+     * Adds two NDArrays together and writes the result to out
+     * @return out
+     */
+    public NDArray add(NDArray other, NDArray out) {
+        checkSameShape(other);
+        checkOutput(out, shape[0], shape[1]);
+
+        NDArray a = this.contiguous();
+        NDArray b = other.asType(dtype()).contiguous();
+        if (floats != null)
+            Kernels.INSTANCE.add(a.floats, a.offset, b.floats, b.offset, out.floats, out.offset, size());
+        else
+            Kernels.INSTANCE.add(a.data, a.offset, b.data, b.offset, out.data, out.offset, size());
+
+        return out;
     }
 
 
@@ -255,7 +819,35 @@ public class NDArray implements Serializable {
      * @return A new NDArray with the result of the subtraction
      */
     public NDArray sub(NDArray other) {
-        return this.add(other.mul(-1));
+        return sub(other, empty(shape[0], shape[1]));
+    }
+
+
+    /**
+     * in-place version of {@link #sub(NDArray)}
+     * @return this instance
+     */
+    public NDArray subi(NDArray other) {
+        return sub(other, this);
+    }
+
+
+    /**
+     * Subtracts two NDArrays and writes the result to out
+     * @return out
+     */
+    public NDArray sub(NDArray other, NDArray out) {
+        checkSameShape(other);
+        checkOutput(out, shape[0], shape[1]);
+
+        NDArray a = this.contiguous();
+        NDArray b = other.asType(dtype()).contiguous();
+        if (floats != null)
+            Kernels.INSTANCE.sub(a.floats, a.offset, b.floats, b.offset, out.floats, out.offset, size());
+        else
+            Kernels.INSTANCE.sub(a.data, a.offset, b.data, b.offset, out.data, out.offset, size());
+
+        return out;
     }
 
 
@@ -266,12 +858,41 @@ public class NDArray implements Serializable {
      * @return A new NDArray with the given activation function applied to each index
      */
     public NDArray activation(IActivationFunction function) {
-        double[][] result = new double[shape[0]][shape[1]];
-        for (int i = 0; i < shape[0]; i++)
-            for (int j = 0; j < shape[1]; j++)
-                result[i][j] = function.get(data[i][j]);
+        return activation(function, empty(shape[0], shape[1]));
+    }
+
+
+    /**
+     * in-place version of {@link #activation(IActivationFunction)}
+     * @return this instance
+     */
+    public NDArray activationi(IActivationFunction function) {
+        return activation(function, this);
+    }
+
+
+    /**
+     * runs an NDArray through a given activation function and writes the result to out
+     * @return out
+     */
+    public NDArray activation(IActivationFunction function, NDArray out) {
+        checkOutput(out, shape[0], shape[1]);
 
-        return new NDArray(result);
+        NDArray src = contiguous();
+        int size = size();
+
+        if (floats != null) {
+            float[] result = out.floats;
+            for (int n = 0; n < size; n++)
+                result[out.offset + n] = (float) function.get(src.floats[src.offset + n]);
+            return out;
+        }
+
+        double[] result = out.data;
+        for (int n = 0; n < size; n++)
+            result[out.offset + n] = function.get(src.data[src.offset + n]);
+
+        return out;
     }
 
 
@@ -282,72 +903,189 @@ public class NDArray implements Serializable {
      * @return A new NDArray with the derivative of the activation function applied to each index
      */
     public NDArray gradient(IActivationFunction function) {
-        double[][] result = new double[shape[0]][shape[1]];
-        for (int i = 0; i < shape[0]; i++)
-            for (int j = 0; j < shape[1]; j++)
-                result[i][j] = function.gradient(data[i][j]);
+        return gradient(function, empty(shape[0], shape[1]));
+    }
+
 
-        return new NDArray(result);
+    /**
+     * in-place version of {@link #gradient(IActivationFunction)}
+     * @return this instance
+     */
+    public NDArray gradienti(IActivationFunction function) {
+        return gradient(function, this);
+    }
+
+
+    /**
+     * calculates the derivative of the activation function for each index and writes it to out
+     * @return out
+     */
+    public NDArray gradient(IActivationFunction function, NDArray out) {
+        checkOutput(out, shape[0], shape[1]);
+
+        NDArray src = contiguous();
+        int size = size();
+
+        if (floats != null) {
+            float[] result = out.floats;
+            for (int n = 0; n < size; n++)
+                result[out.offset + n] = (float) function.gradient(src.floats[src.offset + n]);
+            return out;
+        }
+
+        double[] result = out.data;
+        for (int n = 0; n < size; n++)
+            result[out.offset + n] = function.gradient(src.data[src.offset + n]);
+
+        return out;
     }
 
 
     public NDArray addVector(NDArray vector) {
+        return addVector(vector, empty(shape[0], shape[1]));
+    }
+
+
+    /**
+     * in-place version of {@link #addVector(NDArray)}
+     * @return this instance
+     */
+    public NDArray addVectori(NDArray vector) {
+        return addVector(vector, this);
+    }
+
+
+    /**
+     * adds a row vector to every row, or a column vector to every column, and writes the result to out
+     * @return out
+     */
+    public NDArray addVector(NDArray vector, NDArray out) {
         if (vector.shape[0] != 1 && vector.shape[1] != 1)
             throw new IllegalArgumentException("Incompatible shapes. " + Arrays.toString(vector.shape) + " is not a vector");
         if (vector.shape[0] == 1 && this.shape[1] == vector.shape[1])
-            return this.addRowVector(vector);
+            return this.addRowVector(vector, out);
         if (vector.shape[1] == 1)
-            return this.addColumnVector(vector);
+            return this.addColumnVector(vector, out);
 
         return null;
     }
 
 
-    private NDArray addRowVector(NDArray vector) {
+    private NDArray addRowVector(NDArray vector, NDArray out) {
         if (this.shape[1] != vector.shape[1])
             throw new IllegalArgumentException("Incompatible shapes " + Arrays.toString(this.shape) + " and " + Arrays.toString(vector.shape()));
+        checkOutput(out, shape[0], shape[1]);
 
-        double[][] result = new double[this.shape[0]][ this.shape[1]];
+        NDArray src = this.contiguous();
+        NDArray v = vector.asType(dtype()).contiguous();
+        int cols = shape[1];
 
-        for (int i = 0; i < this.shape[0]; i++)
-            for (int j = 0; j < this.shape[1]; j++)
-                result[i][j] = this.data[i][j] + vector.data[0][j];
+        for (int i = 0; i < shape[0]; i++)
+            if (floats != null)
+                Kernels.INSTANCE.add(src.floats, src.offset + i * cols, v.floats, v.offset, out.floats, out.offset + i * cols, cols);
+            else
+                Kernels.INSTANCE.add(src.data, src.offset + i * cols, v.data, v.offset, out.data, out.offset + i * cols, cols);
 
-        return new NDArray(result);
+        return out;
     }
 
 
-    private NDArray addColumnVector(NDArray vector) {
+    private NDArray addColumnVector(NDArray vector, NDArray out) {
         if (this.shape[0] != vector.shape[0])
             throw new IllegalArgumentException("Incompatible shapes " + Arrays.toString(this.shape) + " and " + Arrays.toString(vector.shape()));
+        checkOutput(out, shape[0], shape[1]);
 
-        double[][] result = new double[this.shape[0]][ this.shape[1]];
+        NDArray src = this.contiguous();
+        int cols = shape[1];
 
-        for (int i = 0; i < this.shape[0]; i++)
-            for (int j = 0; j < this.shape[1]; j++)
-                result[i][j] = this.data[i][j] + vector.data[i][0];
+        for (int i = 0; i < shape[0]; i++)
+            if (floats != null)
+                Kernels.INSTANCE.addScalar(src.floats, src.offset + i * cols, (float) vector.get(i, 0), out.floats, out.offset + i * cols, cols);
+            else
+                Kernels.INSTANCE.addScalar(src.data, src.offset + i * cols, vector.get(i, 0), out.data, out.offset + i * cols, cols);
 
-        return new NDArray(result);
+        return out;
     }
 
 
     public NDArray getAvgColVector() {
-        double[][] result = new double[this.shape[0]][1];
+        return getAvgColVector(empty(shape[0], 1));
+    }
+
+
+    /**
+     * writes the average of each row to the column vector out
+     * @return out
+     */
+    public NDArray getAvgColVector(NDArray out) {
+        checkOutput(out, shape[0], 1);
+
+        NDArray src = contiguous();
+        int cols = shape[1];
+
+        for (int i = 0; i < shape[0]; i++)
+            if (floats != null)
+                out.floats[out.offset + i] = (float) (Kernels.INSTANCE.sum(src.floats, src.offset + i * cols, cols) / cols);
+            else
+                out.data[out.offset + i] = Kernels.INSTANCE.sum(src.data, src.offset + i * cols, cols) / cols;
+
+        return out;
+    }
 
-        for (int i = 0; i < this.shape[0]; i++)
-            result[i][0] = this.getRow(i).sum() / this.shape[1];
 
-        return new NDArray(result);
+    public NDArray getAvgRowVector() {
+        return getAvgRowVector(empty(1, shape[1]));
+    }
+
+
+    /**
+     * writes the average of each column to the row vector out
+     * @return out
+     */
+    public NDArray getAvgRowVector(NDArray out) {
+        checkOutput(out, 1, shape[1]);
+
+        NDArray src = contiguous();
+        int rows = shape[0];
+        int cols = shape[1];
+
+        if (floats != null) {
+            Arrays.fill(out.floats, out.offset, out.offset + cols, 0);
+            for (int i = 0; i < rows; i++)
+                Kernels.INSTANCE.add(out.floats, out.offset, src.floats, src.offset + i * cols, out.floats, out.offset, cols);
+
+            Kernels.INSTANCE.scale(out.floats, out.offset, 1.0f / rows, out.floats, out.offset, cols);
+            return out;
+        }
+
+        Arrays.fill(out.data, out.offset, out.offset + cols, 0);
+        for (int i = 0; i < rows; i++)
+            Kernels.INSTANCE.add(out.data, out.offset, src.data, src.offset + i * cols, out.data, out.offset, cols);
+
+        Kernels.INSTANCE.scale(out.data, out.offset, 1.0 / rows, out.data, out.offset, cols);
+
+        return out;
     }
 
 
     public double get(int i, int j) {
-        return data[i][j];
+        int index = index(i, j);
+        return floats != null ? floats[index] : data[index];
     }
 
 
+    /**
+     * compatibility view of the values as a jagged array.
+     * the returned array is a copy, writing to it does not change this NDArray.
+     */
     public double[][] data() {
-        return data;
+        double[][] rows = new double[shape[0]][shape[1]];
+
+        for (int i = 0; i < shape[0]; i++)
+            for (int j = 0; j < shape[1]; j++)
+                rows[i][j] = get(i, j);
+
+        return rows;
     }
 
 
@@ -356,12 +1094,120 @@ public class NDArray implements Serializable {
     }
 
 
+    /**
+     * @return the size of a single dimension, without copying the shape
+     */
+    public int shape(int axis) {
+        return shape[axis];
+    }
+
+
+    /**
+     * @return the number of elements in the NDArray
+     */
+    public int size() {
+        return shape[0] * shape[1];
+    }
+
+
+    /**
+     * @return this instance if its values are laid out row after row without gaps,
+     *         otherwise a contiguous copy
+     */
+    public NDArray contiguous() {
+        if (isContiguous())
+            return this;
+
+        NDArray copy = empty(shape[0], shape[1]);
+        for (int i = 0; i < shape[0]; i++)
+            for (int j = 0; j < shape[1]; j++)
+                copy.set(i * shape[1] + j, get(i, j));
+
+        return copy;
+    }
+
+
+    private void checkSameShape(NDArray other) {
+        if (this.shape[0] != other.shape[0] || this.shape[1] != other.shape[1])
+            throw new IllegalArgumentException("Incompatible shapes " + Arrays.toString(this.shape) + " and " + Arrays.toString(other.shape));
+    }
+
+
+    private void checkOutput(NDArray out, int rows, int cols) {
+        if (out.shape[0] != rows || out.shape[1] != cols)
+            throw new IllegalArgumentException("Output has shape " + Arrays.toString(out.shape) + ", expected " + Arrays.toString(new int[] {rows, cols}));
+        if (!out.isContiguous())
+            throw new IllegalArgumentException("Output must be contiguous");
+        if (out.dtype() != dtype())
+            throw new IllegalArgumentException("Output has dtype " + out.dtype() + ", expected " + dtype());
+    }
+
+
+    private void checkReadRows(DType dtype, int row, int rows) {
+        if (dtype() != dtype)
+            throw new IllegalArgumentException("Buffer has dtype " + dtype + ", expected " + dtype());
+        if (!isContiguous())
+            throw new IllegalArgumentException("NDArray must be contiguous");
+        if (row < 0 || rows < 0 || row + rows > shape[0])
+            throw new IllegalArgumentException("Invalid row range [" + row + ", " + (row + rows) + ") for shape " + Arrays.toString(shape));
+    }
+
+
+    private void checkNotShared(NDArray out) {
+        if (this.storage() == out.storage())
+            throw new IllegalArgumentException("Output can not share its data with the input");
+    }
+
+
+    private NDArray empty(int rows, int cols) {
+        return empty(dtype(), rows, cols);
+    }
+
+
+    private static NDArray empty(DType dtype, int rows, int cols) {
+        if (dtype == DType.FLOAT32)
+            return new NDArray(new float[rows * cols], rows, cols);
+
+        return new NDArray(new double[rows * cols], rows, cols);
+    }
+
+
+    /**
+     * the buffer holding the values, either a double[] or a float[]
+     */
+    private Object storage() {
+        return floats != null ? floats : data;
+    }
+
+
+    /**
+     * sets a value by its index in the buffer
+     */
+    private void set(int index, double value) {
+        if (floats != null)
+            floats[index] = (float) value;
+        else
+            data[index] = value;
+    }
+
+
+    private boolean isContiguous() {
+        return strides[1] == 1 && (strides[0] == shape[1] || shape[0] == 1);
+    }
+
+
+    private int index(int i, int j) {
+        return offset + i * strides[0] + j * strides[1];
+    }
+
+
     @Override
     public String toString() {
         StringBuilder data = new StringBuilder("[");
-        for (int i = 0; i < this.data.length; i++) {
-            String nextLine = i  == this.data.length - 1 ? "" : "\n ";
-            data.append(Arrays.toString(this.data[i])).append(nextLine);
+        double[][] rows = data();
+        for (int i = 0; i < rows.length; i++) {
+            String nextLine = i  == rows.length - 1 ? "" : "\n ";
+            data.append(Arrays.toString(rows[i])).append(nextLine);
         }
 
         return "shape=" + Arrays.toString(shape) + "\n" + data + "]";
@@ -378,8 +1224,19 @@ public class NDArray implements Serializable {
         if (shape.length > 2 || shape.length < 1)
             throw new IllegalArgumentException("Invalid shape, must be 1 or 2 dimensions");
 
-        double[][] data = new double[shape[0]][shape[1]];
-        return new NDArray(data);
+        return new NDArray(new double[shape[0] * shape[1]], shape[0], shape[1]);
+    }
+
+
+    /**
+     * NDArray filled with zeros
+     *
+     * @param dtype the precision of the values
+     * @param shape The shape of the NDArray
+     * @return A new NDArray filled with zeros
+     */
+    public static NDArray zeros(DType dtype, int... shape) {
+        return zeros(shape).asType(dtype);
     }
 
 
@@ -393,13 +1250,10 @@ public class NDArray implements Serializable {
         if (shape.length > 2 || shape.length < 1)
             throw new IllegalArgumentException("Invalid shape, must be 1 or 2 dimensions");
 
-        double[][] data = new double[shape[0]][shape[1]];
-
-        for (int i = 0; i < data.length; i++)
-            for (int j = 0; j < data[0].length; j++)
-                data[i][j] = 1;
+        double[] data = new double[shape[0] * shape[1]];
+        Arrays.fill(data, 1);
 
-        return new NDArray(data);
+        return new NDArray(data, shape[0], shape[1]);
     }
 
 
@@ -413,13 +1267,12 @@ public class NDArray implements Serializable {
         if (shape.length > 2 || shape.length < 1)
             throw new IllegalArgumentException("Invalid shape, must be 1 or 2 dimensions");
 
-        double[][] data = new double[shape[0]][shape[1]];
+        double[] data = new double[shape[0] * shape[1]];
 
-        for (int i = 0; i < data.length; i++)
-            for (int j = 0; j < data[0].length; j++)
-                data[i][j] = Math.random();
+        for (int n = 0; n < data.length; n++)
+            data[n] = Math.random();
 
-        return new NDArray(data);
+        return new NDArray(data, shape[0], shape[1]);
     }
 
 
@@ -434,13 +1287,12 @@ public class NDArray implements Serializable {
         if (shape.length > 2 || shape.length < 1)
             throw new IllegalArgumentException("Invalid shape, must be 1 or 2 dimensions");
 
-        double[][] data = new double[shape[0]][shape[1]];
+        double[] data = new double[shape[0] * shape[1]];
 
-        for (int i = 0; i < data.length; i++)
-            for (int j = 0; j < data[0].length; j++)
-                data[i][j] = Math.random() * max - max/2.0;
+        for (int n = 0; n < data.length; n++)
+            data[n] = Math.random() * max - max/2.0;
 
-        return new NDArray(data);
+        return new NDArray(data, shape[0], shape[1]);
     }
 
 }
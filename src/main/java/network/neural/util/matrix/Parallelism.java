@@ -0,0 +1,59 @@
+package network.neural.util.matrix;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * how large matrix products are computed: the pool they are split over and the
+ * number of multiply-adds (rows * inner * cols) from which they are split.
+ * without a pool every product stays on the calling thread.
+ *
+ * a network keeps its own, see NeuralNetwork.threads, so networks that run at the
+ * same time do not change each other's products.
+ */
+public final class Parallelism {
+
+    public static final long DEFAULT_THRESHOLD = 128 * 128 * 128;
+
+    /** every product on the calling thread */
+    public static final Parallelism SERIAL = new Parallelism(null, DEFAULT_THRESHOLD);
+
+    private final ForkJoinPool pool;
+    private final long threshold;
+
+    /**
+     * @param pool the pool products are split over, null for none
+     * @param threshold products with at least this many multiply-adds are split
+     */
+    public Parallelism(ForkJoinPool pool, long threshold) {
+        if (threshold < 1)
+            throw new IllegalArgumentException("Threshold must be positive");
+
+        this.pool = pool;
+        this.threshold = threshold;
+    }
+
+
+    /**
+     * @return the same pool with another threshold
+     */
+    public Parallelism withThreshold(long threshold) {
+        return new Parallelism(pool, threshold);
+    }
+
+
+    /**
+     * @return true if a product of the given number of multiply-adds is split over the pool
+     */
+    boolean splits(long work) {
+        return pool != null && pool.getParallelism() > 1 && work >= threshold;
+    }
+
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    public long getThreshold() {
+        return threshold;
+    }
+}
@@ -0,0 +1,97 @@
+package network.neural.util.matrix;
+
+/**
+ * plain loops, used when the Vector API is not available.
+ */
+final class ScalarKernels implements Kernels {
+
+    @Override
+    public void add(double[] a, int aOff, double[] b, int bOff, double[] out, int outOff, int length) {
+        for (int n = 0; n < length; n++)
+            out[outOff + n] = a[aOff + n] + b[bOff + n];
+    }
+
+    @Override
+    public void sub(double[] a, int aOff, double[] b, int bOff, double[] out, int outOff, int length) {
+        for (int n = 0; n < length; n++)
+            out[outOff + n] = a[aOff + n] - b[bOff + n];
+    }
+
+    @Override
+    public void mul(double[] a, int aOff, double[] b, int bOff, double[] out, int outOff, int length) {
+        for (int n = 0; n < length; n++)
+            out[outOff + n] = a[aOff + n] * b[bOff + n];
+    }
+
+    @Override
+    public void scale(double[] a, int aOff, double scalar, double[] out, int outOff, int length) {
+        for (int n = 0; n < length; n++)
+            out[outOff + n] = a[aOff + n] * scalar;
+    }
+
+    @Override
+    public void addScalar(double[] a, int aOff, double scalar, double[] out, int outOff, int length) {
+        for (int n = 0; n < length; n++)
+            out[outOff + n] = a[aOff + n] + scalar;
+    }
+
+    @Override
+    public void pow(double[] a, int aOff, int power, double[] out, int outOff, int length) {
+        for (int n = 0; n < length; n++)
+            out[outOff + n] = Math.pow(a[aOff + n], power);
+    }
+
+    @Override
+    public double sum(double[] a, int aOff, int length) {
+        double sum = 0;
+        for (int n = 0; n < length; n++)
+            sum += a[aOff + n];
+
+        return sum;
+    }
+
+    @Override
+    public void add(float[] a, int aOff, float[] b, int bOff, float[] out, int outOff, int length) {
+        for (int n = 0; n < length; n++)
+            out[outOff + n] = a[aOff + n] + b[bOff + n];
+    }
+
+    @Override
+    public void sub(float[] a, int aOff, float[] b, int bOff, float[] out, int outOff, int length) {
+        for (int n = 0; n < length; n++)
+            out[outOff + n] = a[aOff + n] - b[bOff + n];
+    }
+
+    @Override
+    public void mul(float[] a, int aOff, float[] b, int bOff, float[] out, int outOff, int length) {
+        for (int n = 0; n < length; n++)
+            out[outOff + n] = a[aOff + n] * b[bOff + n];
+    }
+
+    @Override
+    public void scale(float[] a, int aOff, float scalar, float[] out, int outOff, int length) {
+        for (int n = 0; n < length; n++)
+            out[outOff + n] = a[aOff + n] * scalar;
+    }
+
+    @Override
+    public void addScalar(float[] a, int aOff, float scalar, float[] out, int outOff, int length) {
+        for (int n = 0; n < length; n++)
+            out[outOff + n] = a[aOff + n] + scalar;
+    }
+
+    @Override
+    public void pow(float[] a, int aOff, int power, float[] out, int outOff, int length) {
+        for (int n = 0; n < length; n++)
+            out[outOff + n] = (float) Math.pow(a[aOff + n], power);
+    }
+
+    @Override
+    public double sum(float[] a, int aOff, int length) {
+        double sum = 0;
+        for (int n = 0; n < length; n++)
+            sum += a[aOff + n];
+
+        return sum;
+    }
+}
@@ -0,0 +1,203 @@
+package network.neural.util.matrix;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * loops built on DoubleVector, using the widest vector shape of the machine.
+ * the tail that does not fill a whole vector is handled with scalar code.
+ */
+final class VectorKernels implements Kernels {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public void add(double[] a, int aOff, double[] b, int bOff, double[] out, int outOff, int length) {
+        int n = 0;
+        for (int bound = SPECIES.loopBound(length); n < bound; n += SPECIES.length())
+            DoubleVector.fromArray(SPECIES, a, aOff + n)
+                    .add(DoubleVector.fromArray(SPECIES, b, bOff + n))
+                    .intoArray(out, outOff + n);
+
+        for (; n < length; n++)
+            out[outOff + n] = a[aOff + n] + b[bOff + n];
+    }
+
+    @Override
+    public void sub(double[] a, int aOff, double[] b, int bOff, double[] out, int outOff, int length) {
+        int n = 0;
+        for (int bound = SPECIES.loopBound(length); n < bound; n += SPECIES.length())
+            DoubleVector.fromArray(SPECIES, a, aOff + n)
+                    .sub(DoubleVector.fromArray(SPECIES, b, bOff + n))
+                    .intoArray(out, outOff + n);
+
+        for (; n < length; n++)
+            out[outOff + n] = a[aOff + n] - b[bOff + n];
+    }
+
+    @Override
+    public void mul(double[] a, int aOff, double[] b, int bOff, double[] out, int outOff, int length) {
+        int n = 0;
+        for (int bound = SPECIES.loopBound(length); n < bound; n += SPECIES.length())
+            DoubleVector.fromArray(SPECIES, a, aOff + n)
+                    .mul(DoubleVector.fromArray(SPECIES, b, bOff + n))
+                    .intoArray(out, outOff + n);
+
+        for (; n < length; n++)
+            out[outOff + n] = a[aOff + n] * b[bOff + n];
+    }
+
+    @Override
+    public void scale(double[] a, int aOff, double scalar, double[] out, int outOff, int length) {
+        int n = 0;
+        for (int bound = SPECIES.loopBound(length); n < bound; n += SPECIES.length())
+            DoubleVector.fromArray(SPECIES, a, aOff + n)
+                    .mul(scalar)
+                    .intoArray(out, outOff + n);
+
+        for (; n < length; n++)
+            out[outOff + n] = a[aOff + n] * scalar;
+    }
+
+    @Override
+    public void addScalar(double[] a, int aOff, double scalar, double[] out, int outOff, int length) {
+        int n = 0;
+        for (int bound = SPECIES.loopBound(length); n < bound; n += SPECIES.length())
+            DoubleVector.fromArray(SPECIES, a, aOff + n)
+                    .add(scalar)
+                    .intoArray(out, outOff + n);
+
+        for (; n < length; n++)
+            out[outOff + n] = a[aOff + n] + scalar;
+    }
+
+    @Override
+    public void pow(double[] a, int aOff, int power, double[] out, int outOff, int length) {
+        int n = 0;
+        for (int bound = SPECIES.loopBound(length); n < bound; n += SPECIES.length()) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, a, aOff + n);
+
+            // squaring is by far the most common case (the cost function), keep it a plain multiply
+            if (power == 2)
+                v = v.mul(v);
+            else
+                v = v.lanewise(VectorOperators.POW, power);
+
+            v.intoArray(out, outOff + n);
+        }
+
+        for (; n < length; n++)
+            out[outOff + n] = Math.pow(a[aOff + n], power);
+    }
+
+    @Override
+    public double sum(double[] a, int aOff, int length) {
+        DoubleVector acc = DoubleVector.zero(SPECIES);
+
+        int n = 0;
+        for (int bound = SPECIES.loopBound(length); n < bound; n += SPECIES.length())
+            acc = acc.add(DoubleVector.fromArray(SPECIES, a, aOff + n));
+
+        double sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; n < length; n++)
+            sum += a[aOff + n];
+
+        return sum;
+    }
+
+    @Override
+    public void add(float[] a, int aOff, float[] b, int bOff, float[] out, int outOff, int length) {
+        int n = 0;
+        for (int bound = FLOATS.loopBound(length); n < bound; n += FLOATS.length())
+            FloatVector.fromArray(FLOATS, a, aOff + n)
+                    .add(FloatVector.fromArray(FLOATS, b, bOff + n))
+                    .intoArray(out, outOff + n);
+
+        for (; n < length; n++)
+            out[outOff + n] = a[aOff + n] + b[bOff + n];
+    }
+
+    @Override
+    public void sub(float[] a, int aOff, float[] b, int bOff, float[] out, int outOff, int length) {
+        int n = 0;
+        for (int bound = FLOATS.loopBound(length); n < bound; n += FLOATS.length())
+            FloatVector.fromArray(FLOATS, a, aOff + n)
+                    .sub(FloatVector.fromArray(FLOATS, b, bOff + n))
+                    .intoArray(out, outOff + n);
+
+        for (; n < length; n++)
+            out[outOff + n] = a[aOff + n] - b[bOff + n];
+    }
+
+    @Override
+    public void mul(float[] a, int aOff, float[] b, int bOff, float[] out, int outOff, int length) {
+        int n = 0;
+        for (int bound = FLOATS.loopBound(length); n < bound; n += FLOATS.length())
+            FloatVector.fromArray(FLOATS, a, aOff + n)
+                    .mul(FloatVector.fromArray(FLOATS, b, bOff + n))
+                    .intoArray(out, outOff + n);
+
+        for (; n < length; n++)
+            out[outOff + n] = a[aOff + n] * b[bOff + n];
+    }
+
+    @Override
+    public void scale(float[] a, int aOff, float scalar, float[] out, int outOff, int length) {
+        int n = 0;
+        for (int bound = FLOATS.loopBound(length); n < bound; n += FLOATS.length())
+            FloatVector.fromArray(FLOATS, a, aOff + n)
+                    .mul(scalar)
+                    .intoArray(out, outOff + n);
+
+        for (; n < length; n++)
+            out[outOff + n] = a[aOff + n] * scalar;
+    }
+
+    @Override
+    public void addScalar(float[] a, int aOff, float scalar, float[] out, int outOff, int length) {
+        int n = 0;
+        for (int bound = FLOATS.loopBound(length); n < bound; n += FLOATS.length())
+            FloatVector.fromArray(FLOATS, a, aOff + n)
+                    .add(scalar)
+                    .intoArray(out, outOff + n);
+
+        for (; n < length; n++)
+            out[outOff + n] = a[aOff + n] + scalar;
+    }
+
+    @Override
+    public void pow(float[] a, int aOff, int power, float[] out, int outOff, int length) {
+        int n = 0;
+        for (int bound = FLOATS.loopBound(length); n < bound; n += FLOATS.length()) {
+            FloatVector v = FloatVector.fromArray(FLOATS, a, aOff + n);
+
+            if (power == 2)
+                v = v.mul(v);
+            else
+                v = v.lanewise(VectorOperators.POW, power);
+
+            v.intoArray(out, outOff + n);
+        }
+
+        for (; n < length; n++)
+            out[outOff + n] = (float) Math.pow(a[aOff + n], power);
+    }
+
+    @Override
+    public double sum(float[] a, int aOff, int length) {
+        double sum = 0;
+
+        // each vector is reduced on its own so the running total stays in double precision
+        int n = 0;
+        for (int bound = FLOATS.loopBound(length); n < bound; n += FLOATS.length())
+            sum += FloatVector.fromArray(FLOATS, a, aOff + n).reduceLanes(VectorOperators.ADD);
+
+        for (; n < length; n++)
+            sum += a[aOff + n];
+
+        return sum;
+    }
+}
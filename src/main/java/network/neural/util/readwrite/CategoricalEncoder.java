@@ -0,0 +1,288 @@
+package network.neural.util.readwrite;
+
+import network.neural.util.matrix.NDArray;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * dictionary encoding of the values of a csv file that are not numbers.
+ *
+ * every column has its own dictionary. the first new value of a column gets code 0,
+ * the next new value code 1 and so on, so the codes only depend on the order of the
+ * rows. a column is categorical once one of its values is not a number.
+ *
+ * a reader with an encoder writes the code of a value into the data (ordinal codes),
+ * encode() can then expand the categorical columns into one-hot blocks. the encoder
+ * is serializable, so it can be saved with a model and reused for inference. a frozen
+ * encoder does not add values anymore, values it has not seen get code -1, which is
+ * encoded as a block of zeros. a frozen encoder does not change anymore, so it can be
+ * shared by threads, e.g. the requests of a model server.
+ */
+public class CategoricalEncoder implements Serializable {
+
+    /**
+     * how encode() writes a categorical column
+     */
+    public enum Encoding {
+        /** a single column with the code of the value */
+        ORDINAL,
+        /** a column per value of the dictionary, 1 for the value of the row and 0 for the others */
+        ONE_HOT
+    }
+
+    private final Encoding encoding;
+    private final List<Column> columns = new ArrayList<>();
+    private boolean frozen;
+
+    public CategoricalEncoder(Encoding encoding) {
+        this.encoding = encoding;
+    }
+
+
+    /**
+     * stops adding values to the dictionaries
+     *
+     * @return the encoder
+     */
+    public CategoricalEncoder freeze() {
+        this.frozen = true;
+        return this;
+    }
+
+
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+
+    /**
+     * @return the code of a value, adding it to the dictionary of the column if it is new.
+     *         -1 if the encoder is frozen and the value is not in the dictionary
+     */
+    public int code(int column, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        return code(column, bytes, bytes.length);
+    }
+
+
+    /**
+     * code() of the first length bytes of a value, without creating a string
+     * for values that are already in the dictionary
+     */
+    int code(int column, byte[] bytes, int length) {
+        if (frozen && column >= columns.size())
+            return -1;
+
+        while (columns.size() <= column)
+            columns.add(null);
+
+        Column dictionary = columns.get(column);
+        if (dictionary == null) {
+            if (frozen)
+                return -1;
+
+            dictionary = new Column();
+            columns.set(column, dictionary);
+        }
+
+        return dictionary.code(bytes, length, frozen);
+    }
+
+
+    /**
+     * @return the value of a code
+     */
+    public String value(int column, int code) {
+        return new String(columns.get(column).values.get(code), StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * the bytes of the value of a code, as they were in the csv file
+     */
+    byte[] bytes(int column, int code) {
+        return columns.get(column).values.get(code);
+    }
+
+
+    /**
+     * @return the number of columns up to the last categorical one
+     */
+    int columns() {
+        return columns.size();
+    }
+
+
+    /**
+     * @return the number of values in the dictionary of a column, 0 for columns of numbers
+     */
+    public int categories(int column) {
+        return isCategorical(column) ? columns.get(column).values.size() : 0;
+    }
+
+
+    public boolean isCategorical(int column) {
+        return column < columns.size() && columns.get(column) != null;
+    }
+
+
+    /**
+     * @return the columns of the result of encode() that hold a column of the data
+     */
+    public int[] encodedColumns(int column) {
+        int start = 0;
+        for (int c = 0; c < column; c++)
+            start += width(c);
+
+        int[] encoded = new int[width(column)];
+        for (int i = 0; i < encoded.length; i++)
+            encoded[i] = start + i;
+
+        return encoded;
+    }
+
+
+    /**
+     * writes data with ordinal codes in the encoding of this encoder. for ONE_HOT every
+     * categorical column is replaced by a block of a column per category, filled in a
+     * single pass over the data. ORDINAL returns the data itself.
+     */
+    public NDArray encode(NDArray data) {
+        if (encoding == Encoding.ORDINAL)
+            return data;
+
+        int rows = data.shape(0);
+        int cols = data.shape(1);
+        int[] start = new int[cols + 1];
+        for (int c = 0; c < cols; c++)
+            start[c + 1] = start[c] + width(c);
+
+        double[] out = new double[rows * start[cols]];
+        for (int i = 0; i < rows; i++) {
+            int row = i * start[cols];
+
+            for (int c = 0; c < cols; c++) {
+                double value = data.get(i, c);
+
+                if (!isCategorical(c))
+                    out[row + start[c]] = value;
+                else if (value >= 0 && value < start[c + 1] - start[c])
+                    out[row + start[c] + (int) value] = 1;
+            }
+        }
+
+        return new NDArray(out, rows, start[cols]).asType(data.dtype());
+    }
+
+
+    /**
+     * the number of columns a column of the data becomes in the result of encode()
+     */
+    private int width(int column) {
+        return encoding == Encoding.ONE_HOT && isCategorical(column) ? categories(column) : 1;
+    }
+
+
+    /**
+     * the dictionary of a single column: an open addressing hash table from the bytes
+     * of a value to its code. the last value is remembered, so a value that repeats
+     * in consecutive rows is recognised by comparing its bytes, without hashing.
+     */
+    private static final class Column implements Serializable {
+
+        private final List<byte[]> values = new ArrayList<>(); // by code
+
+        private transient byte[][] keys;
+        private transient int[] codes;
+        private transient byte[] last;
+        private transient int lastCode;
+
+        Column() {
+            rebuild();
+        }
+
+        /**
+         * a frozen dictionary only reads the table, so any number of threads can
+         * look up values at the same time. the last value is only used while the
+         * dictionary is built by a single reader.
+         */
+        int code(byte[] bytes, int length, boolean frozen) {
+            if (!frozen && last != null && Arrays.equals(last, 0, last.length, bytes, 0, length))
+                return lastCode;
+
+            int mask = keys.length - 1;
+            int slot = hash(bytes, length) & mask;
+
+            while (keys[slot] != null) {
+                if (Arrays.equals(keys[slot], 0, keys[slot].length, bytes, 0, length))
+                    return frozen ? codes[slot] : remember(keys[slot], codes[slot]);
+                slot = (slot + 1) & mask;
+            }
+
+            if (frozen)
+                return -1;
+
+            byte[] key = Arrays.copyOf(bytes, length);
+            int code = values.size();
+            values.add(key);
+            keys[slot] = key;
+            codes[slot] = code;
+
+            if (2 * values.size() > keys.length)
+                rebuild();
+
+            return remember(key, code);
+        }
+
+        private int remember(byte[] key, int code) {
+            last = key;
+            lastCode = code;
+            return code;
+        }
+
+        /**
+         * fills a table of at least twice the number of values
+         */
+        private void rebuild() {
+            int size = Integer.highestOneBit(Math.max(8, values.size() * 4));
+            keys = new byte[size][];
+            codes = new int[size];
+            last = null;
+
+            for (int code = 0; code < values.size(); code++) {
+                byte[] key = values.get(code);
+                int slot = hash(key, key.length) & (size - 1);
+
+                while (keys[slot] != null)
+                    slot = (slot + 1) & (size - 1);
+
+                keys[slot] = key;
+                codes[slot] = code;
+            }
+        }
+
+        private static int hash(byte[] bytes, int length) {
+            int hash = 0;
+            for (int i = 0; i < length; i++)
+                hash = 31 * hash + bytes[i];
+
+            return hash ^ (hash >>> 16);
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            rebuild();
+        }
+    }
+}
@@ -0,0 +1,491 @@
+package network.neural.util.readwrite;
+
+import network.neural.NeuralNetwork;
+import network.neural.activationfunctions.IActivationFunction;
+import network.neural.activationfunctions.LeakyReLU;
+import network.neural.activationfunctions.Linear;
+import network.neural.activationfunctions.ReLU;
+import network.neural.activationfunctions.Sigmoid;
+import network.neural.activationfunctions.Tanh;
+import network.neural.layer.Layer;
+import network.neural.util.matrix.DType;
+import network.neural.util.matrix.NDArray;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * a trained network stored in a binary file: the shape, activation function, weights
+ * and bias of every layer, the learning rate, the precision and the encoder. nothing
+ * of the training is stored, not the errors and buffers of the layers, nor how the
+ * network was trained (sampler, prefetching, parallelism), set those again on the
+ * loaded network to train it further.
+ *
+ * everything is little-endian:
+ *
+ *   int     magic, the bytes "NNCK"
+ *   int     version, 1
+ *   int     dtype, 0 for FLOAT64 and 1 for FLOAT32
+ *   int     number of layers
+ *   double  learning rate
+ *
+ *   per layer:
+ *   int     number of inputs
+ *   int     number of outputs
+ *   int     activation function, see ACTIVATIONS, or -1 followed by the name of its class
+ *
+ *   int     -1 without encoder, else the ordinal of its encoding followed by the
+ *           number of columns, and per column the number of values of its dictionary
+ *           (-1 for a column of numbers) and every value by code as its length and bytes
+ *
+ *   per layer:
+ *           the weights row after row and then the bias, as values of the dtype
+ *
+ *   long    CRC32C of all bytes before it
+ *
+ * strings are an int length followed by the bytes. the weights are copied between the
+ * arrays and a direct buffer of a few megabytes that goes to the file channel, so
+ * saving or loading is about as fast as the disk.
+ *
+ * a checkpoint is written to a temporary file next to it that replaces the old file
+ * only once it is complete, so a failed save leaves the last checkpoint as it was.
+ */
+public class Checkpoint {
+
+    private static final int MAGIC = 'N' | 'N' << 8 | 'C' << 16 | 'K' << 24;
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 1 << 22;
+
+    /** the activation functions by id, new ones are added at the end */
+    private static final String[] ACTIVATIONS = {
+            Linear.class.getName(),
+            ReLU.class.getName(),
+            LeakyReLU.class.getName(),
+            Sigmoid.class.getName(),
+            Tanh.class.getName()
+    };
+
+    private Checkpoint() {
+    }
+
+
+    /**
+     * writes a network to a checkpoint file, replacing the file in one step once
+     * the whole checkpoint is on the disk
+     */
+    public static void write(NeuralNetwork network, Path path) throws IOException {
+        Path target = path.toAbsolutePath();
+        Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                write(network, channel);
+                channel.force(true);
+            }
+
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+
+    private static void write(NeuralNetwork network, FileChannel channel) throws IOException {
+        DType dtype = network.getPrecision();
+        Output out = new Output(channel);
+
+        out.putInt(MAGIC);
+        out.putInt(VERSION);
+        out.putInt(dtype == DType.FLOAT32 ? 1 : 0);
+        out.putInt(network.getLayerCount());
+        out.putDouble(network.getLearningRate());
+
+        for (int i = 0; i < network.getLayerCount(); i++) {
+            Layer layer = network.getLayer(i);
+            String activation = layer.getActivationFunction().getClass().getName();
+            int id = indexOf(activation);
+
+            out.putInt(layer.getWeights().shape(1));
+            out.putInt(layer.getWeights().shape(0));
+            out.putInt(id);
+            if (id < 0)
+                out.putBytes(activation.getBytes(StandardCharsets.UTF_8));
+        }
+
+        writeEncoder(out, network.getEncoder());
+
+        for (int i = 0; i < network.getLayerCount(); i++) {
+            Layer layer = network.getLayer(i);
+            out.putArray(layer.getWeights().asType(dtype));
+            out.putArray(layer.getBias().asType(dtype));
+        }
+
+        out.finish();
+    }
+
+
+    /**
+     * reads a network from a checkpoint file. the shapes in the file are checked against
+     * its size before any array is allocated, so a corrupt file can not ask for more memory
+     * than the file holds.
+     *
+     * @throws IOException if the file can not be read, is not a checkpoint or is corrupt
+     */
+    public static NeuralNetwork read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < 2 * Integer.BYTES + Long.BYTES)
+                throw new IOException(path + " is not a checkpoint");
+
+            Input in = new Input(channel);
+            if (in.getInt() != MAGIC)
+                throw new IOException(path + " is not a checkpoint");
+            if (in.getInt() != VERSION)
+                throw new IOException("Unsupported checkpoint version in " + path);
+
+            DType dtype = dtype(in.getInt());
+            int layers = in.getInt();
+            double learningRate = in.getDouble();
+
+            // every layer has at least its shape and activation function in the file
+            if (layers < 0 || (long) layers * 3 * Integer.BYTES > in.remaining())
+                throw new IOException("Invalid number of layers in " + path);
+
+            NeuralNetwork network = new NeuralNetwork().precision(dtype).learningRate(learningRate);
+            NDArray[] weights = new NDArray[layers];
+            NDArray[] biases = new NDArray[layers];
+            long values = 0; // bytes of the weights and biases of the layers so far
+
+            for (int i = 0; i < layers; i++) {
+                int inputs = in.getInt();
+                int outputs = in.getInt();
+                int id = in.getInt();
+
+                if (inputs < 1 || outputs < 1 || (long) inputs * outputs > Integer.MAX_VALUE)
+                    throw new IOException("Invalid shape of layer " + i + " in " + path);
+
+                values += outputs * (inputs + 1L) * bytes(dtype);
+                if (values > in.remaining())
+                    throw new EOFException("Layer " + i + " does not fit in " + path);
+
+                IActivationFunction activation = activation(id < 0 ? new String(in.getBytes(), StandardCharsets.UTF_8) : name(id));
+                weights[i] = NDArray.zeros(dtype, outputs, inputs);
+                biases[i] = NDArray.zeros(dtype, outputs, 1);
+                network.layer(new Layer(weights[i], biases[i], activation));
+            }
+
+            CategoricalEncoder encoder = readEncoder(in);
+            if (encoder != null)
+                network.encoder(encoder);
+
+            for (int i = 0; i < layers; i++) {
+                in.getArray(weights[i]);
+                in.getArray(biases[i]);
+            }
+
+            in.finish(path);
+            return network;
+        }
+    }
+
+
+    private static void writeEncoder(Output out, CategoricalEncoder encoder) throws IOException {
+        if (encoder == null) {
+            out.putInt(-1);
+            return;
+        }
+
+        out.putInt(encoder.getEncoding().ordinal());
+        out.putInt(encoder.columns());
+
+        for (int column = 0; column < encoder.columns(); column++) {
+            if (!encoder.isCategorical(column)) {
+                out.putInt(-1);
+                continue;
+            }
+
+            out.putInt(encoder.categories(column));
+            for (int code = 0; code < encoder.categories(column); code++)
+                out.putBytes(encoder.bytes(column, code));
+        }
+    }
+
+
+    /**
+     * adds the values of every dictionary in the order of their codes, so every
+     * value gets the code it had
+     */
+    private static CategoricalEncoder readEncoder(Input in) throws IOException {
+        int encoding = in.getInt();
+        if (encoding < 0)
+            return null;
+        if (encoding >= CategoricalEncoder.Encoding.values().length)
+            throw new IOException("Unknown encoding " + encoding);
+
+        CategoricalEncoder encoder = new CategoricalEncoder(CategoricalEncoder.Encoding.values()[encoding]);
+        int columns = in.getInt();
+
+        for (int column = 0; column < columns; column++) {
+            int values = in.getInt();
+
+            for (int code = 0; code < values; code++) {
+                byte[] value = in.getBytes();
+                if (encoder.code(column, value, value.length) != code)
+                    throw new IOException("Duplicate value in the dictionary of column " + column);
+            }
+        }
+
+        return encoder.freeze();
+    }
+
+
+    private static int indexOf(String activation) {
+        for (int id = 0; id < ACTIVATIONS.length; id++)
+            if (ACTIVATIONS[id].equals(activation))
+                return id;
+
+        return -1;
+    }
+
+
+    private static String name(int id) throws IOException {
+        if (id >= ACTIVATIONS.length)
+            throw new IOException("Unknown activation function " + id);
+
+        return ACTIVATIONS[id];
+    }
+
+
+    /**
+     * a new instance of an activation function, through its constructor without arguments.
+     * the class is checked before it is initialised, so a name in the file can not run
+     * the code of any other class.
+     */
+    private static IActivationFunction activation(String name) throws IOException {
+        try {
+            Class<? extends IActivationFunction> type = Class.forName(name, false, Checkpoint.class.getClassLoader())
+                    .asSubclass(IActivationFunction.class);
+
+            return type.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | ClassCastException e) {
+            throw new IOException("Can not create activation function " + name, e);
+        }
+    }
+
+
+    private static DType dtype(int code) throws IOException {
+        switch (code) {
+            case 0: return DType.FLOAT64;
+            case 1: return DType.FLOAT32;
+            default: throw new IOException("Unknown dtype " + code);
+        }
+    }
+
+
+    private static int bytes(DType dtype) {
+        return dtype == DType.FLOAT32 ? Float.BYTES : Double.BYTES;
+    }
+
+
+    /**
+     * collects values in a direct buffer, which is added to the checksum and written
+     * to the channel when it is full
+     */
+    private static final class Output {
+
+        private final FileChannel channel;
+        private final CRC32C checksum = new CRC32C();
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void putInt(int value) throws IOException {
+            reserve(Integer.BYTES).putInt(value);
+        }
+
+        void putDouble(double value) throws IOException {
+            reserve(Double.BYTES).putDouble(value);
+        }
+
+        void putBytes(byte[] value) throws IOException {
+            putInt(value.length);
+            reserve(value.length).put(value);
+        }
+
+        /**
+         * copies as many whole rows at a time as fit in the buffer
+         */
+        void putArray(NDArray values) throws IOException {
+            int cols = values.shape(1);
+            int rowBytes = cols * bytes(values.dtype());
+
+            for (int row = 0; row < values.shape(0); ) {
+                reserve(rowBytes);
+                int rows = Math.min(values.shape(0) - row, buffer.remaining() / rowBytes);
+                ByteBuffer target = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+                if (values.dtype() == DType.FLOAT32)
+                    values.writeRows(target.asFloatBuffer(), 0, row, rows);
+                else
+                    values.writeRows(target.asDoubleBuffer(), 0, row, rows);
+
+                buffer.position(buffer.position() + rows * rowBytes);
+                row += rows;
+            }
+        }
+
+        /**
+         * writes the last values and the checksum
+         */
+        void finish() throws IOException {
+            flush();
+            buffer.putLong(checksum.getValue()).flip();
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+        }
+
+        /**
+         * @return the buffer, with room for at least the given number of bytes
+         */
+        private ByteBuffer reserve(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+                if (buffer.capacity() < bytes)
+                    buffer = ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            }
+
+            return buffer;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            checksum.update(buffer.duplicate());
+            while (buffer.hasRemaining())
+                channel.write(buffer);
+            buffer.clear();
+        }
+    }
+
+
+    /**
+     * reads the file into a direct buffer, adding every byte to the checksum as it
+     * is read. the checksum at the end of the file is read on its own by finish().
+     */
+    private static final class Input {
+
+        private final FileChannel channel;
+        private final CRC32C checksum = new CRC32C();
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private long unread; // bytes before the checksum that are not in the buffer yet
+
+        Input(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.unread = channel.size() - Long.BYTES;
+            buffer.flip();
+        }
+
+        int getInt() throws IOException {
+            return require(Integer.BYTES).getInt();
+        }
+
+        double getDouble() throws IOException {
+            return require(Double.BYTES).getDouble();
+        }
+
+        byte[] getBytes() throws IOException {
+            int length = getInt();
+            if (length < 0 || length > remaining())
+                throw new IOException("Invalid length " + length);
+
+            byte[] value = new byte[length];
+            require(length).get(value);
+            return value;
+        }
+
+        /**
+         * fills an array with as many whole rows at a time as are in the buffer
+         */
+        void getArray(NDArray values) throws IOException {
+            int cols = values.shape(1);
+            int rowBytes = cols * bytes(values.dtype());
+
+            for (int row = 0; row < values.shape(0); ) {
+                require(rowBytes);
+                int rows = Math.min(values.shape(0) - row, buffer.remaining() / rowBytes);
+                ByteBuffer source = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+
+                if (values.dtype() == DType.FLOAT32)
+                    values.readRows(source.asFloatBuffer(), 0, row, rows);
+                else
+                    values.readRows(source.asDoubleBuffer(), 0, row, rows);
+
+                buffer.position(buffer.position() + rows * rowBytes);
+                row += rows;
+            }
+        }
+
+        /**
+         * @return the number of bytes before the checksum that were not read yet
+         */
+        long remaining() {
+            return buffer.remaining() + unread;
+        }
+
+        /**
+         * checks that every byte was read and compares the checksum
+         */
+        void finish(Path path) throws IOException {
+            if (buffer.hasRemaining() || unread > 0)
+                throw new IOException(path + " is longer than its checkpoint");
+
+            ByteBuffer stored = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (long position = channel.size() - Long.BYTES; stored.hasRemaining(); )
+                position += channel.read(stored, position);
+
+            if (stored.getLong(0) != checksum.getValue())
+                throw new IOException("Checksum of " + path + " does not match, the file is corrupt");
+        }
+
+        /**
+         * @return the buffer, holding at least the given number of bytes
+         */
+        private ByteBuffer require(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes)
+                return buffer;
+            if (bytes > remaining())
+                throw new EOFException("Checkpoint ends unexpectedly");
+
+            if (buffer.capacity() < bytes) {
+                ByteBuffer larger = ByteBuffer.allocateDirect(bytes).order(ByteOrder.LITTLE_ENDIAN);
+                buffer = larger.put(buffer);
+            } else {
+                buffer.compact();
+            }
+
+            while (buffer.position() < bytes) {
+                int start = buffer.position();
+                buffer.limit((int) Math.min(buffer.capacity(), start + unread));
+
+                int read = channel.read(buffer);
+                if (read < 0)
+                    throw new EOFException("Checkpoint ends unexpectedly");
+
+                checksum.update(buffer.duplicate().position(start).limit(start + read));
+                unread -= read;
+            }
+
+            buffer.flip();
+            return buffer;
+        }
+    }
+}
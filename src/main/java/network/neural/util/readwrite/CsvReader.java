@@ -0,0 +1,647 @@
+package network.neural.util.readwrite;
+
+import network.neural.util.matrix.NDArray;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * byte level csv parser.
+ *
+ * the file is read through a fixed size buffer and parsed byte by byte, numbers are
+ * parsed straight from the bytes. every row must have the same number of values.
+ * double quotes are removed from a value before it is parsed, and a value that is
+ * not a number becomes the sum of its bytes, or its code in the dictionary of a
+ * {@link CategoricalEncoder} when the reader has one.
+ * quotes do not escape the delimiter, and empty lines are skipped.
+ *
+ * the rows can be read all at once with readAll(), or as blocks of a fixed number
+ * of rows by iterating over the reader, so only one block has to fit in memory.
+ * a whole file can also be read with several threads, see readAll(Path, char, int).
+ */
+public class CsvReader implements Iterator<NDArray>, Closeable {
+
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long MIN_PARALLEL_BYTES = 4 << 20; // smaller files are read by a single thread
+    private static final long MIN_TASK_BYTES = 1 << 20;
+    private static final int TASKS_PER_THREAD = 4; // more tasks than threads evens out the ranges
+    private static final int MAX_DIGITS = 18; // significant digits that fit in a long
+    private static final long MAX_EXACT = 1L << 53;
+    private static final double[] POWERS_OF_TEN = new double[23]; // exactly representable
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++)
+            POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+    }
+
+    private final InputStream in;
+    private final byte delimiter;
+    private final int blockRows;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+
+    private byte[] field = new byte[64]; // the current value, without quotes
+    private int fieldLength;
+
+    private double[] row = new double[16];
+    private int columns = -1;            // set by the first row
+    private long rows;                   // rows read so far
+    private boolean pending;             // row holds a row that has not been returned yet
+
+    private CategoricalEncoder encoder;  // codes of the values that are not numbers, null for byte sums
+
+
+    /**
+     * @param delimiter the byte between two values of a row
+     * @param blockRows the number of rows per block when iterating over the reader
+     */
+    public CsvReader(Path path, char delimiter, int blockRows) throws IOException {
+        this(Files.newInputStream(path), delimiter, blockRows);
+    }
+
+
+    public CsvReader(InputStream in, char delimiter, int blockRows) {
+        if (delimiter > 127 || delimiter == '\n' || delimiter == '\r' || delimiter == '"')
+            throw new IllegalArgumentException("Invalid delimiter '" + delimiter + "'");
+        if (blockRows < 1)
+            throw new IllegalArgumentException("Block size must be at least 1 row");
+
+        this.in = in;
+        this.delimiter = (byte) delimiter;
+        this.blockRows = blockRows;
+    }
+
+
+    /**
+     * encodes the values that are not numbers with the dictionaries of an encoder,
+     * instead of the sum of their bytes. the codes are written as they are (ordinal),
+     * see {@link CategoricalEncoder#encode} for one-hot blocks.
+     *
+     * @return the reader
+     */
+    public CsvReader encoder(CategoricalEncoder encoder) {
+        this.encoder = encoder;
+        return this;
+    }
+
+
+    /**
+     * reads all remaining rows into a single NDArray
+     */
+    public NDArray readAll() throws IOException {
+        if (!nextRow())
+            throw new IllegalArgumentException("No rows to read");
+
+        double[] data = new double[1024 * columns];
+        int count = 0;
+
+        do {
+            if ((count + 1) * columns > data.length)
+                data = Arrays.copyOf(data, data.length * 2);
+
+            System.arraycopy(row, 0, data, count * columns, columns);
+            count++;
+            pending = false;
+        } while (nextRow());
+
+        if (data.length != count * columns)
+            data = Arrays.copyOf(data, count * columns);
+
+        return new NDArray(data, count, columns);
+    }
+
+
+    /**
+     * reads a whole csv file with several threads.
+     *
+     * the file is split into one range of bytes per task, each starting at the beginning
+     * of a line. the rows of every range are counted first, so the result can be
+     * allocated once, and then every range is parsed straight into its own rows of the
+     * result. the values are the same as those of a single reader, since every value
+     * is parsed on its own.
+     *
+     * @param threads the number of threads, files smaller than a few megabytes are read by a single thread
+     */
+    public static NDArray readAll(Path path, char delimiter, int threads) throws IOException {
+        if (threads < 1)
+            throw new IllegalArgumentException("Number of threads must be at least 1");
+
+        long size = Files.size(path);
+        if (threads == 1 || size < MIN_PARALLEL_BYTES) {
+            try (CsvReader reader = new CsvReader(path, delimiter, Integer.MAX_VALUE)) {
+                return reader.readAll();
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long[] bounds = lineBounds(channel, size, (int) Math.min(threads * TASKS_PER_THREAD, size / MIN_TASK_BYTES));
+            int ranges = bounds.length - 1;
+
+            int columns;
+            try (CsvReader first = new CsvReader(new RangeInputStream(channel, 0, size), delimiter, 1)) {
+                if (!first.skipRow())
+                    throw new IllegalArgumentException("No rows to read");
+                columns = first.columns();
+            }
+
+            // count the rows of every range, the first row of range r is start[r]
+            long[] start = new long[ranges + 1];
+            List<Callable<Long>> counts = new ArrayList<>();
+            for (int r = 0; r < ranges; r++) {
+                long from = bounds[r];
+                long to = bounds[r + 1];
+                counts.add(() -> countRows(channel, from, to));
+            }
+
+            List<Future<Long>> rowCounts = pool.invokeAll(counts);
+            for (int r = 0; r < ranges; r++)
+                start[r + 1] = start[r] + get(rowCounts.get(r));
+
+            if (start[ranges] * columns > Integer.MAX_VALUE)
+                throw new IllegalArgumentException(path + " has " + start[ranges] + " rows of " + columns + " values, too many for a single NDArray");
+
+            double[] data = new double[(int) (start[ranges] * columns)];
+            List<Callable<Long>> parses = new ArrayList<>();
+            for (int r = 0; r < ranges; r++) {
+                long from = bounds[r];
+                long to = bounds[r + 1];
+                long firstRow = start[r];
+                int count = (int) (start[r + 1] - start[r]);
+
+                parses.add(() -> {
+                    CsvReader reader = new CsvReader(new RangeInputStream(channel, from, to), delimiter, Integer.MAX_VALUE);
+                    reader.readInto(data, columns, firstRow, count);
+                    return firstRow;
+                });
+            }
+
+            for (Future<Long> parse : pool.invokeAll(parses))
+                get(parse);
+
+            return new NDArray(data, (int) start[ranges], columns);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading " + path);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+
+    /**
+     * @return true if there is at least one more row
+     */
+    @Override
+    public boolean hasNext() {
+        try {
+            return nextRow();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+
+    /**
+     * @return the next block of rows, blockRows rows or fewer for the last block
+     */
+    @Override
+    public NDArray next() {
+        if (!hasNext())
+            throw new NoSuchElementException();
+
+        double[] data = new double[blockRows * columns];
+        int count = 0;
+
+        while (count < blockRows && hasNext()) {
+            System.arraycopy(row, 0, data, count * columns, columns);
+            count++;
+            pending = false;
+        }
+
+        return new NDArray(data, count, columns);
+    }
+
+
+    /**
+     * skips the next row, e.g. the column names
+     * @return false if there was no row left
+     */
+    public boolean skipRow() throws IOException {
+        // the values of a skipped row are not added to the dictionaries
+        CategoricalEncoder encoder = this.encoder;
+        this.encoder = null;
+
+        try {
+            if (!nextRow())
+                return false;
+        } finally {
+            this.encoder = encoder;
+        }
+
+        pending = false;
+        return true;
+    }
+
+
+    /**
+     * @return the number of values per row, -1 before the first row is read
+     */
+    public int columns() {
+        return columns;
+    }
+
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+
+    /**
+     * parses count rows of the given width into data, starting at row firstRow of data
+     */
+    private void readInto(double[] data, int columns, long firstRow, int count) throws IOException {
+        this.columns = columns;
+        this.row = new double[columns];
+        this.rows = firstRow;
+
+        for (int i = 0; i < count; i++) {
+            if (!nextRow())
+                throw new IllegalStateException("Expected " + count + " rows from row " + (firstRow + 1) + ", got " + i);
+
+            System.arraycopy(row, 0, data, (int) ((firstRow + i) * columns), columns);
+            pending = false;
+        }
+    }
+
+
+    /**
+     * splits a file into ranges of about the same size that start at the beginning of a line
+     * @return the start of each range, followed by the size of the file
+     */
+    private static long[] lineBounds(FileChannel channel, long size, int ranges) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long[] bounds = new long[ranges + 1];
+        int n = 1;
+
+        for (int r = 1; r < ranges; r++) {
+            // the first line that starts at or after the nominal start
+            long position = Math.max(r * (size / ranges) - 1, bounds[n - 1]);
+            long bound = size;
+
+            search:
+            while (position < size) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read < 0)
+                    break;
+
+                for (int i = 0; i < read; i++) {
+                    if (buffer.get(i) == '\n') {
+                        bound = position + i + 1;
+                        break search;
+                    }
+                }
+                position += read;
+            }
+
+            if (bound > bounds[n - 1] && bound < size)
+                bounds[n++] = bound;
+        }
+
+        bounds[n++] = size;
+        return Arrays.copyOf(bounds, n);
+    }
+
+
+    /**
+     * counts the rows in a range of a file the way nextRow reads them:
+     * every run of bytes without a line break is a row
+     */
+    private static long countRows(FileChannel channel, long from, long to) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        byte[] bytes = buffer.array();
+        long rows = 0;
+        boolean lineBreak = true;
+
+        for (long position = from; position < to; ) {
+            buffer.clear().limit((int) Math.min(BUFFER_SIZE, to - position));
+            int read = channel.read(buffer, position);
+            if (read < 0)
+                break;
+
+            for (int i = 0; i < read; i++) {
+                boolean b = bytes[i] == '\n' || bytes[i] == '\r';
+                if (lineBreak && !b)
+                    rows++;
+                lineBreak = b;
+            }
+            position += read;
+        }
+
+        return rows;
+    }
+
+
+    /**
+     * waits for a task, rethrowing what it threw
+     */
+    private static long get(Future<Long> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            throw new IllegalStateException(cause);
+        }
+    }
+
+
+    /**
+     * parses the next row into row, unless a row is already pending
+     * @return false at the end of the file
+     */
+    private boolean nextRow() throws IOException {
+        if (pending)
+            return true;
+
+        // skip empty lines and the \n of \r\n
+        while (true) {
+            if (position == limit && !fill())
+                return false;
+
+            byte b = buffer[position];
+            if (b != '\n' && b != '\r')
+                break;
+            position++;
+        }
+
+        int n = 0;
+        int end;
+        do {
+            end = readField();
+
+            if (n == row.length) {
+                if (columns >= 0)
+                    throw new IllegalArgumentException("Row " + (rows + 1) + " has more than " + columns + " values");
+                row = Arrays.copyOf(row, row.length * 2);
+            }
+            row[n] = parseField(n);
+            n++;
+        } while (end == delimiter);
+
+        if (columns < 0) {
+            columns = n;
+            row = Arrays.copyOf(row, n);
+        } else if (n != columns) {
+            throw new IllegalArgumentException("Row " + (rows + 1) + " has " + n + " values, expected " + columns);
+        }
+
+        rows++;
+        pending = true;
+        return true;
+    }
+
+
+    /**
+     * copies the bytes of the next value to field, leaving out quotes
+     * @return the byte that ended the value: the delimiter, a line break or -1 at the end of the file
+     */
+    private int readField() throws IOException {
+        fieldLength = 0;
+
+        while (true) {
+            if (position == limit && !fill())
+                return -1;
+
+            byte[] buffer = this.buffer;
+            int p = position;
+            int limit = this.limit;
+
+            while (p < limit) {
+                byte b = buffer[p++];
+
+                if (b == delimiter || b == '\n' || b == '\r') {
+                    position = p;
+                    return b;
+                }
+
+                if (b != '"') {
+                    if (fieldLength == field.length)
+                        field = Arrays.copyOf(field, field.length * 2);
+                    field[fieldLength++] = b;
+                }
+            }
+            position = p;
+        }
+    }
+
+
+    private boolean fill() throws IOException {
+        int read = in.read(buffer, 0, buffer.length);
+        position = 0;
+        limit = Math.max(read, 0);
+
+        return read > 0;
+    }
+
+
+    private double parseField(int column) {
+        double value = parseNumber(field, fieldLength);
+        if (!Double.isNaN(value))
+            return value;
+
+        // text such as "yes" or "GP" can not be a number, skip the exception of parseDouble
+        if (maybeNumber(field, fieldLength)) {
+            String text = new String(field, 0, fieldLength, StandardCharsets.UTF_8);
+            try {
+                return Double.parseDouble(text);
+            } catch (NumberFormatException e) {
+                // not a number after all
+            }
+        }
+
+        return encoder != null ? encoder.code(column, field, fieldLength) : sum(field, fieldLength);
+    }
+
+
+    /**
+     * parses a plain decimal number, [+-]digits[.digits][(e|E)[+-]digits].
+     * the result is only computed here when it is exact: at most 18 significant digits
+     * that fit in 53 bits and a power of ten that is a double itself, so the single
+     * multiplication or division rounds correctly. anything else, including
+     * surrounding whitespace, is left to Double.parseDouble.
+     *
+     * @return the value, or NaN if it has to be parsed by Double.parseDouble
+     */
+    static double parseNumber(byte[] s, int length) {
+        int i = 0;
+        boolean negative = false;
+
+        if (length > 0 && (s[0] == '-' || s[0] == '+')) {
+            negative = s[0] == '-';
+            i++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean any = false;
+
+        for (; i < length; i++) {
+            int d = s[i] - '0';
+            if (d < 0 || d > 9)
+                break;
+            if (digits == MAX_DIGITS)
+                return Double.NaN;
+
+            mantissa = mantissa * 10 + d;
+            if (mantissa != 0)
+                digits++;
+            any = true;
+        }
+
+        if (i < length && s[i] == '.') {
+            for (i++; i < length; i++) {
+                int d = s[i] - '0';
+                if (d < 0 || d > 9)
+                    break;
+                if (digits == MAX_DIGITS)
+                    return Double.NaN;
+
+                mantissa = mantissa * 10 + d;
+                if (mantissa != 0)
+                    digits++;
+                exponent--;
+                any = true;
+            }
+        }
+
+        if (!any)
+            return Double.NaN;
+
+        if (i < length && (s[i] == 'e' || s[i] == 'E')) {
+            i++;
+            boolean negativeExponent = false;
+            if (i < length && (s[i] == '-' || s[i] == '+')) {
+                negativeExponent = s[i] == '-';
+                i++;
+            }
+
+            int value = 0;
+            int start = i;
+            for (; i < length && i - start < 4; i++) {
+                int d = s[i] - '0';
+                if (d < 0 || d > 9)
+                    break;
+                value = value * 10 + d;
+            }
+
+            if (i == start)
+                return Double.NaN;
+            exponent += negativeExponent ? -value : value;
+        }
+
+        if (i != length)
+            return Double.NaN;
+
+        if (mantissa == 0)
+            return negative ? -0.0 : 0.0;
+        if (mantissa > MAX_EXACT || exponent < -22 || exponent > 22)
+            return Double.NaN;
+
+        double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+        return negative ? -value : value;
+    }
+
+
+    /**
+     * @return false if Double.parseDouble is certain to reject the value: the first
+     *         character that is not whitespace can not start a number, NaN or Infinity
+     */
+    private static boolean maybeNumber(byte[] s, int length) {
+        for (int i = 0; i < length; i++) {
+            byte b = s[i];
+            if (b <= ' ')
+                continue;
+
+            return (b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'N' || b == 'I';
+        }
+
+        return false;
+    }
+
+
+    /**
+     * the sum of the bytes of a value that is not a number
+     */
+    private static double sum(byte[] bytes, int length) {
+        double sum = 0;
+
+        for (int i = 0; i < length; i++)
+            sum += bytes[i];
+
+        return sum;
+    }
+
+
+    /**
+     * the bytes of a range of a file, read with positional reads so several
+     * streams can read the same channel at once. closing it leaves the channel open.
+     */
+    private static final class RangeInputStream extends InputStream {
+
+        private final FileChannel channel;
+        private final long end;
+        private long position;
+
+        RangeInputStream(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= end)
+                return -1;
+
+            int read = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - position)), position);
+            if (read > 0)
+                position += read;
+
+            return read;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 1 ? -1 : b[0] & 0xff;
+        }
+    }
+}
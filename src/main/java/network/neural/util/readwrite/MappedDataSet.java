@@ -0,0 +1,364 @@
+package network.neural.util.readwrite;
+
+import network.neural.util.DataSet;
+import network.neural.util.matrix.DType;
+import network.neural.util.matrix.NDArray;
+
+import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * a dataset stored in a binary file, read through a memory mapping.
+ *
+ * the file starts with a header of 32 bytes, all little-endian:
+ *
+ *   int   magic, the bytes "NNDS"
+ *   int   version, 1
+ *   int   dtype, 0 for FLOAT64 and 1 for FLOAT32
+ *   int   number of feature columns
+ *   int   number of label columns
+ *   int   unused
+ *   long  number of rows
+ *
+ * followed by the features, row after row, and then the labels, row after row,
+ * as little-endian values of the dtype. the rows of a batch are therefore two
+ * consecutive ranges of the file, which are copied straight from the mapping
+ * (the page cache) into the batch without any parsing.
+ */
+public class MappedDataSet {
+
+    private static final int MAGIC = 'N' | 'N' << 8 | 'D' << 16 | 'S' << 24;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final long MAX_REGION = Integer.MAX_VALUE; // the largest mapping of a single buffer
+
+    private final DType dtype;
+    private final int rows;
+    private final Section x;
+    private final Section y;
+
+    private MappedDataSet(DType dtype, int rows, Section x, Section y) {
+        this.dtype = dtype;
+        this.rows = rows;
+        this.x = x;
+        this.y = y;
+    }
+
+
+    /**
+     * maps a dataset file. the file stays mapped until this instance is garbage collected.
+     */
+    public static MappedDataSet open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining())
+                if (channel.read(header) < 0)
+                    break;
+
+            if (header.hasRemaining() || header.getInt(0) != MAGIC)
+                throw new IOException(path + " is not a dataset file");
+            if (header.getInt(4) != VERSION)
+                throw new IOException("Unsupported dataset file version " + header.getInt(4));
+
+            DType dtype = dtype(header.getInt(8));
+            int features = header.getInt(12);
+            int labels = header.getInt(16);
+            long rows = header.getLong(24);
+            int bytes = bytes(dtype);
+
+            if (features < 1 || labels < 1 || rows < 0 || rows > Integer.MAX_VALUE)
+                throw new IOException("Invalid shape in the header of " + path);
+            if (channel.size() != HEADER_SIZE + rows * (features + labels) * bytes)
+                throw new IOException(path + " has " + channel.size() + " bytes, expected " + (HEADER_SIZE + rows * (features + labels) * bytes));
+
+            Section x = new Section(channel, HEADER_SIZE, (int) rows, features, dtype);
+            Section y = new Section(channel, HEADER_SIZE + rows * features * bytes, (int) rows, labels, dtype);
+
+            return new MappedDataSet(dtype, (int) rows, x, y);
+        }
+    }
+
+
+    /**
+     * writes a dataset to a file, in the dtype of its features
+     */
+    public static void write(DataSet dataSet, Path path) throws IOException {
+        NDArray x = dataSet.getX();
+        NDArray y = dataSet.getY().asType(x.dtype());
+
+        if (y.shape(0) != x.shape(0))
+            throw new IllegalArgumentException("Incompatible shapes " + Arrays.toString(x.shape()) + " and " + Arrays.toString(y.shape()));
+
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+            out.position(HEADER_SIZE);
+            writeColumns(out, x, 0, x.shape(1), x.dtype(), buffer);
+            writeColumns(out, y, 0, y.shape(1), x.dtype(), buffer);
+            writeHeader(out, x.dtype(), x.shape(1), y.shape(1), x.shape(0));
+        }
+    }
+
+
+    /**
+     * writes the rows of a csv reader to a dataset file, one block at a time, so the
+     * csv file does not have to fit in memory. the last labelColumns columns of each
+     * row are the labels, as in {@link DataSet#split}. the labels are collected in a
+     * temporary file next to the dataset file until all features are written.
+     */
+    static void convert(CsvReader reader, Path path, int labelColumns, DType dtype) throws IOException {
+        Path labelFile = Files.createTempFile(path.toAbsolutePath().getParent(), "labels", ".tmp");
+
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             FileChannel labels = FileChannel.open(labelFile, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            long rows = 0;
+            int columns = -1;
+
+            out.position(HEADER_SIZE);
+            while (reader.hasNext()) {
+                NDArray block = reader.next();
+                columns = block.shape(1);
+
+                if (labelColumns < 1 || labelColumns >= columns)
+                    throw new IllegalArgumentException("Can not take " + labelColumns + " label columns from rows of " + columns + " values");
+
+                writeColumns(out, block, 0, columns - labelColumns, dtype, buffer);
+                writeColumns(labels, block, columns - labelColumns, columns, dtype, buffer);
+                rows += block.shape(0);
+            }
+
+            if (columns < 0)
+                throw new IllegalArgumentException("No rows to convert");
+
+            long size = labels.size();
+            for (long position = 0; position < size; )
+                position += labels.transferTo(position, size - position, out);
+
+            writeHeader(out, dtype, columns - labelColumns, labelColumns, rows);
+        } finally {
+            Files.deleteIfExists(labelFile);
+        }
+    }
+
+
+    /**
+     * @return the number of rows
+     */
+    public int rows() {
+        return rows;
+    }
+
+
+    /**
+     * @return the number of feature columns
+     */
+    public int features() {
+        return x.cols;
+    }
+
+
+    /**
+     * @return the number of label columns
+     */
+    public int labels() {
+        return y.cols;
+    }
+
+
+    public DType dtype() {
+        return dtype;
+    }
+
+
+    /**
+     * copies the whole dataset into memory
+     */
+    public DataSet load() {
+        return readRows(0, newBuffer(rows));
+    }
+
+
+    /**
+     * @return a buffer for a batch of batchSize rows, or fewer if the dataset is smaller
+     */
+    public DataSet newBuffer(int batchSize) {
+        if (batchSize < 1 && rows > 0)
+            throw new IllegalArgumentException("Batch size must be at least 1");
+
+        int size = Math.min(batchSize, rows);
+        return new DataSet(empty(size, x.cols), empty(size, y.cols));
+    }
+
+
+    /**
+     * copies consecutive rows, starting at row start, into out
+     *
+     * @param out a buffer from newBuffer(), or a view of its first rows
+     * @return out
+     */
+    public DataSet readRows(int start, DataSet out) {
+        int count = out.getX().shape(0);
+        checkBuffer(out, count);
+
+        if (start < 0 || start + count > rows)
+            throw new IllegalArgumentException("Invalid row range [" + start + ", " + (start + count) + ") for " + rows + " rows");
+
+        x.read(start, count, out.getX(), 0);
+        y.read(start, count, out.getY(), 0);
+
+        return out;
+    }
+
+
+    /**
+     * copies rows into out, row i of out is row indices[start + i]
+     *
+     * @param out a buffer from newBuffer(), or a view of its first rows
+     * @return out
+     */
+    public DataSet gatherRows(int[] indices, int start, DataSet out) {
+        int count = out.getX().shape(0);
+        checkBuffer(out, count);
+
+        for (int i = 0; i < count; i++) {
+            int row = indices[start + i];
+            if (row < 0 || row >= rows)
+                throw new IllegalArgumentException("Row " + row + " out of range for " + rows + " rows");
+
+            x.read(row, 1, out.getX(), i);
+            y.read(row, 1, out.getY(), i);
+        }
+
+        return out;
+    }
+
+
+    private void checkBuffer(DataSet out, int count) {
+        if (out.getY().shape(0) != count || out.getX().shape(1) != x.cols || out.getY().shape(1) != y.cols)
+            throw new IllegalArgumentException("Incompatible shapes " + Arrays.toString(out.getX().shape()) + " and " + Arrays.toString(out.getY().shape()));
+    }
+
+
+    private NDArray empty(int rows, int cols) {
+        if (dtype == DType.FLOAT32)
+            return new NDArray(new float[rows * cols], rows, cols);
+
+        return new NDArray(new double[rows * cols], rows, cols);
+    }
+
+
+    /**
+     * writes the given columns of every row of values, converted to dtype
+     */
+    private static void writeColumns(FileChannel out, NDArray values, int from, int to, DType dtype, ByteBuffer buffer) throws IOException {
+        int bytes = bytes(dtype);
+
+        for (int i = 0; i < values.shape(0); i++) {
+            for (int j = from; j < to; j++) {
+                if (buffer.remaining() < bytes)
+                    flush(out, buffer);
+
+                if (dtype == DType.FLOAT32)
+                    buffer.putFloat((float) values.get(i, j));
+                else
+                    buffer.putDouble(values.get(i, j));
+            }
+        }
+
+        flush(out, buffer);
+    }
+
+
+    private static void writeHeader(FileChannel out, DType dtype, int features, int labels, long rows) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(dtype == DType.FLOAT32 ? 1 : 0)
+                .putInt(features).putInt(labels).putInt(0).putLong(rows)
+                .flip();
+
+        for (long position = 0; header.hasRemaining(); )
+            position += out.write(header, position);
+    }
+
+
+    private static void flush(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            out.write(buffer);
+        buffer.clear();
+    }
+
+
+    private static DType dtype(int code) throws IOException {
+        switch (code) {
+            case 0: return DType.FLOAT64;
+            case 1: return DType.FLOAT32;
+            default: throw new IOException("Unknown dtype " + code);
+        }
+    }
+
+
+    private static int bytes(DType dtype) {
+        return dtype == DType.FLOAT32 ? Float.BYTES : Double.BYTES;
+    }
+
+
+    /**
+     * the features or the labels of the file. a single buffer can map at most 2 GB,
+     * so a larger section is mapped as several regions of whole rows.
+     */
+    private static final class Section {
+
+        private final int cols;
+        private final int rowsPerRegion;
+        private final Buffer[] regions; // a DoubleBuffer or FloatBuffer per region
+
+        Section(FileChannel channel, long position, int rows, int cols, DType dtype) throws IOException {
+            long rowBytes = (long) cols * bytes(dtype);
+
+            this.cols = cols;
+            this.rowsPerRegion = (int) Math.max(1, Math.min(Math.max(rows, 1), MAX_REGION / rowBytes));
+            this.regions = new Buffer[(rows + rowsPerRegion - 1) / rowsPerRegion];
+
+            for (int r = 0; r < regions.length; r++) {
+                int first = r * rowsPerRegion;
+                int count = Math.min(rowsPerRegion, rows - first);
+
+                MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position + first * rowBytes, count * rowBytes);
+                region.order(ByteOrder.LITTLE_ENDIAN);
+                regions[r] = dtype == DType.FLOAT32 ? region.asFloatBuffer() : region.asDoubleBuffer();
+            }
+        }
+
+        /**
+         * copies count rows, starting at row, into out, starting at row outRow
+         */
+        void read(int row, int count, NDArray out, int outRow) {
+            while (count > 0) {
+                int region = row / rowsPerRegion;
+                int first = row - region * rowsPerRegion;
+                int n = Math.min(count, rowsPerRegion - first);
+
+                if (regions[region] instanceof FloatBuffer)
+                    out.readRows((FloatBuffer) regions[region], first * cols, outRow, n);
+                else
+                    out.readRows((DoubleBuffer) regions[region], first * cols, outRow, n);
+
+                row += n;
+                outRow += n;
+                count -= n;
+            }
+        }
+    }
+}
@@ -1,118 +1,131 @@
 package network.neural.util.readwrite;
 
+import network.neural.util.DataSet;
+import network.neural.util.matrix.DType;
 import network.neural.util.matrix.NDArray;
 
-import java.io.File;
-import java.io.FileNotFoundException;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Scanner;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 public class ReadIO {
 
-    private static String COMMA_DELIMITER = ",";
+    private static final String DATASETS = "src/main/resources/datasets/";
+    private static final char COMMA_DELIMITER = ',';
+    private static final int CONVERT_BLOCK_ROWS = 4096;
 
+    /**
+     * reads a comma separated file from the datasets folder
+     */
     public static NDArray readCsv(String filename) {
-        List<double[]> records = new ArrayList<>();
-
-        try (Scanner scanner = new Scanner(new File("src/main/resources/datasets/" + filename))) {
-
-            while (scanner.hasNextLine())
-                records.add(getRecordFromLine(scanner.nextLine()));
+        return readCsv(Paths.get(DATASETS, filename));
+    }
 
-        } catch (FileNotFoundException e) {e.printStackTrace();}
 
-        return listToNDArray(records);
+    /**
+     * reads a comma separated file, see {@link CsvReader} for the format
+     */
+    public static NDArray readCsv(Path path) {
+        return readCsv(path, COMMA_DELIMITER);
     }
 
 
     /**
-     * splits a line from a csv file into a double array
+     * reads a csv file with the given delimiter, see {@link CsvReader} for the format.
+     * large files are read with a thread per available processor.
      */
-    private static double[] getRecordFromLine(String line) {
-        List<String> values = new ArrayList<>();
+    public static NDArray readCsv(Path path, char delimiter) {
+        return readCsv(path, delimiter, Runtime.getRuntime().availableProcessors());
+    }
 
-        try (Scanner rowScanner = new Scanner(line)) {
-            rowScanner.useDelimiter(COMMA_DELIMITER);
 
-            while (rowScanner.hasNext())
-                values.add(rowScanner.next());
+    /**
+     * reads a csv file with the given number of threads, see {@link CsvReader#readAll(Path, char, int)}
+     */
+    public static NDArray readCsv(Path path, char delimiter, int threads) {
+        try {
+            return CsvReader.readAll(path, delimiter, threads);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + path, e);
         }
-
-        return stringToDouble(values);
     }
 
 
     /**
-     * converts a list of strings to a double array
+     * reads a csv file, encoding the values that are not numbers with the dictionaries
+     * of an encoder, see {@link CategoricalEncoder}. the file is read by a single thread,
+     * so the codes are given in the order of the rows.
+     *
+     * @param header true if the first row holds the column names, it is left out
+     * @return the data in the encoding of the encoder, one-hot blocks for ONE_HOT
      */
-    private static double[] stringToDouble(List<String> values) {
-        double[] valuesDouble = new double[values.size()];
-
-        for (int i = 0; i < values.size(); i++)
-            valuesDouble[i] = stringToDouble(values.get(i));
-
-        return valuesDouble;
+    public static NDArray readCsv(Path path, char delimiter, boolean header, CategoricalEncoder encoder) {
+        try (CsvReader reader = new CsvReader(path, delimiter, Integer.MAX_VALUE).encoder(encoder)) {
+            if (header)
+                reader.skipRow();
+
+            return encoder.encode(reader.readAll());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + path, e);
+        }
     }
 
 
     /**
-     * converts a string to a double
+     * opens a csv file to be read in blocks of blockRows rows, for files that do not
+     * fit in memory at once. the reader has to be closed.
      */
-    private static double stringToDouble(String value) {
-        double valueDouble;
-
-        value = removeChar(value, '"');
-
+    public static CsvReader streamCsv(Path path, char delimiter, int blockRows) {
         try {
-            valueDouble = Double.parseDouble(value);
-        } catch (NumberFormatException e) {
-            byte[] stringBytes= value.getBytes(StandardCharsets.UTF_8);
-            valueDouble = sum(stringBytes);
+            return new CsvReader(path, delimiter, blockRows);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open " + path, e);
         }
-        return valueDouble;
     }
 
 
     /**
-     * returns teh string without containing the character c;
+     * converts a csv file to a binary dataset file, see {@link MappedDataSet}.
+     * the csv file is read in blocks, so it does not have to fit in memory.
+     *
+     * @param header true if the first row holds the column names, it is left out
+     * @param labelColumns the number of columns at the end of each row that are labels
+     * @param dtype the precision of the values in the dataset file
      */
-    private static String removeChar(String value, char c) {
-        StringBuilder sb = new StringBuilder();
-
-        for (int i = 0; i < value.length(); i++)
-            if (value.charAt(i) != c)
-                sb.append(value.charAt(i));
-
-        return sb.toString();
+    public static void convertCsv(Path csv, Path dataset, char delimiter, boolean header, int labelColumns, DType dtype) {
+        try (CsvReader reader = new CsvReader(csv, delimiter, CONVERT_BLOCK_ROWS)) {
+            if (header)
+                reader.skipRow();
+
+            MappedDataSet.convert(reader, dataset, labelColumns, dtype);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not convert " + csv, e);
+        }
     }
 
 
     /**
-     * returns the sum of a byte array, but excludes the " character
+     * writes a dataset to a binary dataset file, see {@link MappedDataSet}
      */
-    private static double sum(byte[] string) {
-        double sum = 0;
-
-        for (byte b : string)
-            if (b != 34) // 34 is the ASCII code for "
-                sum += b;
-
-        return sum;
+    public static void writeDataSet(DataSet dataSet, Path path) {
+        try {
+            MappedDataSet.write(dataSet, path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not write " + path, e);
+        }
     }
 
 
     /**
-     * converts the list of double arrays to an NDArray
+     * maps a binary dataset file into memory, the values are not read until they are used
      */
-    private static NDArray listToNDArray(List<double[]> list) {
-        double[][] recordsDouble = new double[list.size()][];
-
-        for (int i = 0; i < list.size(); i++)
-            recordsDouble[i] = list.get(i);
-
-        return new NDArray(recordsDouble);
+    public static MappedDataSet mapDataSet(Path path) {
+        try {
+            return MappedDataSet.open(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read " + path, e);
+        }
     }
 
 }
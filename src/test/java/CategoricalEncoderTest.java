@@ -0,0 +1,121 @@
+import network.neural.util.matrix.NDArray;
+import network.neural.util.readwrite.CategoricalEncoder;
+import network.neural.util.readwrite.CsvReader;
+import network.neural.util.readwrite.ReadIO;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class CategoricalEncoderTest {
+
+    private static NDArray read(String csv, CategoricalEncoder encoder) throws IOException {
+        byte[] bytes = csv.getBytes(StandardCharsets.UTF_8);
+        try (CsvReader reader = new CsvReader(new ByteArrayInputStream(bytes), ',', Integer.MAX_VALUE).encoder(encoder)) {
+            return reader.readAll();
+        }
+    }
+
+    @Test
+    public void testOrdinal() throws IOException {
+        CategoricalEncoder encoder = new CategoricalEncoder(CategoricalEncoder.Encoding.ORDINAL);
+
+        NDArray data = read("ab,1,x\nba,2,x\n\"ab\",3,y\nc,4,x\n", encoder);
+
+        assertArrayEquals(new double[] {0, 1, 0, 2}, data.getColumn(0).T().data()[0]);
+        assertArrayEquals(new double[] {1, 2, 3, 4}, data.getColumn(1).T().data()[0]);
+        assertArrayEquals(new double[] {0, 0, 1, 0}, data.getColumn(2).T().data()[0]);
+        assertEquals("ba", encoder.value(0, 1));
+        assertEquals(3, encoder.categories(0));
+        assertFalse(encoder.isCategorical(1));
+    }
+
+    @Test
+    public void testOneHot() throws IOException {
+        CategoricalEncoder encoder = new CategoricalEncoder(CategoricalEncoder.Encoding.ONE_HOT);
+
+        NDArray data = encoder.encode(read("5,red,yes\n6,green,no\n7,blue,yes\n8,green,yes\n", encoder));
+
+        assertArrayEquals(new int[] {4, 6}, data.shape());
+        assertArrayEquals(new double[] {6, 0, 1, 0, 0, 1}, data.getRow(1).data()[0]);
+        assertArrayEquals(new double[] {8, 0, 1, 0, 1, 0}, data.getRow(3).data()[0]);
+        assertArrayEquals(new int[] {1, 2, 3}, encoder.encodedColumns(1));
+        assertArrayEquals(new int[] {4, 5}, encoder.encodedColumns(2));
+    }
+
+    @Test
+    public void testFrozenAfterSaving() throws IOException, ClassNotFoundException {
+        CategoricalEncoder encoder = new CategoricalEncoder(CategoricalEncoder.Encoding.ONE_HOT);
+        read("red,1\ngreen,2\n", encoder);
+        encoder.freeze();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(encoder);
+        }
+        CategoricalEncoder loaded;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            loaded = (CategoricalEncoder) in.readObject();
+        }
+
+        assertTrue(loaded.isFrozen());
+        NDArray data = loaded.encode(read("green,3\npurple,4\nred,5\n", loaded));
+
+        assertArrayEquals(new double[] {0, 1, 3}, data.getRow(0).data()[0]);
+        assertArrayEquals(new double[] {0, 0, 4}, data.getRow(1).data()[0]);
+        assertArrayEquals(new double[] {1, 0, 5}, data.getRow(2).data()[0]);
+        assertEquals(2, loaded.categories(0));
+    }
+
+    @Test
+    public void testConcurrentLookups() throws InterruptedException {
+        String[] values = {"north", "east", "south", "west"};
+        CategoricalEncoder encoder = new CategoricalEncoder(CategoricalEncoder.Encoding.ORDINAL);
+        for (String value : values)
+            encoder.code(0, value);
+        encoder.freeze();
+
+        AtomicInteger wrong = new AtomicInteger();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            int first = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 200_000; i++) {
+                    int code = (first + i) % values.length;
+                    if (encoder.code(0, values[code]) != code)
+                        wrong.incrementAndGet();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(0, wrong.get());
+        assertEquals(-1, encoder.code(7, "north"));
+        assertFalse(encoder.isCategorical(7));
+    }
+
+    @Test
+    public void testReadCsv() {
+        CategoricalEncoder encoder = new CategoricalEncoder(CategoricalEncoder.Encoding.ONE_HOT);
+
+        NDArray data = ReadIO.readCsv(Paths.get("src/main/resources/datasets/student-por.csv"), ';', true, encoder);
+
+        assertEquals(649, data.shape(0));
+        assertEquals(2, encoder.categories(0)); // school: GP or MS
+        assertEquals(1.0, data.get(0, 0) + data.get(0, 1));
+    }
+
+}
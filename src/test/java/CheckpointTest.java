@@ -0,0 +1,240 @@
+import network.neural.NeuralNetwork;
+import network.neural.activationfunctions.IActivationFunction;
+import network.neural.activationfunctions.LeakyReLU;
+import network.neural.activationfunctions.Sigmoid;
+import network.neural.activationfunctions.Tanh;
+import network.neural.layer.Layer;
+import network.neural.util.DataSet;
+import network.neural.util.matrix.DType;
+import network.neural.util.matrix.NDArray;
+import network.neural.util.readwrite.CategoricalEncoder;
+import network.neural.util.readwrite.Checkpoint;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CheckpointTest {
+
+    private static volatile boolean unsafeInitialised;
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        for (DType dtype : DType.values()) {
+            NeuralNetwork nn = network().precision(dtype);
+            nn.train(new DataSet(NDArray.rand(20, 4), NDArray.rand(20, 1)), 2, 5);
+            Path path = Files.createTempFile("checkpoint", ".nn");
+
+            try {
+                nn.save(path.toString());
+                NeuralNetwork loaded = NeuralNetwork.load(path.toString());
+
+                assertEquals(dtype, loaded.getPrecision());
+                assertEquals(0.05, loaded.getLearningRate());
+                assertEquals(nn.getLayerCount(), loaded.getLayerCount());
+                assertNull(loaded.getLayer(0).getError());
+
+                for (int i = 0; i < nn.getLayerCount(); i++) {
+                    assertEquals(nn.getLayer(i).getActivationFunction().getClass(), loaded.getLayer(i).getActivationFunction().getClass());
+                    assertSame(nn.getLayer(i).getWeights(), loaded.getLayer(i).getWeights());
+                    assertSame(nn.getLayer(i).getBias(), loaded.getLayer(i).getBias());
+                }
+
+                // still trains after loading
+                loaded.train(new DataSet(NDArray.rand(20, 4), NDArray.rand(20, 1)), 1, 5);
+            } finally {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Test
+    public void testEncoder() throws IOException {
+        CategoricalEncoder encoder = new CategoricalEncoder(CategoricalEncoder.Encoding.ONE_HOT);
+        encoder.code(1, "red");
+        encoder.code(1, "green");
+        encoder.code(3, "bl\u00e5");
+        Path path = Files.createTempFile("checkpoint", ".nn");
+
+        try {
+            network().encoder(encoder).save(path.toString());
+            CategoricalEncoder loaded = NeuralNetwork.load(path.toString()).getEncoder();
+
+            assertEquals(CategoricalEncoder.Encoding.ONE_HOT, loaded.getEncoding());
+            assertEquals(0, loaded.categories(0));
+            assertEquals(2, loaded.categories(1));
+            assertEquals("green", loaded.value(1, 1));
+            assertEquals(0, loaded.code(3, "bl\u00e5"));
+            assertEquals(-1, loaded.code(3, "red"));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testCorrupt() throws IOException {
+        Path path = Files.createTempFile("checkpoint", ".nn");
+
+        try {
+            network().save(path.toString());
+
+            // flip a byte of the weights
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer value = ByteBuffer.allocate(1);
+                long position = channel.size() - 100;
+                channel.read(value, position);
+                value.put(0, (byte) ~value.get(0)).rewind();
+                channel.write(value, position);
+            }
+            assertThrows(IOException.class, () -> Checkpoint.read(path));
+
+            // cut off the end
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - 200);
+            }
+            assertThrows(IOException.class, () -> Checkpoint.read(path));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testShapeLargerThanFile() throws IOException {
+        Path path = Files.createTempFile("checkpoint", ".nn");
+
+        try {
+            network().save(path.toString());
+
+            // a first layer of 46000 x 46000 doubles, about 16 GB
+            overwrite(path, 24, 46000, 46000);
+            assertThrows(IOException.class, () -> Checkpoint.read(path));
+
+            // more layers than the file can describe
+            overwrite(path, 12, Integer.MAX_VALUE);
+            assertThrows(IOException.class, () -> Checkpoint.read(path));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testSaveReplacesFile() throws IOException {
+        Path directory = Files.createTempDirectory("checkpoint");
+        Path path = directory.resolve("network.nn");
+
+        try {
+            network().save(path.toString());
+            NeuralNetwork nn = network().learningRate(0.5);
+            nn.save(path.toString());
+
+            assertEquals(0.5, Checkpoint.read(path).getLearningRate());
+            try (Stream<Path> files = Files.list(directory)) {
+                assertEquals(List.of(path), files.collect(Collectors.toList()));
+            }
+        } finally {
+            Files.deleteIfExists(path);
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void testCustomActivation() throws IOException {
+        NeuralNetwork nn = new NeuralNetwork().layer(new Layer(4, 2, new Custom()));
+        Path path = Files.createTempFile("checkpoint", ".nn");
+
+        try {
+            nn.save(path.toString());
+            assertEquals(Custom.class, Checkpoint.read(path).getLayer(0).getActivationFunction().getClass());
+
+            // a class that is not an activation function is not initialised
+            String file = new String(Files.readAllBytes(path), StandardCharsets.ISO_8859_1);
+            Files.write(path, file.replace("CheckpointTest$Custom", "CheckpointTest$Unsafe").getBytes(StandardCharsets.ISO_8859_1));
+
+            assertThrows(IOException.class, () -> Checkpoint.read(path));
+            assertFalse(unsafeInitialised);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testNotACheckpoint() throws IOException {
+        Path path = Files.createTempFile("checkpoint", ".ser");
+
+        try {
+            try (ObjectOutputStream out = new ObjectOutputStream(Files.newOutputStream(path))) {
+                out.writeObject(network());
+            }
+
+            assertThrows(IOException.class, () -> Checkpoint.read(path));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    public static class Custom implements IActivationFunction {
+        @Override
+        public double get(double x) {
+            return 2 * x;
+        }
+
+        @Override
+        public double gradient(double x) {
+            return 2;
+        }
+    }
+
+    public static class Unsafe {
+        static {
+            unsafeInitialised = true;
+        }
+    }
+
+    private static NeuralNetwork network() {
+        return new NeuralNetwork()
+                .layer(new Layer(4, 16, new LeakyReLU()))
+                .layer(new Layer(16, 8, new Tanh()))
+                .layer(new Layer(8, 1, new Sigmoid()))
+                .learningRate(0.05);
+    }
+
+    /**
+     * writes little-endian ints over a file from the given position
+     */
+    private static void overwrite(Path path, long position, int... values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (int value : values)
+            buffer.putInt(value);
+        buffer.flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(buffer, position);
+        }
+    }
+
+    private static void assertSame(NDArray expected, NDArray actual) {
+        assertEquals(expected.dtype(), actual.dtype());
+        assertEquals(expected.shape(0), actual.shape(0));
+        assertEquals(expected.shape(1), actual.shape(1));
+
+        for (int i = 0; i < expected.shape(0); i++)
+            for (int j = 0; j < expected.shape(1); j++)
+                assertEquals(expected.get(i, j), actual.get(i, j));
+    }
+
+}
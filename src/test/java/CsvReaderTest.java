@@ -0,0 +1,122 @@
+import network.neural.util.matrix.NDArray;
+import network.neural.util.readwrite.CsvReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CsvReaderTest {
+
+    private static CsvReader reader(String csv, char delimiter, int blockRows) {
+        return new CsvReader(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)), delimiter, blockRows);
+    }
+
+    private static NDArray read(String csv, char delimiter) throws IOException {
+        try (CsvReader reader = reader(csv, delimiter, Integer.MAX_VALUE)) {
+            return reader.readAll();
+        }
+    }
+
+    @Test
+    public void testNumbers() throws IOException {
+        String[] values = {"0.00632", "18", "-2.31", "+0.5", "1e3", "4.9e-324", "1.7976931348623157E308",
+                "123456789012345678901234", "0.1", "-0", " 7 ", "1d", "NaN", ".5", "5."};
+
+        NDArray parsed = read(String.join(",", values) + "\n", ',');
+
+        for (int j = 0; j < values.length; j++)
+            assertEquals(Double.parseDouble(values[j]), parsed.get(0, j), values[j]);
+    }
+
+    @Test
+    public void testRandomNumbersMatchParseDouble() throws IOException {
+        Random random = new Random(3);
+        StringBuilder csv = new StringBuilder();
+        String[] text = new String[3000];
+
+        for (int i = 0; i < text.length; i++) {
+            double value = random.nextDouble() * Math.pow(10, random.nextInt(20) - 10) * (random.nextBoolean() ? 1 : -1);
+            text[i] = random.nextBoolean() ? Double.toString(value) : String.format("%." + random.nextInt(8) + "f", value);
+            csv.append(text[i]).append(i % 3 == 2 ? "\n" : ",");
+        }
+
+        NDArray parsed = read(csv.toString(), ',');
+
+        for (int i = 0; i < text.length; i++)
+            assertEquals(Double.parseDouble(text[i]), parsed.get(i / 3, i % 3), text[i]);
+    }
+
+    @Test
+    public void testCategorical() throws IOException {
+        NDArray parsed = read("\"GP\";\"F\";18;\"0\"\r\n\"MS\";\"M\";17;\"11\"\r\n", ';');
+
+        assertArrayEquals(new int[] {2, 4}, parsed.shape());
+        assertEquals('G' + 'P', parsed.get(0, 0));
+        assertEquals('F', parsed.get(0, 1));
+        assertEquals(18, parsed.get(0, 2));
+        assertEquals(0, parsed.get(0, 3));
+        assertEquals(11, parsed.get(1, 3));
+    }
+
+    @Test
+    public void testBlocks() throws IOException {
+        StringBuilder csv = new StringBuilder();
+        for (int i = 0; i < 10; i++)
+            csv.append(i).append(',').append(-i).append('\n');
+
+        try (CsvReader reader = reader(csv.toString(), ',', 4)) {
+            int row = 0;
+            int[] sizes = {4, 4, 2};
+
+            for (int size : sizes) {
+                NDArray block = reader.next();
+                assertArrayEquals(new int[] {size, 2}, block.shape());
+
+                for (int i = 0; i < size; i++, row++)
+                    assertEquals(-row, block.get(i, 1));
+            }
+
+            assertFalse(reader.hasNext());
+        }
+    }
+
+    @Test
+    public void testRaggedRows() {
+        assertThrows(IllegalArgumentException.class, () -> read("1,2,3\n4,5\n", ','));
+    }
+
+    @Test
+    public void testParallelMatchesSequential() throws IOException {
+        // large enough to be split into several ranges
+        Random random = new Random(5);
+        StringBuilder csv = new StringBuilder("\"a\";\"b\";\"c\"\r\n");
+        while (csv.length() < 6 << 20) {
+            csv.append(random.nextDouble() * 1000).append(';')
+                    .append(random.nextBoolean() ? "\"yes\"" : "\"no\"").append(';')
+                    .append(random.nextInt(100)).append(random.nextInt(50) == 0 ? "\r\n\r\n" : "\r\n");
+        }
+        Path path = Files.createTempFile("parallel", ".csv");
+        path.toFile().deleteOnExit();
+        Files.write(path, csv.toString().getBytes(StandardCharsets.UTF_8));
+
+        NDArray sequential = CsvReader.readAll(path, ';', 1);
+        NDArray parallel = CsvReader.readAll(path, ';', 4);
+
+        assertArrayEquals(sequential.shape(), parallel.shape());
+        for (int i = 0; i < sequential.shape(0); i++)
+            assertArrayEquals(sequential.getRow(i).data()[0], parallel.getRow(i).data()[0]);
+
+        Files.write(path, (csv + "1;2\n").getBytes(StandardCharsets.UTF_8));
+        assertThrows(IllegalArgumentException.class, () -> CsvReader.readAll(path, ';', 4));
+    }
+
+}
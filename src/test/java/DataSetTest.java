@@ -0,0 +1,93 @@
+import network.neural.util.DataSet;
+import network.neural.util.matrix.NDArray;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class DataSetTest {
+
+    @Test
+    public void testBatch() {
+        NDArray x = NDArray.rand(10, 3);
+        NDArray y = NDArray.rand(10, 1);
+
+        DataSet[] batches = DataSet.batch(new DataSet(x, y), 4);
+
+        assertEquals(3, batches.length);
+        assertArrayEquals(new int[] {4, 3}, batches[0].getX().shape());
+        assertArrayEquals(new int[] {2, 3}, batches[2].getX().shape());
+        assertArrayEquals(new int[] {2, 1}, batches[2].getY().shape());
+
+        for (int i = 0; i < 10; i++) {
+            DataSet batch = batches[i / 4];
+            assertArrayEquals(x.getRow(i).data()[0], batch.getX().getRow(i % 4).data()[0]);
+            assertEquals(y.get(i, 0), batch.getY().get(i % 4, 0));
+        }
+    }
+
+    @Test
+    public void testBatchExactMultiple() {
+        DataSet[] batches = DataSet.batch(new DataSet(NDArray.rand(12, 2), NDArray.rand(12, 1)), 4);
+
+        assertEquals(3, batches.length);
+        for (DataSet batch : batches)
+            assertEquals(4, batch.getX().shape(0));
+    }
+
+    @Test
+    public void testSplit() {
+        NDArray data = NDArray.rand(6, 5);
+
+        DataSet dataSet = DataSet.split(data, 2);
+
+        assertArrayEquals(new int[] {5, 3}, dataSet.getX().shape());
+        assertArrayEquals(new int[] {5, 2}, dataSet.getY().shape());
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j < 3; j++)
+                assertEquals(data.get(i + 1, j), dataSet.getX().get(i, j));
+            for (int j = 0; j < 2; j++)
+                assertEquals(data.get(i + 1, j + 3), dataSet.getY().get(i, j));
+        }
+    }
+
+    @Test
+    public void testSplitLabelColumns() {
+        NDArray data = NDArray.rand(4, 6);
+
+        DataSet dataSet = DataSet.split(data, new int[] {4, 1}, true);
+
+        int[] features = {0, 2, 3, 5};
+        for (int i = 0; i < 4; i++) {
+            for (int j = 0; j < features.length; j++)
+                assertEquals(data.get(i, features[j]), dataSet.getX().get(i, j));
+            assertEquals(data.get(i, 4), dataSet.getY().get(i, 0));
+            assertEquals(data.get(i, 1), dataSet.getY().get(i, 1));
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> DataSet.split(data, new int[] {1, 1}, false));
+        assertThrows(IllegalArgumentException.class, () -> DataSet.split(data, new int[] {6}, false));
+    }
+
+    @Test
+    public void testSplitViews() {
+        NDArray data = NDArray.rand(4, 5);
+
+        DataSet leading = DataSet.split(data, new int[] {0}, true);
+        DataSet trailing = DataSet.split(data, new int[] {3, 4}, true);
+
+        for (int i = 0; i < 4; i++) {
+            assertEquals(data.get(i, 0), leading.getY().get(i, 0));
+            assertEquals(data.get(i, 1), leading.getX().get(i, 0));
+            assertEquals(data.get(i, 4), trailing.getY().get(i, 1));
+            assertEquals(data.get(i, 2), trailing.getX().get(i, 2));
+        }
+
+        // views work with the operations and the batching
+        DataSet[] batches = DataSet.batch(trailing, 3);
+        assertEquals(data.get(3, 3), batches[1].getY().get(0, 0));
+        assertEquals(data.get(2, 1) + data.get(2, 1), trailing.getX().add(trailing.getX()).get(2, 1));
+    }
+
+}
@@ -0,0 +1,116 @@
+import network.neural.InferenceEngine;
+import network.neural.NeuralNetwork;
+import network.neural.activationfunctions.LeakyReLU;
+import network.neural.activationfunctions.Linear;
+import network.neural.layer.Layer;
+import network.neural.util.DataSet;
+import network.neural.util.matrix.DType;
+import network.neural.util.matrix.NDArray;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class InferenceEngineTest {
+
+    @Test
+    public void testMatchesPredict() {
+        for (DType dtype : DType.values()) {
+            NeuralNetwork nn = network().precision(dtype);
+            NDArray x = NDArray.rand(50, 4).asType(dtype);
+
+            try (InferenceEngine engine = new InferenceEngine(nn, 16, 1, TimeUnit.MILLISECONDS)) {
+                // 50 rows are computed in 4 batches
+                TestNetworks.assertClose(nn.predict(x), engine.predict(x), dtype == DType.FLOAT32 ? 1e-5 : 1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentRows() throws InterruptedException {
+        NeuralNetwork nn = network();
+        NDArray x = NDArray.rand(200, 4);
+        NDArray expected = nn.predict(x);
+
+        try (InferenceEngine engine = new InferenceEngine(nn, 8, 5, TimeUnit.MILLISECONDS)) {
+            Thread[] threads = new Thread[4];
+            double[][] results = new double[x.shape(0)][];
+
+            for (int t = 0; t < threads.length; t++) {
+                int first = t;
+                threads[t] = new Thread(() -> {
+                    for (int i = first; i < x.shape(0); i += threads.length)
+                        results[i] = engine.predict(x.getRow(i).data()[0]);
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+
+            for (int i = 0; i < x.shape(0); i++)
+                assertEquals(expected.get(i, 0), results[i][0], 1e-12);
+        }
+    }
+
+    @Test
+    public void testMoreThreadsThanBuffers() throws InterruptedException {
+        NeuralNetwork nn = network();
+        NDArray x = NDArray.rand(40, 4);
+        NDArray expected = nn.predict(x);
+
+        try (InferenceEngine engine = new InferenceEngine(nn, 8, 1, TimeUnit.MILLISECONDS)) {
+            // the threads share at most a pair of buffers per processor
+            Thread[] threads = new Thread[4 * Runtime.getRuntime().availableProcessors() + 4];
+            NDArray[] results = new NDArray[threads.length];
+
+            for (int t = 0; t < threads.length; t++) {
+                int index = t;
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 20; i++)
+                        results[index] = engine.predict(x);
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+
+            for (NDArray result : results)
+                TestNetworks.assertClose(expected, result, 1e-12);
+        }
+    }
+
+    @Test
+    public void testUnaffectedByTraining() {
+        NeuralNetwork nn = network();
+        NDArray x = NDArray.rand(10, 4);
+        NDArray before = nn.predict(x);
+
+        try (InferenceEngine engine = new InferenceEngine(nn, 16, 1, TimeUnit.MILLISECONDS)) {
+            nn.train(new DataSet(x, NDArray.rand(10, 1)), 5, 5);
+
+            TestNetworks.assertClose(before, engine.predict(x), 1e-12);
+        }
+    }
+
+    @Test
+    public void testClosed() {
+        InferenceEngine engine = new InferenceEngine(network(), 16, 1, TimeUnit.MILLISECONDS);
+        engine.close();
+
+        CompletableFuture<double[]> result = engine.submit(new double[4]);
+        assertThrows(CompletionException.class, result::join);
+    }
+
+    private static NeuralNetwork network() {
+        return new NeuralNetwork()
+                .layer(new Layer(4, 16, new LeakyReLU()))
+                .layer(new Layer(16, 8, new LeakyReLU()))
+                .layer(new Layer(8, 1, new Linear()))
+                .learningRate(0.01);
+    }
+
+}
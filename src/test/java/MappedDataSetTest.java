@@ -0,0 +1,84 @@
+import network.neural.util.DataSet;
+import network.neural.util.matrix.DType;
+import network.neural.util.matrix.NDArray;
+import network.neural.util.readwrite.MappedDataSet;
+import network.neural.util.readwrite.ReadIO;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class MappedDataSetTest {
+
+    private static Path tempFile() throws IOException {
+        Path path = Files.createTempFile("dataset", ".bin");
+        path.toFile().deleteOnExit();
+        return path;
+    }
+
+    @Test
+    public void testConvertCsv() throws IOException {
+        Path csv = Paths.get("src/main/resources/datasets/BostonHousing.csv");
+        DataSet expected = DataSet.split(ReadIO.readCsv(csv), 1);
+
+        for (DType dtype : DType.values()) {
+            Path path = tempFile();
+            ReadIO.convertCsv(csv, path, ',', true, 1, dtype);
+            MappedDataSet mapped = ReadIO.mapDataSet(path);
+
+            assertEquals(dtype, mapped.dtype());
+            assertEquals(expected.getX().shape(0), mapped.rows());
+            assertEquals(expected.getX().shape(1), mapped.features());
+
+            DataSet loaded = mapped.load();
+            assertEqual(expected.getX().asType(dtype), loaded.getX());
+            assertEqual(expected.getY().asType(dtype), loaded.getY());
+        }
+    }
+
+    @Test
+    public void testBatches() throws IOException {
+        NDArray x = NDArray.rand(10, 3);
+        NDArray y = NDArray.rand(10, 2);
+        Path path = tempFile();
+        ReadIO.writeDataSet(new DataSet(x, y), path);
+        MappedDataSet mapped = ReadIO.mapDataSet(path);
+
+        DataSet buffer = mapped.newBuffer(4);
+        mapped.readRows(6, buffer);
+        assertEqual(x.getRows(6, 10), buffer.getX());
+        assertEqual(y.getRows(6, 10), buffer.getY());
+
+        int[] order = {9, 0, 4, 4, 2};
+        mapped.gatherRows(order, 1, buffer);
+        for (int i = 0; i < 4; i++) {
+            assertArrayEquals(x.getRow(order[i + 1]).data()[0], buffer.getX().getRow(i).data()[0]);
+            assertArrayEquals(y.getRow(order[i + 1]).data()[0], buffer.getY().getRow(i).data()[0]);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> mapped.readRows(7, buffer));
+    }
+
+    @Test
+    public void testNotADataSet() throws IOException {
+        Path path = tempFile();
+        Files.write(path, "1,2,3\n4,5,6\n".getBytes());
+
+        assertThrows(UncheckedIOException.class, () -> ReadIO.mapDataSet(path));
+    }
+
+    private static void assertEqual(NDArray expected, NDArray actual) {
+        assertArrayEquals(expected.shape(), actual.shape());
+
+        for (int i = 0; i < expected.shape(0); i++)
+            assertArrayEquals(expected.getRow(i).data()[0], actual.getRow(i).data()[0]);
+    }
+
+}
@@ -0,0 +1,188 @@
+import network.neural.NeuralNetwork;
+import network.neural.server.ModelServer;
+import network.neural.util.matrix.NDArray;
+import network.neural.util.readwrite.CategoricalEncoder;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ModelServerTest {
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @Test
+    public void testPredict() throws Exception {
+        NeuralNetwork nn = TestNetworks.network(4, 16, 1);
+        Path path = save(nn);
+        NDArray x = NDArray.rand(5, 4);
+
+        try (ModelServer server = start(path)) {
+            NDArray expected = nn.predict(x);
+
+            // a single row goes through the batcher, several rows are a batch of their own
+            assertEquals(expected.get(0, 0), Double.parseDouble(post(server, "/predict", rows(x, 0, 1)).body().trim()), 1e-12);
+
+            String[] lines = post(server, "/predict", rows(x, 0, 5)).body().trim().split("\n");
+            assertEquals(5, lines.length);
+            for (int i = 0; i < 5; i++)
+                assertEquals(expected.get(i, 0), Double.parseDouble(lines[i]), 1e-12);
+
+            String metrics = get(server, "/metrics").body();
+            assertTrue(metrics.contains("requests 2\n"), metrics);
+            assertTrue(metrics.contains("rows 6\n"), metrics);
+            assertTrue(metrics.contains("errors 0\n"), metrics);
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testBadRequest() throws Exception {
+        Path path = save(TestNetworks.network(4, 16, 1));
+
+        try (ModelServer server = start(path)) {
+            assertEquals(400, post(server, "/predict", "1,2,x,4").statusCode());
+            assertEquals(400, post(server, "/predict", "1,2,3").statusCode());
+            assertEquals(405, get(server, "/predict").statusCode());
+            assertEquals(400, post(server, "/reload", "/etc/passwd").statusCode());
+            assertTrue(get(server, "/metrics").body().contains("model_version 1\n"));
+            assertTrue(get(server, "/metrics").body().contains("errors 2\n"));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testReloadWhileServing() throws Exception {
+        NeuralNetwork first = TestNetworks.network(4, 16, 1);
+        NeuralNetwork second = TestNetworks.network(4, 16, 1);
+        Path path = save(first);
+        NDArray x = NDArray.rand(1, 4);
+        String row = rows(x, 0, 1);
+
+        try (ModelServer server = start(path)) {
+            AtomicInteger failures = new AtomicInteger();
+            AtomicReference<Boolean> running = new AtomicReference<>(true);
+            Thread[] clients = new Thread[4];
+
+            for (int t = 0; t < clients.length; t++) {
+                clients[t] = new Thread(() -> {
+                    while (running.get()) {
+                        try {
+                            if (post(server, "/predict", row).statusCode() != 200)
+                                failures.incrementAndGet();
+                        } catch (Exception e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                });
+                clients[t].start();
+            }
+
+            Thread.sleep(200);
+            second.save(path.toString());
+            assertEquals("model_version 2", post(server, "/reload", "").body().trim());
+            Thread.sleep(200);
+
+            running.set(false);
+            for (Thread client : clients)
+                client.join();
+
+            assertEquals(0, failures.get());
+            assertEquals(second.predict(x).get(0, 0), Double.parseDouble(post(server, "/predict", row).body().trim()), 1e-12);
+            assertTrue(get(server, "/metrics").body().contains("model_version 2\n"));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testConcurrentEncodedRows() throws Exception {
+        String[] colours = {"red", "green", "blue", "yellow"};
+        CategoricalEncoder encoder = new CategoricalEncoder(CategoricalEncoder.Encoding.ORDINAL);
+        for (String colour : colours)
+            encoder.code(0, colour);
+
+        NeuralNetwork nn = TestNetworks.network(4, 16, 1).encoder(encoder);
+        Path path = save(nn);
+
+        try (ModelServer server = start(path)) {
+            AtomicInteger wrong = new AtomicInteger();
+            Thread[] clients = new Thread[8];
+
+            for (int t = 0; t < clients.length; t++) {
+                int first = t;
+                clients[t] = new Thread(() -> {
+                    for (int i = 0; i < 50; i++) {
+                        int code = (first + i) % colours.length;
+                        double expected = nn.predict(new NDArray(new double[][] {{code, 0.5, 0.25, 1}})).get(0, 0);
+
+                        try {
+                            String body = post(server, "/predict", colours[code] + ",0.5,0.25,1\n").body().trim();
+                            if (Math.abs(expected - Double.parseDouble(body)) > 1e-12)
+                                wrong.incrementAndGet();
+                        } catch (Exception e) {
+                            wrong.incrementAndGet();
+                        }
+                    }
+                });
+                clients[t].start();
+            }
+            for (Thread client : clients)
+                client.join();
+
+            assertEquals(0, wrong.get());
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    private static Path save(NeuralNetwork nn) throws IOException {
+        Path path = Files.createTempFile("model", ".nn");
+        nn.save(path.toString());
+        return path;
+    }
+
+    private static ModelServer start(Path path) throws IOException {
+        return ModelServer.start(path, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 8, 1, TimeUnit.MILLISECONDS);
+    }
+
+    private static String rows(NDArray x, int start, int end) {
+        StringBuilder body = new StringBuilder();
+        for (int i = start; i < end; i++) {
+            for (int j = 0; j < x.shape(1); j++)
+                body.append(j == 0 ? "" : ",").append(x.get(i, j));
+            body.append('\n');
+        }
+
+        return body.toString();
+    }
+
+    private HttpResponse<String> post(ModelServer server, String path, String body) throws IOException, InterruptedException {
+        HttpRequest request = HttpRequest.newBuilder(uri(server, path)).POST(HttpRequest.BodyPublishers.ofString(body)).build();
+        return client.send(request, HttpResponse.BodyHandlers.ofString());
+    }
+
+    private HttpResponse<String> get(ModelServer server, String path) throws IOException, InterruptedException {
+        return client.send(HttpRequest.newBuilder(uri(server, path)).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private static URI uri(ModelServer server, String path) {
+        return URI.create("http://localhost:" + server.getAddress().getPort() + path);
+    }
+
+}
@@ -1,6 +1,9 @@
+import network.neural.activationfunctions.Sigmoid;
 import network.neural.util.matrix.NDArray;
 import org.junit.jupiter.api.Test;
 
+import java.util.concurrent.ForkJoinPool;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
 public class NDArrayDotTest {
@@ -69,4 +72,106 @@ public class NDArrayDotTest {
         assertEquals(32, nd3.get(1, 0));
     }
 
+    @Test
+    public void testDotBlocked() {
+        // large enough to go through the packed kernel, with edge tiles in every direction
+        NDArray nd = NDArray.rand(67, 301);
+        NDArray nd2 = NDArray.rand(301, 133);
+        NDArray nd3 = nd.dot(nd2);
+
+        for (int i = 0; i < 67; i++)
+            for (int j = 0; j < 133; j++) {
+                double expected = 0;
+                for (int k = 0; k < 301; k++)
+                    expected += nd.get(i, k) * nd2.get(k, j);
+                assertEquals(expected, nd3.get(i, j), 1e-9);
+            }
+    }
+
+    @Test
+    public void testDotParallel() {
+        NDArray nd = NDArray.rand(150, 90);
+        NDArray nd2 = NDArray.rand(90, 170);
+        NDArray serial = nd.dot(nd2);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        NDArray.setThreadPool(pool);
+        NDArray.setParallelThreshold(1000);
+        try {
+            NDArray parallel = nd.dot(nd2);
+
+            for (int i = 0; i < 150; i++)
+                for (int j = 0; j < 170; j++)
+                    assertEquals(serial.get(i, j), parallel.get(i, j), 1e-9);
+        } finally {
+            NDArray.setThreadPool(null);
+            NDArray.setParallelThreshold(128 * 128 * 128);
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testDotTransposeA() {
+        NDArray nd = new NDArray(new double[][] {{1, 4}, {2, 5}, {3, 6}});
+        NDArray nd2 = new NDArray(new double[][] {{7, 8}, {9, 10}, {11, 12}});
+        NDArray result = nd.dotTransposeA(nd2);
+        assertEquals(58, result.get(0, 0));
+        assertEquals(64, result.get(0, 1));
+        assertEquals(139, result.get(1, 0));
+        assertEquals(154, result.get(1, 1));
+    }
+
+    @Test
+    public void testDotTransposeB() {
+        NDArray nd = new NDArray(new double[][] {{1, 2, 3}, {4, 5, 6}});
+        NDArray nd2 = new NDArray(new double[][] {{7, 9, 11}, {8, 10, 12}});
+        NDArray result = nd.dotTransposeB(nd2);
+        assertEquals(58, result.get(0, 0));
+        assertEquals(64, result.get(0, 1));
+        assertEquals(139, result.get(1, 0));
+        assertEquals(154, result.get(1, 1));
+    }
+
+    @Test
+    public void testDotTransposeBlocked() {
+        NDArray nd = NDArray.rand(70, 90);
+        NDArray nd2 = NDArray.rand(110, 90);
+        NDArray expected = nd.dot(nd2.T());
+        NDArray result = nd.dotTransposeB(nd2);
+        NDArray resultA = nd.T().dotTransposeA(nd2.T());
+
+        for (int i = 0; i < 70; i++)
+            for (int j = 0; j < 110; j++) {
+                assertEquals(expected.get(i, j), result.get(i, j), 1e-9);
+                assertEquals(expected.get(i, j), resultA.get(i, j), 1e-9);
+            }
+    }
+
+    @Test
+    public void testLinear() {
+        Sigmoid sigmoid = new Sigmoid();
+
+        for (int size : new int[] {3, 60}) {
+            NDArray x = NDArray.rand(size, size + 1);
+            NDArray weights = NDArray.rand(size + 2, size + 1);
+            NDArray bias = NDArray.rand(size + 2, 1);
+
+            NDArray z = NDArray.zeros(size, size + 2);
+            NDArray a = NDArray.zeros(size, size + 2);
+            NDArray gradient = NDArray.zeros(size, size + 2);
+            x.linear(weights, bias, sigmoid, z, a, gradient);
+
+            NDArray expectedZ = weights.dot(x.T()).addVector(bias).T();
+            NDArray expectedA = expectedZ.activation(sigmoid);
+            NDArray expectedGradient = expectedZ.gradient(sigmoid);
+
+            for (int i = 0; i < size; i++)
+                for (int j = 0; j < size + 2; j++) {
+                    assertEquals(expectedZ.get(i, j), z.get(i, j), 1e-9);
+                    assertEquals(expectedA.get(i, j), a.get(i, j), 1e-9);
+                    assertEquals(expectedGradient.get(i, j), gradient.get(i, j), 1e-9);
+                }
+        }
+    }
+
 }
@@ -0,0 +1,60 @@
+import network.neural.activationfunctions.ReLU;
+import network.neural.util.matrix.NDArray;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class NDArrayInPlaceTest {
+
+    @Test
+    public void testAddi() {
+        NDArray nd = new NDArray(new double[][] {{1, 2}, {3, 4}});
+        NDArray nd2 = new NDArray(new double[][] {{1, 1}, {1, 1}});
+        NDArray result = nd.addi(nd2);
+        assertSame(nd, result);
+        assertEquals(2, nd.get(0, 0));
+        assertEquals(5, nd.get(1, 1));
+    }
+
+    @Test
+    public void testSubi() {
+        NDArray nd = new NDArray(new double[][] {{1, 2}, {3, 4}});
+        nd.subi(new NDArray(new double[][] {{1, 2}, {1, 2}}));
+        assertEquals(0, nd.get(0, 0));
+        assertEquals(0, nd.get(0, 1));
+        assertEquals(2, nd.get(1, 0));
+        assertEquals(2, nd.get(1, 1));
+    }
+
+    @Test
+    public void testMuliAndActivationi() {
+        NDArray nd = new NDArray(new double[] {-1, 2, -3});
+        nd.muli(2).activationi(new ReLU());
+        assertEquals(0, nd.get(0, 0));
+        assertEquals(4, nd.get(0, 1));
+        assertEquals(0, nd.get(0, 2));
+    }
+
+    @Test
+    public void testInto() {
+        NDArray nd = new NDArray(new double[][] {{1, 2, 3}, {4, 5, 6}});
+        NDArray out = NDArray.zeros(3, 2);
+
+        assertSame(out, nd.T(out));
+        assertEquals(4, out.get(0, 1));
+
+        NDArray product = NDArray.ones(2, 2);
+        nd.dot(out, product);
+        assertEquals(14, product.get(0, 0));
+        assertEquals(77, product.get(1, 1));
+    }
+
+    @Test
+    public void testIntoWrongShape() {
+        NDArray nd = new NDArray(new double[][] {{1, 2, 3}, {4, 5, 6}});
+        assertThrows(IllegalArgumentException.class, () -> nd.add(nd, NDArray.zeros(3, 2)));
+    }
+
+}
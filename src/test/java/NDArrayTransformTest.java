@@ -33,6 +33,18 @@ public class NDArrayTransformTest {
                 assertEquals(nd.T().get(j, i), nd.get(i, j));
     }
 
+    @Test
+    public void testTransposedView() {
+        NDArray nd = new NDArray(new double[][]{{1, 2, 3}, {4, 5, 6}});
+        NDArray view = nd.transposed();
 
+        assertEquals(3, view.shape()[0]);
+        assertEquals(2, view.shape()[1]);
+        for (int i = 0; i < nd.shape()[0]; i++)
+            for (int j = 0; j < nd.shape()[1]; j++)
+                assertEquals(nd.get(i, j), view.get(j, i));
+
+        assertEquals(nd.T().add(view).get(2, 1), 12);
+    }
 
 }
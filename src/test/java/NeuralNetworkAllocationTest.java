@@ -0,0 +1,66 @@
+import network.neural.NeuralNetwork;
+import network.neural.activationfunctions.LeakyReLU;
+import network.neural.layer.Layer;
+import network.neural.util.DataSet;
+import network.neural.util.Sampler;
+import network.neural.util.matrix.NDArray;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NeuralNetworkAllocationTest {
+
+    private static final int ROWS = 200;
+    private static final int BATCH_SIZE = 20;
+
+    @Test
+    public void testTrainingStepAllocation() {
+        assertStepAllocation(ROWS, Sampler.sequential());
+    }
+
+    @Test
+    public void testPartialBatchAllocation() {
+        // the last batch of each epoch is half the size of the others
+        assertStepAllocation(ROWS + BATCH_SIZE / 2, Sampler.sequential());
+    }
+
+    @Test
+    public void testShuffledAllocation() {
+        assertStepAllocation(ROWS + BATCH_SIZE / 2, Sampler.shuffle(1));
+    }
+
+    private static void assertStepAllocation(int rows, Sampler sampler) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+
+        DataSet dataSet = new DataSet(NDArray.rand(rows, 8), NDArray.rand(rows, 1));
+        NeuralNetwork nn = new NeuralNetwork()
+                .layer(new Layer(8, 16, new LeakyReLU()))
+                .layer(new Layer(16, 8, new LeakyReLU()))
+                .layer(new Layer(8, 1, new LeakyReLU()))
+                .learningRate(0.001)
+                .sampler(sampler);
+
+        // warm up long enough for C2 to compile the kernels; the Vector API only
+        // stops boxing its vectors once it is intrinsified.
+        nn.train(dataSet, 2000, BATCH_SIZE);
+
+        // the cost of setting up a run (batching, buffers, progress bar) is the same for both,
+        // so the difference is what the extra epochs allocated.
+        long before = threads.getThreadAllocatedBytes(thread);
+        nn.train(dataSet, 10, BATCH_SIZE);
+        long shortRun = threads.getThreadAllocatedBytes(thread) - before;
+
+        before = threads.getThreadAllocatedBytes(thread);
+        nn.train(dataSet, 110, BATCH_SIZE);
+        long longRun = threads.getThreadAllocatedBytes(thread) - before;
+
+        long steps = 100L * ((rows + BATCH_SIZE - 1) / BATCH_SIZE);
+        long bytesPerStep = (longRun - shortRun) / steps;
+
+        assertTrue(bytesPerStep < 256, "a training step allocated " + bytesPerStep + " bytes");
+    }
+
+}
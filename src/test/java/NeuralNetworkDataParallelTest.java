@@ -0,0 +1,54 @@
+import network.neural.NeuralNetwork;
+import network.neural.util.DataSet;
+import network.neural.util.Sampler;
+import network.neural.util.matrix.NDArray;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+public class NeuralNetworkDataParallelTest {
+
+    @Test
+    public void testMatchesSerial() {
+        // 3 replicas do not divide the batches evenly, the last batch has 10 rows
+        DataSet dataSet = TestNetworks.dataSet(210);
+
+        NeuralNetwork serial = TestNetworks.network(4, 16, 8, 1);
+        NeuralNetwork parallel = TestNetworks.copy(serial).dataParallel(3);
+
+        serial.train(dataSet, 50, 20);
+        parallel.train(dataSet, 50, 20);
+
+        TestNetworks.assertClose(serial.predict(dataSet.getX()), parallel.predict(dataSet.getX()), 1e-9);
+    }
+
+    @Test
+    public void testMoreReplicasThanRows() {
+        DataSet dataSet = TestNetworks.dataSet(22);
+
+        NeuralNetwork serial = TestNetworks.network(4, 16, 8, 1).sampler(Sampler.shuffle(7));
+        NeuralNetwork parallel = TestNetworks.copy(serial).sampler(Sampler.shuffle(7)).dataParallel(8);
+
+        serial.train(dataSet, 20, 5);
+        parallel.train(dataSet, 20, 5);
+
+        TestNetworks.assertClose(serial.predict(dataSet.getX()), parallel.predict(dataSet.getX()), 1e-9);
+    }
+
+    @Test
+    public void testRepeatable() {
+        DataSet dataSet = TestNetworks.dataSet(100);
+
+        NeuralNetwork first = TestNetworks.network(4, 16, 8, 1).dataParallel(4);
+        NeuralNetwork second = TestNetworks.copy(first).dataParallel(4);
+
+        first.train(dataSet, 20, 16);
+        second.train(dataSet, 20, 16);
+
+        NDArray a = first.predict(dataSet.getX());
+        NDArray b = second.predict(dataSet.getX());
+        for (int i = 0; i < a.shape(0); i++)
+            assertArrayEquals(a.getRow(i).data()[0], b.getRow(i).data()[0]);
+    }
+
+}
@@ -0,0 +1,176 @@
+import network.neural.Cluster;
+import network.neural.NeuralNetwork;
+import network.neural.layer.Layer;
+import network.neural.util.DataSet;
+import network.neural.util.matrix.NDArray;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * trains with several worker processes on this host, rank 0 runs in the test itself
+ */
+public class NeuralNetworkDistributedTest {
+
+    private static final int WORKERS = 3;
+    private static final String PREDICTION = "prediction ";
+
+    @Test
+    public void testRingMatchesSerial() throws Exception {
+        testMatchesSerial(Cluster.Topology.RING);
+    }
+
+    @Test
+    public void testParameterServerMatchesSerial() throws Exception {
+        testMatchesSerial(Cluster.Topology.PARAMETER_SERVER);
+    }
+
+    private static void testMatchesSerial(Cluster.Topology topology) throws Exception {
+        String[] ports = new String[WORKERS];
+        for (int i = 0; i < WORKERS; i++) {
+            try (ServerSocket socket = new ServerSocket(0)) {
+                ports[i] = Integer.toString(socket.getLocalPort());
+            }
+        }
+
+        List<Process> processes = new ArrayList<>();
+        try {
+            for (int rank = 1; rank < WORKERS; rank++)
+                processes.add(start(rank, topology, ports));
+
+            double[] distributed = Worker.train(0, topology, ports);
+
+            NeuralNetwork serial = Worker.network();
+            DataSet dataSet = Worker.dataSet();
+            serial.train(dataSet, 20, 16);
+            NDArray expected = serial.predict(dataSet.getX());
+
+            for (int i = 0; i < distributed.length; i++)
+                assertEquals(expected.get(i, 0), distributed[i], 1e-9 * Math.max(1, Math.abs(expected.get(i, 0))));
+
+            // every worker ends up with exactly the same weights
+            for (Process process : processes) {
+                String prediction = null;
+                try (BufferedReader out = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                    for (String line = out.readLine(); line != null; line = out.readLine())
+                        if (line.startsWith(PREDICTION))
+                            prediction = line.substring(PREDICTION.length());
+                }
+
+                assertTrue(process.waitFor(60, TimeUnit.SECONDS), "worker did not finish");
+                assertEquals(0, process.exitValue());
+                assertEquals(format(distributed), prediction);
+            }
+        } finally {
+            for (Process process : processes)
+                process.destroyForcibly();
+        }
+    }
+
+    private static Process start(int rank, Cluster.Topology topology, String[] ports) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            command.add("--add-modules");
+            command.add("jdk.incubator.vector");
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Worker.class.getName());
+        command.add(Integer.toString(rank));
+        command.add(topology.name());
+        command.addAll(List.of(ports));
+
+        return new ProcessBuilder(command)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+    }
+
+    private static String format(double[] values) {
+        StringBuilder line = new StringBuilder();
+        for (double value : values)
+            line.append(value).append(' ');
+
+        return line.toString().trim();
+    }
+
+    /**
+     * a worker process, started with its rank, the topology and the port of every worker
+     */
+    public static class Worker {
+
+        public static void main(String[] args) throws Exception {
+            String[] ports = new String[args.length - 2];
+            System.arraycopy(args, 2, ports, 0, ports.length);
+
+            double[] prediction = train(Integer.parseInt(args[0]), Cluster.Topology.valueOf(args[1]), ports);
+            System.out.println(PREDICTION + format(prediction));
+        }
+
+        static double[] train(int rank, Cluster.Topology topology, String[] ports) throws IOException {
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            for (String port : ports)
+                addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(port)));
+
+            DataSet dataSet = dataSet();
+            // only rank 0 starts from the weights of the serial network, the others get them from rank 0
+            NeuralNetwork nn = rank == 0 ? network() : TestNetworks.network(4, 16, 8, 1);
+
+            try (Cluster cluster = Cluster.connect(rank, addresses, topology)) {
+                nn.distributed(cluster).train(dataSet, 20, 16);
+            }
+
+            NDArray prediction = nn.predict(dataSet.getX());
+            double[] values = new double[prediction.shape(0)];
+            for (int i = 0; i < values.length; i++)
+                values[i] = prediction.get(i, 0);
+
+            return values;
+        }
+
+        /**
+         * 100 rows, so the last batch of 4 rows does not split evenly over the workers
+         */
+        static DataSet dataSet() {
+            NDArray x = seeded(new Random(1), 100, 4);
+            NDArray y = x.dot(new NDArray(new double[][] {{1}, {-2}, {3}, {0.5}}));
+            return new DataSet(x, y);
+        }
+
+        static NeuralNetwork network() {
+            Random random = new Random(2);
+            NeuralNetwork nn = TestNetworks.network(4, 16, 8, 1);
+
+            for (int l = 0; l < nn.getLayerCount(); l++) {
+                Layer layer = nn.getLayer(l);
+                layer.setWeights(seeded(random, layer.getWeights().shape(0), layer.getWeights().shape(1)));
+                layer.setBias(seeded(random, layer.getBias().shape(0), 1));
+            }
+
+            return nn;
+        }
+
+        private static NDArray seeded(Random random, int rows, int cols) {
+            double[][] values = new double[rows][cols];
+            for (double[] row : values)
+                for (int j = 0; j < cols; j++)
+                    row[j] = random.nextDouble() - 0.5;
+
+            return new NDArray(values);
+        }
+    }
+
+}
@@ -0,0 +1,84 @@
+import network.neural.Hogwild;
+import network.neural.NeuralNetwork;
+import network.neural.activationfunctions.Linear;
+import network.neural.layer.Layer;
+import network.neural.util.DataSet;
+import network.neural.util.matrix.DType;
+import network.neural.util.matrix.NDArray;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NeuralNetworkHogwildTest {
+
+    @Test
+    public void testAtomicAdditionsAreNotLost() throws InterruptedException {
+        for (DType dtype : DType.values()) {
+            NDArray shared = NDArray.zeros(dtype, 1, 8);
+            NDArray ones = NDArray.ones(1, 8);
+            Thread[] threads = new Thread[4];
+
+            for (int t = 0; t < threads.length; t++) {
+                threads[t] = new Thread(() -> {
+                    for (int i = 0; i < 1000; i++)
+                        shared.addiAtomic(ones);
+                });
+                threads[t].start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+
+            for (int j = 0; j < 8; j++)
+                assertEquals(4000, shared.get(0, j));
+        }
+    }
+
+    @Test
+    public void testConverges() {
+        NDArray x = NDArray.rand(400, 4);
+        NDArray y = x.dot(new NDArray(new double[][] {{1}, {2}, {3}, {0.5}}));
+        DataSet dataSet = new DataSet(x, y);
+
+        // a linear model, so every run converges from any starting point
+        NeuralNetwork serial = linear();
+        NDArray weights = serial.getLayer(0).getWeights().mul(1.0);
+        NDArray bias = serial.getLayer(0).getBias().mul(1.0);
+        double initial = mse(serial, dataSet);
+
+        serial.train(dataSet, 100, 10);
+        double expected = mse(serial, dataSet);
+
+        for (Hogwild.Writes writes : Hogwild.Writes.values()) {
+            NeuralNetwork asynchronous = linear().hogwild(4, writes);
+            asynchronous.getLayer(0).setWeights(weights.mul(1.0));
+            asynchronous.getLayer(0).setBias(bias.mul(1.0));
+            asynchronous.train(dataSet, 100, 10);
+
+            double error = mse(asynchronous, dataSet);
+            assertTrue(error < initial / 20, writes + " did not converge: " + initial + " -> " + error);
+            assertTrue(error < 2 * expected + 0.05, writes + " reached " + error + ", serial " + expected);
+        }
+    }
+
+    @Test
+    public void testNotWithDataParallel() {
+        NeuralNetwork nn = TestNetworks.network(4, 16, 1).hogwild(2, Hogwild.Writes.PLAIN).dataParallel(2);
+        DataSet dataSet = new DataSet(NDArray.rand(10, 4), NDArray.rand(10, 1));
+
+        assertThrows(IllegalStateException.class, () -> nn.train(dataSet, 1, 5));
+    }
+
+    private static NeuralNetwork linear() {
+        return new NeuralNetwork()
+                .layer(new Layer(4, 1, new Linear()))
+                .learningRate(0.05);
+    }
+
+    private static double mse(NeuralNetwork network, DataSet dataSet) {
+        NDArray error = dataSet.getY().sub(network.predict(dataSet.getX()));
+        return error.mul(error).sum() / error.shape(0);
+    }
+
+}
@@ -0,0 +1,68 @@
+import network.neural.NeuralNetwork;
+import network.neural.util.DataSet;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NeuralNetworkPipelineTest {
+
+    @Test
+    public void testMatchesSerial() {
+        // 3 micro-batches do not divide the batches evenly, the last batch has 10 rows
+        DataSet dataSet = TestNetworks.dataSet(210);
+
+        for (int stages = 1; stages <= 4; stages++) {
+            NeuralNetwork serial = TestNetworks.network(4, 16, 16, 8, 1);
+            NeuralNetwork pipelined = TestNetworks.copy(serial).pipeline(stages, 3);
+
+            serial.train(dataSet, 30, 20);
+            pipelined.train(dataSet, 30, 20);
+
+            TestNetworks.assertClose(serial.predict(dataSet.getX()), pipelined.predict(dataSet.getX()), 1e-9);
+        }
+    }
+
+    @Test
+    public void testMoreMicroBatchesThanRows() {
+        DataSet dataSet = TestNetworks.dataSet(22);
+
+        NeuralNetwork serial = TestNetworks.network(4, 16, 16, 8, 1);
+        NeuralNetwork pipelined = TestNetworks.copy(serial).pipeline(2, 8);
+
+        serial.train(dataSet, 20, 5);
+        pipelined.train(dataSet, 20, 5);
+
+        TestNetworks.assertClose(serial.predict(dataSet.getX()), pipelined.predict(dataSet.getX()), 1e-9);
+    }
+
+    @Test
+    public void testUtilisation() {
+        NeuralNetwork nn = TestNetworks.network(4, 16, 16, 8, 1);
+        assertNull(nn.getStageUtilisation());
+
+        nn.pipeline(3, 4).train(TestNetworks.dataSet(64), 5, 16);
+
+        double[] utilisation = nn.getStageUtilisation();
+        assertEquals(3, utilisation.length);
+        for (double stage : utilisation)
+            assertTrue(stage > 0 && stage <= 1, "utilisation " + stage);
+    }
+
+    @Test
+    public void testMoreStagesThanLayers() {
+        NeuralNetwork nn = TestNetworks.network(4, 16, 16, 8, 1).pipeline(5, 2);
+
+        assertThrows(IllegalArgumentException.class, () -> nn.train(TestNetworks.dataSet(10), 1, 5));
+    }
+
+    @Test
+    public void testNotWithDataParallel() {
+        NeuralNetwork nn = TestNetworks.network(4, 16, 16, 8, 1).pipeline(2, 2).dataParallel(2);
+
+        assertThrows(IllegalStateException.class, () -> nn.train(TestNetworks.dataSet(10), 1, 5));
+    }
+
+}
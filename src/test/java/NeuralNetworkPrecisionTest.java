@@ -0,0 +1,85 @@
+import network.neural.NeuralNetwork;
+import network.neural.activationfunctions.Sigmoid;
+import network.neural.util.DataSet;
+import network.neural.util.matrix.DType;
+import network.neural.util.matrix.NDArray;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class NeuralNetworkPrecisionTest {
+
+    @Test
+    public void testFloatDot() {
+        // large enough for the blocked kernel
+        NDArray a = NDArray.rand(100, 80);
+        NDArray b = NDArray.rand(80, 90);
+
+        NDArray expected = a.dot(b);
+        NDArray actual = a.asType(DType.FLOAT32).dot(b.asType(DType.FLOAT32));
+
+        assertEquals(DType.FLOAT32, actual.dtype());
+        TestNetworks.assertClose(expected, actual, 1e-4);
+        TestNetworks.assertClose(a.dotTransposeB(a), a.asType(DType.FLOAT32).dotTransposeB(a), 1e-4);
+    }
+
+    @Test
+    public void testFloatDotRoundedOnce() {
+        // a shared dimension of several blocks, every value is the double product rounded once
+        NDArray a = NDArray.rand(70, 700).asType(DType.FLOAT32);
+        NDArray b = NDArray.rand(700, 60).asType(DType.FLOAT32);
+
+        NDArray expected = a.asType(DType.FLOAT64).dot(b.asType(DType.FLOAT64));
+        NDArray actual = a.dot(b);
+
+        for (int i = 0; i < expected.shape(0); i++)
+            for (int j = 0; j < expected.shape(1); j++)
+                assertEquals(expected.get(i, j), actual.get(i, j), 0.5 * Math.ulp((float) expected.get(i, j)));
+    }
+
+    @Test
+    public void testFloatLinear() {
+        NDArray x = NDArray.rand(1.0, 6, 5);
+        NDArray weights = NDArray.rand(1.0, 3, 5);
+        NDArray bias = NDArray.rand(1.0, 3, 1);
+        Sigmoid sigmoid = new Sigmoid();
+
+        NDArray expected = x.dotTransposeB(weights).addVector(bias.T()).activation(sigmoid);
+        NDArray z = NDArray.zeros(DType.FLOAT32, 6, 3);
+        NDArray a = NDArray.zeros(DType.FLOAT32, 6, 3);
+        NDArray gradient = NDArray.zeros(DType.FLOAT32, 6, 3);
+
+        x.asType(DType.FLOAT32).linear(weights, bias, sigmoid, z, a, gradient);
+
+        TestNetworks.assertClose(expected, a, 1e-6);
+        TestNetworks.assertClose(expected.mul(expected.mul(-1).add(NDArray.ones(6, 3))), gradient, 1e-6);
+    }
+
+    @Test
+    public void testOutputDtype() {
+        NDArray a = NDArray.rand(3, 3).asType(DType.FLOAT32);
+
+        assertThrows(IllegalArgumentException.class, () -> a.add(a, NDArray.zeros(3, 3)));
+        assertEquals(DType.FLOAT32, a.add(NDArray.ones(3, 3)).dtype());
+    }
+
+    @Test
+    public void testTrainingMatchesDouble() {
+        DataSet dataSet = TestNetworks.dataSet(200);
+        NDArray x = dataSet.getX();
+
+        NeuralNetwork float64 = TestNetworks.network(4, 16, 1);
+        NeuralNetwork float32 = TestNetworks.copy(float64).precision(DType.FLOAT32);
+
+        float64.train(dataSet, 200, 20);
+        float32.train(dataSet, 200, 20);
+
+        NDArray expected = float64.predict(x);
+        NDArray actual = float32.predict(x);
+
+        assertEquals(DType.FLOAT32, actual.dtype());
+        TestNetworks.assertClose(expected, actual, 1e-3);
+    }
+
+}
@@ -0,0 +1,60 @@
+import network.neural.NeuralNetwork;
+import network.neural.util.DataSet;
+import network.neural.util.matrix.NDArray;
+import network.neural.util.matrix.Parallelism;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+public class NeuralNetworkThreadsTest {
+
+    @Test
+    public void testSerialByDefault() {
+        assertSame(Parallelism.SERIAL, TestNetworks.network(32, 64, 1).getParallelism());
+    }
+
+    @Test
+    public void testPoolPerNetwork() {
+        NeuralNetwork first = TestNetworks.network(32, 64, 1).threads(4).parallelThreshold(1000);
+        NeuralNetwork second = TestNetworks.network(32, 64, 1);
+        ForkJoinPool pool = first.getParallelism().getPool();
+
+        assertEquals(4, pool.getParallelism());
+        assertEquals(1000, first.getParallelism().getThreshold());
+        assertSame(Parallelism.SERIAL, second.getParallelism());
+
+        // a new pool replaces the old one, which may still be in use and is not shut down
+        first.threads(2);
+        assertNotSame(pool, first.getParallelism().getPool());
+        assertEquals(1000, first.getParallelism().getThreshold());
+        assertFalse(pool.isShutdown());
+        assertSame(Parallelism.SERIAL, second.getParallelism());
+    }
+
+    @Test
+    public void testSameResult() {
+        NDArray x = NDArray.rand(64, 32);
+        NDArray y = NDArray.rand(64, 1);
+        NeuralNetwork serial = TestNetworks.network(32, 64, 1);
+        NeuralNetwork parallel = TestNetworks.network(32, 64, 1).threads(4).parallelThreshold(1000);
+
+        for (int i = 0; i < serial.getLayerCount(); i++) {
+            parallel.getLayer(i).setWeights(serial.getLayer(i).getWeights().mul(1.0));
+            parallel.getLayer(i).setBias(serial.getLayer(i).getBias().mul(1.0));
+        }
+
+        serial.train(new DataSet(x, y), 2, 16);
+        parallel.train(new DataSet(x, y), 2, 16);
+
+        NDArray expected = serial.predict(x);
+        NDArray actual = parallel.predict(x);
+        for (int i = 0; i < x.shape(0); i++)
+            assertEquals(expected.get(i, 0), actual.get(i, 0), 1e-9);
+    }
+
+}
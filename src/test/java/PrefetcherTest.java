@@ -0,0 +1,52 @@
+import network.neural.NeuralNetwork;
+import network.neural.util.DataSet;
+import network.neural.util.Prefetcher;
+import network.neural.util.Sampler;
+import network.neural.util.matrix.NDArray;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class PrefetcherTest {
+
+    @Test
+    public void testSameBatchesAsSampler() {
+        DataSet dataSet = new DataSet(NDArray.rand(103, 5), NDArray.rand(103, 2));
+
+        Sampler expected = Sampler.shuffle(11);
+        Sampler prefetched = Sampler.shuffle(11);
+        expected.bind(dataSet, 10);
+        prefetched.bind(dataSet, 10);
+
+        try (Prefetcher prefetcher = new Prefetcher(prefetched, 2, 3)) {
+            assertEquals(11, prefetcher.batches());
+
+            for (int epoch = 0; epoch < 5; epoch++) {
+                expected.nextEpoch();
+                prefetcher.startEpoch();
+
+                for (int b = 0; b < prefetcher.batches(); b++) {
+                    DataSet batch = prefetcher.take(b);
+                    assertArrayEquals(expected.batch(b).getX().data(), batch.getX().data());
+                    assertArrayEquals(expected.batch(b).getY().data(), batch.getY().data());
+                    prefetcher.release(b);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTrainingMatchesWithoutPrefetch() {
+        DataSet dataSet = new DataSet(NDArray.rand(210, 4), NDArray.rand(210, 1));
+
+        NeuralNetwork serial = TestNetworks.network(4, 8, 1).sampler(Sampler.shuffle(5));
+        NeuralNetwork prefetched = TestNetworks.copy(serial).sampler(Sampler.shuffle(5)).prefetch(3, 2);
+
+        serial.train(dataSet, 20, 16);
+        prefetched.train(dataSet, 20, 16);
+
+        assertArrayEquals(serial.predict(dataSet.getX()).data(), prefetched.predict(dataSet.getX()).data());
+    }
+
+}
@@ -0,0 +1,121 @@
+import network.neural.util.DataSet;
+import network.neural.util.Sampler;
+import network.neural.util.matrix.NDArray;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SamplerTest {
+
+    private static final int ROWS = 100;
+
+    /**
+     * dataset where the label of a row is its index, so a batch shows which rows it holds
+     */
+    private static DataSet indexed(int rows) {
+        double[] x = new double[rows * 2];
+        double[] y = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            x[i * 2] = i;
+            x[i * 2 + 1] = i + 0.5;
+            y[i] = i;
+        }
+
+        return new DataSet(new NDArray(x, rows, 2), new NDArray(y, rows, 1));
+    }
+
+    /**
+     * @return the labels of one epoch, in the order they were sampled
+     */
+    private static double[] epoch(Sampler sampler) {
+        double[] labels = new double[ROWS];
+        int n = 0;
+
+        sampler.nextEpoch();
+        for (int b = 0; b < sampler.batches(); b++) {
+            DataSet batch = sampler.batch(b);
+            for (int i = 0; i < batch.getY().shape(0); i++) {
+                assertEquals(batch.getY().get(i, 0), batch.getX().get(i, 0));
+                assertEquals(batch.getY().get(i, 0) + 0.5, batch.getX().get(i, 1));
+                labels[n++] = batch.getY().get(i, 0);
+            }
+        }
+
+        assertEquals(ROWS, n);
+        return labels;
+    }
+
+    @Test
+    public void testShuffle() {
+        DataSet dataSet = indexed(ROWS);
+        Sampler sampler = Sampler.shuffle(42);
+        sampler.bind(dataSet, 32);
+
+        assertEquals(4, sampler.batches());
+
+        double[] first = epoch(sampler);
+        double[] second = epoch(sampler);
+        assertFalse(Arrays.equals(first, second));
+
+        // every row exactly once per epoch
+        double[] sorted = first.clone();
+        Arrays.sort(sorted);
+        for (int i = 0; i < ROWS; i++)
+            assertEquals(i, sorted[i]);
+
+        // the dataset is not reordered
+        for (int i = 0; i < ROWS; i++)
+            assertEquals(i, dataSet.getY().get(i, 0));
+    }
+
+    @Test
+    public void testSeed() {
+        Sampler a = Sampler.shuffle(7);
+        Sampler b = Sampler.shuffle(7);
+        a.bind(indexed(ROWS), 10);
+        b.bind(indexed(ROWS), 10);
+
+        assertArrayEquals(epoch(a), epoch(b));
+        assertArrayEquals(epoch(a), epoch(b));
+    }
+
+    @Test
+    public void testStratified() {
+        // one-hot labels, 80 rows of class 0 and 20 of class 1
+        double[] labels = new double[ROWS * 2];
+        for (int i = 0; i < ROWS; i++)
+            labels[i * 2 + (i % 5 == 0 ? 1 : 0)] = 1;
+
+        Sampler sampler = Sampler.stratified(3);
+        sampler.bind(new DataSet(NDArray.rand(ROWS, 2), new NDArray(labels, ROWS, 2)), 10);
+
+        for (int epoch = 0; epoch < 3; epoch++) {
+            sampler.nextEpoch();
+            for (int b = 0; b < sampler.batches(); b++) {
+                NDArray y = sampler.batch(b).getY();
+                double ones = y.getAvgRowVector().get(0, 1) * y.shape(0);
+                assertEquals(2, ones, 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void testWeighted() {
+        double[] weights = new double[ROWS];
+        for (int i = 0; i < ROWS; i += 2)
+            weights[i] = 1;
+
+        Sampler sampler = Sampler.weighted(weights, 5);
+        sampler.bind(indexed(ROWS), 16);
+
+        double[] labels = epoch(sampler);
+        for (double label : labels)
+            assertTrue(label % 2 == 0, "row " + label + " has weight 0");
+    }
+
+}
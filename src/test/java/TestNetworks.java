@@ -0,0 +1,66 @@
+import network.neural.NeuralNetwork;
+import network.neural.activationfunctions.LeakyReLU;
+import network.neural.layer.Layer;
+import network.neural.util.DataSet;
+import network.neural.util.matrix.NDArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * networks, data and comparisons shared by the tests.
+ */
+final class TestNetworks {
+
+    private TestNetworks() {
+    }
+
+    /**
+     * a network of LeakyReLU layers with learning rate 0.01
+     *
+     * @param sizes the number of inputs, then the outputs of every layer
+     */
+    static NeuralNetwork network(int... sizes) {
+        NeuralNetwork nn = new NeuralNetwork().learningRate(0.01);
+        for (int l = 1; l < sizes.length; l++)
+            nn.layer(new Layer(sizes[l - 1], sizes[l], new LeakyReLU()));
+
+        return nn;
+    }
+
+    /**
+     * a network with the layers, activation functions, learning rate and a copy of the weights of another
+     */
+    static NeuralNetwork copy(NeuralNetwork network) {
+        NeuralNetwork copy = new NeuralNetwork().learningRate(network.getLearningRate());
+        for (int l = 0; l < network.getLayerCount(); l++) {
+            Layer layer = network.getLayer(l);
+            copy.layer(new Layer(layer.getWeights().mul(1.0), layer.getBias().mul(1.0), layer.getActivationFunction()));
+        }
+
+        return copy;
+    }
+
+    /**
+     * rows of 4 random inputs with a linear target
+     */
+    static DataSet dataSet(int rows) {
+        NDArray x = NDArray.rand(rows, 4);
+        NDArray y = x.dot(new NDArray(new double[][] {{1}, {-2}, {3}, {0.5}}));
+        return new DataSet(x, y);
+    }
+
+    /**
+     * asserts that every element of actual is within tolerance of expected, relative to
+     * the size of the expected element when that is above 1
+     */
+    static void assertClose(NDArray expected, NDArray actual, double tolerance) {
+        assertEquals(expected.shape(0), actual.shape(0));
+        assertEquals(expected.shape(1), actual.shape(1));
+
+        for (int i = 0; i < expected.shape(0); i++)
+            for (int j = 0; j < expected.shape(1); j++)
+                assertEquals(expected.get(i, j), actual.get(i, j), tolerance * Math.max(1, Math.abs(expected.get(i, j))),
+                        "element (" + i + ", " + j + ")");
+    }
+
+}